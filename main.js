@@ -74,6 +74,14 @@ document.addEventListener('DOMContentLoaded', () => {
     // Handle appointment form submission
     const appointmentForm = document.getElementById('appointment-form');
     if (appointmentForm) {
+        // Past days cannot be booked; the server rejects them too
+        const dateInput = appointmentForm.querySelector('#date');
+        if (dateInput) {
+            const today = new Date();
+            today.setMinutes(today.getMinutes() - today.getTimezoneOffset());
+            dateInput.min = today.toISOString().slice(0, 10);
+        }
+
         appointmentForm.addEventListener('submit', (e) => {
             e.preventDefault();
 
@@ -516,7 +524,8 @@ function registerPatient() {
 function loginPatient() {
     const form = document.getElementById('login-form');
     const data = {
-        loginCnic: form.loginCnic.value
+        loginCnic: form.loginCnic.value,
+        password: form.password.value
     };
     ajaxRequest('POST', '/patients/login', data, (status, response) => {
         const messageDiv = document.getElementById('login-message');
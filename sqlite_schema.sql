@@ -39,3 +39,18 @@ CREATE TABLE IF NOT EXISTS symptoms (
     medicines TEXT NOT NULL,
     FOREIGN KEY(patient_id) REFERENCES patients(id)
 );
+
+CREATE TABLE IF NOT EXISTS medicine_rules (
+    id INTEGER PRIMARY KEY AUTOINCREMENT,
+    keyword TEXT NOT NULL,
+    medicine TEXT NOT NULL,
+    min_age INTEGER,
+    max_age INTEGER,
+    min_weight REAL,
+    max_weight REAL
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS idx_appointments_doctor_slot ON appointments (doctor_id, date, time);
+CREATE INDEX IF NOT EXISTS idx_patients_phone ON patients (phone);
+CREATE INDEX IF NOT EXISTS idx_appointments_patient_date ON appointments (patient_id, date, time, id, doctor_id, disease, message);
+CREATE INDEX IF NOT EXISTS idx_symptoms_patient_history ON symptoms (patient_id, id, symptoms, medicines);
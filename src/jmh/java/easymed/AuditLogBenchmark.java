@@ -0,0 +1,64 @@
+package easymed;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// What auditing costs a request: publishing one event into the AuditLog ring, from one
+// thread and from four at once, with the writer appending to segments in a temp directory
+// behind it. A loop doing nothing else publishes faster than the writer appends, so part
+// of the calls find the ring full; teardown prints how many, and the rate the writer kept
+// up, which is the most events per second the log can take.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuditLogBenchmark {
+
+    private AuditLog log;
+    private InetAddress client;
+    private long startNanos;
+
+    @Setup
+    public void setUp() throws IOException {
+        log = new AuditLog(Files.createTempDirectory("easymed-audit-bench"), 65536, 64L * 1024 * 1024, 1000, 512, 0);
+        client = InetAddress.getByAddress(new byte[] {10, 0, 0, 7});
+        startNanos = System.nanoTime();
+    }
+
+    @TearDown
+    public void tearDown() {
+        log.close();
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        String stats = log.statsJson();
+        long written = Long.parseLong(stats.replaceAll(".*\"written\":(\\d+).*", "$1"));
+        System.out.println();
+        System.out.printf("audit %s, writer %.0f events/s%n", stats, written / seconds);
+    }
+
+    @Benchmark
+    public boolean record() {
+        return log.record(AuditLog.Type.LOGIN, 42, 0, client);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean recordContended() {
+        return log.record(AuditLog.Type.LOGIN, 42, 0, client);
+    }
+}
@@ -0,0 +1,127 @@
+package easymed;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// What a backup costs the bookings running next to it. Writer threads insert appointments
+// through the ConnectionManager writer as fast as their pause allows, first on their own
+// and then while BackupService takes one snapshot after another of the seeded database;
+// prints write latency for both phases and the backup throughput.
+//
+//   mvn -Pjmh package -DskipTests -Dexec.skip
+//   java -cp target/benchmarks.jar easymed.BackupBenchmark [writers] [seconds] [pauseMillis]
+public class BackupBenchmark {
+
+    private static final AtomicLong slot = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        int writers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int pauseMillis = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+
+        BenchDatabase.ensureSeeded();
+        Path dir = Files.createTempDirectory("easymed-backup-bench");
+        BackupService backups = new BackupService(MedicalServer.db,
+                Paths.get(System.getProperty("easymed.db")), dir, 0, 2);
+
+        System.out.printf("%-9s %8s %9s %9s %9s %9s%n", "phase", "writes", "p50 us", "p99 us", "max us", "backups");
+        long[] baseline = drive(writers, seconds, pauseMillis, null);
+        print("baseline", baseline, 0);
+
+        List<BackupService.Report> reports = new ArrayList<>();
+        long[] during = drive(writers, seconds, pauseMillis, () -> {
+            try {
+                reports.add(backups.backup());
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        print("backups", during, reports.size());
+
+        if (!reports.isEmpty()) {
+            long bytes = reports.get(0).databaseBytes();
+            double copyMillis = reports.stream().mapToLong(BackupService.Report::copyMillis).average().orElse(0);
+            double totalMillis = reports.stream().mapToLong(BackupService.Report::totalMillis).average().orElse(0);
+            System.out.printf("database %.1f MB, gzip %.1f MB, copy %.0f ms (%.0f MB/s), whole backup %.0f ms%n",
+                    bytes / 1e6, reports.get(0).compressedBytes() / 1e6, copyMillis,
+                    bytes / 1e3 / Math.max(1, copyMillis), totalMillis);
+        }
+    }
+
+    // Runs the writers for the given time, with background running back to back on the
+    // calling thread if given; returns the sorted write latencies in nanoseconds
+    private static long[] drive(int writers, int seconds, int pauseMillis, Runnable background)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long[][] samples = new long[writers][];
+        Thread[] threads = new Thread[writers];
+        for (int i = 0; i < writers; i++) {
+            int writer = i;
+            threads[i] = new Thread(() -> {
+                long[] latencies = new long[4096];
+                int n = 0;
+                try {
+                    while (System.nanoTime() < deadline) {
+                        long t0 = System.nanoTime();
+                        book();
+                        if (n == latencies.length) {
+                            latencies = Arrays.copyOf(latencies, n * 2);
+                        }
+                        latencies[n++] = System.nanoTime() - t0;
+                        Thread.sleep(pauseMillis);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    samples[writer] = Arrays.copyOf(latencies, n);
+                }
+            });
+            threads[i].start();
+        }
+        while (background != null && System.nanoTime() < deadline) {
+            background.run();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        long[] all = Arrays.stream(samples).flatMapToLong(Arrays::stream).sorted().toArray();
+        return all;
+    }
+
+    // One appointment in a slot no seeded row uses
+    private static void book() throws Exception {
+        long n = slot.incrementAndGet();
+        MedicalServer.db.write(connection -> {
+            PreparedStatement ps = MedicalServer.db.prepare(connection,
+                    "INSERT INTO appointments (doctor_id, patient_id, date, time, message, disease) VALUES (?, ?, ?, ?, ?, ?)");
+            ps.setInt(1, 1 + (int) (n % BenchDatabase.DOCTORS));
+            ps.setInt(2, 1 + (int) (n % BenchDatabase.PATIENTS));
+            ps.setString(3, "2099-01-01");
+            ps.setString(4, "bench-" + n);
+            ps.setString(5, "Backup benchmark");
+            ps.setString(6, "Seasonal flu");
+            return ps.executeUpdate();
+        });
+    }
+
+    private static void print(String phase, long[] sorted, int backups) {
+        System.out.printf("%-9s %8d %9.0f %9.0f %9.0f %9d%n", phase, sorted.length,
+                percentile(sorted, 50), percentile(sorted, 99),
+                sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e3, backups);
+    }
+
+    private static double percentile(long[] sorted, int p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e3;
+    }
+}
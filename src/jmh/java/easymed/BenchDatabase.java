@@ -0,0 +1,109 @@
+package easymed;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+// Seeds a throwaway SQLite file with a clinic-sized data set and initializes the server
+// statics against it. Sizes can be overridden with -Dbench.doctors, -Dbench.patients
+// and -Dbench.appointments.
+final class BenchDatabase {
+
+    static final String[] CATEGORIES = {
+            "Cardiology", "Neurology", "Orthopedics", "Dermatology", "Pediatrics", "Gynecology",
+            "ENT", "Ophthalmology", "Psychiatry", "Urology", "Gastroenterology", "General Medicine"};
+
+    static final int DOCTORS = Integer.getInteger("bench.doctors", 600);
+    static final int PATIENTS = Integer.getInteger("bench.patients", 20_000);
+    static final int APPOINTMENTS = Integer.getInteger("bench.appointments", 100_000);
+
+    static final LocalDate FIRST_DAY = LocalDate.of(2025, 1, 1);
+
+    private static Path file;
+
+    private BenchDatabase() {
+    }
+
+    // Creates and seeds the database once per JVM; later calls are no-ops
+    static synchronized void ensureSeeded() throws IOException, SQLException {
+        if (file != null) {
+            return;
+        }
+        Path dir = Files.createTempDirectory("easymed-bench");
+        file = dir.resolve("medical.db");
+        System.setProperty("easymed.db", file.toString());
+        System.setProperty("easymed.audit.dir", dir.resolve("audit").toString());
+        MedicalServer.initDatabase();
+        seed();
+        MedicalServer.doctorDirectory.refresh();
+        // Counted before the rows existed; one more pass picks them up
+        MedicalServer.bookingStats.load();
+    }
+
+    static String doctorName(int i) {
+        return "Dr. Doctor " + i;
+    }
+
+    static String category(int i) {
+        return CATEGORIES[i % CATEGORIES.length];
+    }
+
+    static String phone(int i) {
+        return String.format("0300%07d", i);
+    }
+
+    static String password(int i) {
+        return "password-" + i;
+    }
+
+    private static void seed() throws SQLException {
+        MedicalServer.db.transaction(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO doctors (name, category, experience, phone) VALUES (?, ?, ?, ?)")) {
+                for (int i = 1; i <= DOCTORS; i++) {
+                    ps.setString(1, doctorName(i));
+                    ps.setString(2, category(i));
+                    ps.setInt(3, 1 + i % 30);
+                    ps.setString(4, String.format("0321%07d", i));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO patients (patient_name, father_name, cnic, email, password, phone, age, disease) VALUES (?, ?, ?, ?, ?, ?, ?, ?)")) {
+                for (int i = 1; i <= PATIENTS; i++) {
+                    ps.setString(1, "Patient " + i);
+                    ps.setString(2, "Father " + i);
+                    ps.setString(3, String.format("42101-%07d-1", i));
+                    ps.setString(4, "patient" + i + "@example.com");
+                    // Legacy SHA-256, like a pre-PBKDF2 database; first logins upgrade them
+                    ps.setString(5, PasswordHasher.legacySha256(password(i)));
+                    ps.setString(6, phone(i));
+                    ps.setInt(7, 5 + i % 80);
+                    ps.setString(8, "Seasonal flu");
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO appointments (doctor_id, patient_id, date, time, message, disease) VALUES (?, ?, ?, ?, ?, ?)")) {
+                for (int i = 0; i < APPOINTMENTS; i++) {
+                    ps.setInt(1, 1 + i % DOCTORS);
+                    ps.setInt(2, 1 + i % PATIENTS);
+                    // Each doctor's k-th booking takes the k-th half-hour slot from 09:00, 16 a day
+                    int slot = i / DOCTORS;
+                    ps.setString(3, FIRST_DAY.plusDays(slot / 16).toString());
+                    ps.setString(4, String.format("%02d:%02d", 9 + slot % 16 / 2, slot % 2 * 30));
+                    ps.setString(5, "Follow-up visit");
+                    ps.setString(6, "Seasonal flu");
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            return null;
+        });
+    }
+}
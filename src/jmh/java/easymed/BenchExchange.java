@@ -0,0 +1,177 @@
+package easymed;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// In-memory HttpExchange so handlers can be benchmarked without sockets. One instance is
+// reset and reused per invocation; the response body is counted and discarded. Handlers
+// that answer from another thread (registration and login hash on the password pool)
+// are waited for with awaitResponse().
+final class BenchExchange extends HttpExchange {
+
+    private static final InetSocketAddress LOOPBACK = new InetSocketAddress("127.0.0.1", 40000);
+
+    private final Headers requestHeaders = new Headers();
+    private final Headers responseHeaders = new Headers();
+    private final Map<String, Object> attributes = new HashMap<>();
+    private final CountingOutputStream responseBody = new CountingOutputStream();
+    private OutputStream filteredBody;
+    private String method;
+    private URI uri;
+    private InputStream requestBody;
+    private volatile int responseCode;
+    private CountDownLatch finished;
+
+    BenchExchange reset(String method, String uri, byte[] body) {
+        this.method = method;
+        this.uri = URI.create(uri);
+        this.requestBody = new ByteArrayInputStream(body == null ? new byte[0] : body);
+        this.responseCode = -1;
+        requestHeaders.clear();
+        responseHeaders.clear();
+        responseBody.count = 0;
+        filteredBody = null;
+        finished = new CountDownLatch(1);
+        if (body != null) {
+            requestHeaders.set("Content-Length", String.valueOf(body.length));
+            requestHeaders.set("Content-Type", "application/json");
+        }
+        return this;
+    }
+
+    long bytesWritten() {
+        return responseBody.count;
+    }
+
+    // Blocks until the handler has closed the exchange or its response body, and fails
+    // unless the status was the expected one
+    BenchExchange awaitResponse(int expectedStatus) throws InterruptedException {
+        if (!finished.await(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("No response for " + method + " " + uri);
+        }
+        if (responseCode != expectedStatus) {
+            throw new IllegalStateException(method + " " + uri + " answered " + responseCode);
+        }
+        return this;
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return uri;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return method;
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+        return null;
+    }
+
+    @Override
+    public void close() {
+        finished.countDown();
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return requestBody;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return filteredBody != null ? filteredBody : responseBody;
+    }
+
+    @Override
+    public void sendResponseHeaders(int rCode, long responseLength) {
+        this.responseCode = rCode;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return LOOPBACK;
+    }
+
+    @Override
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return LOOPBACK;
+    }
+
+    @Override
+    public String getProtocol() {
+        return "HTTP/1.1";
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        attributes.put(name, value);
+    }
+
+    @Override
+    public void setStreams(InputStream i, OutputStream o) {
+        if (i != null) {
+            requestBody = i;
+        }
+        if (o != null) {
+            filteredBody = o;
+        }
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return null;
+    }
+
+    private final class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void close() {
+            finished.countDown();
+        }
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
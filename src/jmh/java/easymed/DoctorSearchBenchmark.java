@@ -0,0 +1,119 @@
+package easymed;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// /doctors/search over a large roster (-Dbench.searchDoctors, default 50000): one query
+// against the DoctorSearch index, from a one-letter prefix matching a good part of the
+// roster down to a word matching nothing, next to the LIKE '%q%' scan the same search would
+// be in SQL, on an in-memory SQLite table with the same rows. Index build time is
+// "buildIndex".
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DoctorSearchBenchmark {
+
+    private static final int DOCTORS = Integer.getInteger("bench.searchDoctors", 50_000);
+
+    private static final String[] FIRST_NAMES = {
+            "Ahmad", "Ali", "Ayesha", "Bilal", "Fatima", "Hamza", "Hassan", "Imran", "Kashif", "Maryam",
+            "Nadia", "Omar", "Rabia", "Saad", "Sara", "Usman", "Zainab", "Zubair"};
+    private static final String[] LAST_NAMES = {
+            "Abbasi", "Ahmed", "Butt", "Chaudhry", "Farooq", "Hussain", "Iqbal", "Javed", "Khan",
+            "Khalid", "Malik", "Mirza", "Qureshi", "Raza", "Saeed", "Shah", "Sheikh", "Siddiqui"};
+
+    @Param({"a", "car", "ahmad", "sara kh", "heart", "zzz"})
+    public String query;
+
+    private List<DoctorDirectory.Doctor> roster;
+    private DoctorSearch search;
+    private Connection sqlite;
+    private PreparedStatement like;
+
+    @Setup
+    public void setUp() throws SQLException {
+        roster = new ArrayList<>(DOCTORS);
+        for (int i = 1; i <= DOCTORS; i++) {
+            String name = "Dr. " + FIRST_NAMES[i % FIRST_NAMES.length] + " " +
+                    LAST_NAMES[(i / FIRST_NAMES.length) % LAST_NAMES.length];
+            roster.add(new DoctorDirectory.Doctor(i, name, BenchDatabase.category(i), 1 + i % 30,
+                    String.format("0321%07d", i)));
+        }
+        search = new DoctorSearch(roster);
+
+        sqlite = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try (Statement st = sqlite.createStatement()) {
+            st.execute("CREATE TABLE doctors (id INTEGER PRIMARY KEY, name TEXT, category TEXT, experience INTEGER, phone TEXT)");
+        }
+        sqlite.setAutoCommit(false);
+        try (PreparedStatement ps = sqlite.prepareStatement("INSERT INTO doctors VALUES (?, ?, ?, ?, ?)")) {
+            for (DoctorDirectory.Doctor d : roster) {
+                ps.setInt(1, d.id());
+                ps.setString(2, d.name());
+                ps.setString(3, d.category());
+                ps.setInt(4, d.experience());
+                ps.setString(5, d.phone());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        sqlite.commit();
+        like = sqlite.prepareStatement(
+                "SELECT id, name, category, experience, phone FROM doctors WHERE name LIKE ? OR category LIKE ? " +
+                        "ORDER BY experience DESC LIMIT " + DoctorSearch.DEFAULT_LIMIT);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        like.close();
+        sqlite.close();
+    }
+
+    @Benchmark
+    public List<DoctorDirectory.Doctor> search() {
+        return search.search(query, DoctorSearch.DEFAULT_LIMIT);
+    }
+
+    @Benchmark
+    public List<DoctorDirectory.Doctor> sqlLikeScan() throws SQLException {
+        like.setString(1, "%" + query + "%");
+        like.setString(2, "%" + query + "%");
+        List<DoctorDirectory.Doctor> found = new ArrayList<>();
+        try (ResultSet rs = like.executeQuery()) {
+            while (rs.next()) {
+                found.add(new DoctorDirectory.Doctor(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getInt(4),
+                        rs.getString(5)));
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public DoctorSearch buildIndex() {
+        return new DoctorSearch(roster);
+    }
+}
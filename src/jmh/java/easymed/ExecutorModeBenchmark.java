@@ -0,0 +1,124 @@
+package easymed;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Closed-loop load generator comparing the HttpServer execution models against
+// GET /doctors?category=. Starts the server in-process once per mode on a free port,
+// drives it with a fixed number of keep-alive clients and prints p50/p99 latency
+// and throughput. The server reads the BenchDatabase roster.
+//
+//   mvn -Pjmh package -DskipTests -Dexec.skip
+//   java -cp target/benchmarks.jar easymed.ExecutorModeBenchmark [clients] [seconds] [category]
+public class ExecutorModeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        String category = args.length > 2 ? args[2] : "Cardiology";
+
+        // A seeded throwaway file, never the medical.db in the working directory
+        BenchDatabase.ensureSeeded();
+        System.out.printf("%-10s %10s %10s %10s %10s %8s%n", "mode", "req/s", "p50 ms", "p99 ms", "max ms", "503s");
+        for (String mode : new String[] {ServerExecutors.DISPATCHER, ServerExecutors.BOUNDED, ServerExecutors.VIRTUAL}) {
+            run(mode, clients, seconds, category);
+        }
+    }
+
+    private static void run(String mode, int clients, int seconds, String category) throws Exception {
+        ExecutorService executor = ServerExecutors.create(mode);
+        HttpServer server = MedicalServer.createServer(0, executor);
+        server.start();
+        URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/doctors?category=" + category);
+        try {
+            // Warm up the handler, JIT and connection pool before measuring
+            drive(url, clients, 2, null, null);
+
+            LongAdder rejected = new LongAdder();
+            List<long[]> perClient = new ArrayList<>();
+            long start = System.nanoTime();
+            drive(url, clients, seconds, perClient, rejected);
+            double elapsed = (System.nanoTime() - start) / 1e9;
+
+            long[] all = perClient.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+            System.out.printf("%-10s %10.0f %10.2f %10.2f %10.2f %8d%n", mode,
+                    all.length / elapsed, percentile(all, 50), percentile(all, 99),
+                    all.length == 0 ? 0 : all[all.length - 1] / 1e6, rejected.sum());
+        } finally {
+            server.stop(0);
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private static void drive(URL url, int clients, int seconds, List<long[]> results, LongAdder rejected)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        CountDownLatch done = new CountDownLatch(clients);
+        long[][] samples = new long[clients][];
+        for (int i = 0; i < clients; i++) {
+            int client = i;
+            Thread t = new Thread(() -> {
+                long[] latencies = new long[1024];
+                int n = 0;
+                try {
+                    while (System.nanoTime() < deadline) {
+                        long t0 = System.nanoTime();
+                        int status = get(url);
+                        long took = System.nanoTime() - t0;
+                        if (status == 503 && rejected != null) {
+                            rejected.increment();
+                            continue;
+                        }
+                        if (n == latencies.length) {
+                            latencies = Arrays.copyOf(latencies, n * 2);
+                        }
+                        latencies[n++] = took;
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    samples[client] = Arrays.copyOf(latencies, n);
+                    done.countDown();
+                }
+            });
+            t.setDaemon(true);
+            t.start();
+        }
+        done.await();
+        if (results != null) {
+            results.addAll(Arrays.asList(samples));
+        }
+    }
+
+    private static int get(URL url) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) url.openConnection();
+        int status = c.getResponseCode();
+        InputStream body = status < 400 ? c.getInputStream() : c.getErrorStream();
+        if (body != null) {
+            // Drain fully so the keep-alive connection goes back to the JDK's pool
+            body.readAllBytes();
+            body.close();
+        }
+        return status;
+    }
+
+    private static double percentile(long[] sorted, int p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
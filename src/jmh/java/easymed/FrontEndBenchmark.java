@@ -0,0 +1,403 @@
+package easymed;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Connection scaling of the two front ends, the JDK HttpServer and NioHttpServer. For each
+// one a server is started in a child JVM (both ends need a file descriptor per connection),
+// `idle` keep-alive connections are opened, used for one request and left open, and then
+// `active` connections send GET requests in a closed loop for the given time. Prints
+// throughput and latency, how many of the idle connections still answer afterwards, and
+// the server's resident memory, thread count and CPU time per thousand requests from /proc.
+// The client is a single selector thread, so on a small machine it competes with the server
+// for CPU the same way for both.
+//
+// The JDK server keeps at most sun.net.httpserver.maxIdleConnections (200) connections open
+// between requests and closes any other once its response is sent, so past that number its
+// clients reconnect for nearly every request. It is run twice, as configured by default and
+// with the limit raised to cover every connection.
+//
+//   mvn -Pjmh package -DskipTests -Dexec.skip
+//   java -cp target/benchmarks.jar easymed.FrontEndBenchmark [idle] [active] [seconds] [path]
+public class FrontEndBenchmark {
+
+    private static final int MAX_CONNECTING = 512;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("serve")) {
+            serve(args[1]);
+            return;
+        }
+        int idle = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int active = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 15;
+        String path = args.length > 3 ? args[3] : "/doctors?category=Cardiology";
+
+        System.out.printf("%-6s %10s %9s %9s %9s %8s %8s %8s %12s %8s %8s %10s%n", "server", "req/s", "p50 ms",
+                "p99 ms", "max ms", "503s", "reconn", "errors", "idle alive", "RSS MB", "threads", "CPU ms/1k");
+        run("jdk", "jdk", idle, active, seconds, path);
+        run("jdk+", "jdk", idle, active, seconds, path,
+                "-Dsun.net.httpserver.maxIdleConnections=" + (idle + active));
+        run("nio", "nio", idle, active, seconds, path);
+    }
+
+    // Child side: a seeded server on a free port, until the parent closes stdin
+    private static void serve(String frontEnd) throws Exception {
+        BenchDatabase.ensureSeeded();
+        int port;
+        if (frontEnd.equals("nio")) {
+            NioHttpServer server = new NioHttpServer(new InetSocketAddress(0), MedicalServer.createRouter(),
+                    ServerExecutors.create(ServerExecutors.configuredMode()), NioHttpServer.Config.fromSystemProperties());
+            server.start();
+            port = server.getAddress().getPort();
+        } else {
+            HttpServer server = MedicalServer.createServer(0, ServerExecutors.create(ServerExecutors.configuredMode()));
+            server.start();
+            port = server.getAddress().getPort();
+        }
+        System.out.println("port " + port);
+        System.out.flush();
+        while (System.in.read() >= 0) {
+            // Wait for the parent to go away
+        }
+        System.exit(0);
+    }
+
+    private static void run(String label, String frontEnd, int idle, int active, int seconds, String path,
+                            String... jvmArgs) throws Exception {
+        List<String> command = new ArrayList<>(List.of(ProcessHandle.current().info().command().orElse("java"),
+                "-Xmx512m", "-Dbench.patients=1000", "-Dbench.appointments=1000"));
+        command.addAll(List.of(jvmArgs));
+        command.addAll(List.of("-cp", System.getProperty("java.class.path"), FrontEndBenchmark.class.getName(),
+                "serve", frontEnd));
+        Process child = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        BufferedReader out = new BufferedReader(new InputStreamReader(child.getInputStream(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = out.readLine()) != null && !line.startsWith("port ")) {
+            // Start-up chatter
+        }
+        if (line == null) {
+            throw new IOException("Server process exited before listening");
+        }
+        InetSocketAddress address = new InetSocketAddress("localhost", Integer.parseInt(line.substring(5)));
+        byte[] request = ("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+        try (Load load = new Load(address, request)) {
+            List<Client> idleClients = load.open(idle, false);
+            List<Client> activeClients = load.open(active, true);
+
+            // Warm up, then measure
+            load.drive(activeClients, TimeUnit.SECONDS.toNanos(2), false);
+            load.errors = 0;
+            load.reconnects = 0;
+            long cpuBefore = cpuMillis(child.pid());
+            long start = System.nanoTime();
+            load.drive(activeClients, TimeUnit.SECONDS.toNanos(seconds), true);
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            long cpu = cpuMillis(child.pid()) - cpuBefore;
+            long rss = procStatus(child.pid(), "VmRSS:");
+            long threads = procStatus(child.pid(), "Threads:");
+            int alive = load.check(idleClients);
+
+            long[] all = Arrays.copyOf(load.latencies, load.samples);
+            Arrays.sort(all);
+            System.out.printf("%-6s %10.0f %9.2f %9.2f %9.2f %8d %8d %8d %12s %8.0f %8d %10.1f%n", label,
+                    all.length / elapsed, percentile(all, 50), percentile(all, 99),
+                    all.length == 0 ? 0 : all[all.length - 1] / 1e6, load.shed, load.reconnects, load.errors,
+                    alive + "/" + idle, rss / 1024.0, threads, all.length == 0 ? 0 : cpu * 1000.0 / all.length);
+        } finally {
+            child.getOutputStream().close();
+            if (!child.waitFor(5, TimeUnit.SECONDS)) {
+                child.destroyForcibly();
+            }
+        }
+    }
+
+    // One keep-alive connection; bodyRemaining is -1 while the response head is being read.
+    // An active client that loses its connection opens a new one.
+    private static final class Client {
+        final boolean active;
+        final byte[] head = new byte[4096];
+        SocketChannel channel;
+        int headLength;
+        long bodyRemaining = -1;
+        int status;
+        long sentNanos;
+        boolean waiting;
+        boolean failed;
+
+        Client(boolean active) {
+            this.active = active;
+        }
+    }
+
+    private static final class Load implements AutoCloseable {
+        private final InetSocketAddress address;
+        private final byte[] request;
+        private final Selector selector = Selector.open();
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+        private final List<Client> all = new ArrayList<>();
+        long[] latencies = new long[1 << 20];
+        int samples;
+        long shed;
+        long reconnects;
+        long errors;
+        private boolean recording;
+        private boolean repeat;
+        private int outstanding;
+
+        Load(InetSocketAddress address, byte[] request) throws IOException {
+            this.address = address;
+            this.request = request;
+        }
+
+        // Opens count connections, a limited number of handshakes at a time, and completes
+        // one request on each
+        List<Client> open(int count, boolean active) throws IOException {
+            List<Client> opened = new ArrayList<>(count);
+            int started = 0;
+            repeat = false;
+            while (started < count || outstanding > 0) {
+                while (started < count && outstanding < MAX_CONNECTING) {
+                    Client client = new Client(active);
+                    connect(client);
+                    opened.add(client);
+                    all.add(client);
+                    started++;
+                }
+                select(System.nanoTime() + TimeUnit.SECONDS.toNanos(30));
+            }
+            return opened;
+        }
+
+        private void connect(Client client) throws IOException {
+            client.channel = SocketChannel.open();
+            client.channel.configureBlocking(false);
+            client.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            client.channel.connect(address);
+            client.channel.register(selector, SelectionKey.OP_CONNECT, client);
+            client.failed = false;
+            client.waiting = true;
+            client.headLength = 0;
+            client.bodyRemaining = -1;
+            outstanding++;
+        }
+
+        // Keeps every client busy for the given time
+        void drive(List<Client> clients, long nanos, boolean record) throws IOException {
+            recording = record;
+            repeat = true;
+            for (Client client : clients) {
+                if (client.failed) {
+                    connect(client);
+                    reconnects++;
+                } else {
+                    send(client);
+                }
+            }
+            select(System.nanoTime() + nanos);
+            repeat = false;
+            while (outstanding > 0) {
+                select(System.nanoTime() + TimeUnit.SECONDS.toNanos(10));
+            }
+            recording = false;
+        }
+
+        // Sends one more request on each connection; returns how many got an answer
+        int check(List<Client> clients) throws IOException {
+            for (Client client : clients) {
+                if (!client.failed) {
+                    send(client);
+                }
+            }
+            while (outstanding > 0) {
+                if (!select(System.nanoTime() + TimeUnit.SECONDS.toNanos(10))) {
+                    break;
+                }
+            }
+            int alive = 0;
+            for (Client client : clients) {
+                if (!client.failed && !client.waiting) {
+                    alive++;
+                }
+            }
+            return alive;
+        }
+
+        // Handles events until the deadline, or until nothing is outstanding when not
+        // repeating; false if the deadline passed with requests still outstanding
+        private boolean select(long deadline) throws IOException {
+            while (repeat || outstanding > 0) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    return !repeat && outstanding == 0;
+                }
+                selector.select(key -> ready((Client) key.attachment(), key), Math.max(1, left / 1_000_000));
+                if (!repeat && outstanding == 0) {
+                    return true;
+                }
+            }
+            return true;
+        }
+
+        private void ready(Client client, SelectionKey key) {
+            try {
+                if (key.isConnectable()) {
+                    client.channel.finishConnect();
+                    key.interestOps(SelectionKey.OP_READ);
+                    outstanding--;
+                    send(client);
+                    return;
+                }
+                buffer.clear();
+                if (client.channel.read(buffer) < 0) {
+                    throw new IOException("Connection closed by server");
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    if (client.bodyRemaining < 0) {
+                        client.head[client.headLength++] = buffer.get();
+                        if (endsHead(client)) {
+                            client.bodyRemaining = contentLength(client);
+                            client.headLength = 0;
+                        }
+                    } else {
+                        int skip = (int) Math.min(buffer.remaining(), client.bodyRemaining);
+                        buffer.position(buffer.position() + skip);
+                        client.bodyRemaining -= skip;
+                    }
+                    if (client.bodyRemaining == 0) {
+                        client.bodyRemaining = -1;
+                        complete(client);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                fail(client, key);
+            }
+        }
+
+        private boolean endsHead(Client client) {
+            int n = client.headLength;
+            byte[] h = client.head;
+            return n >= 4 && h[n - 4] == '\r' && h[n - 3] == '\n' && h[n - 2] == '\r' && h[n - 1] == '\n';
+        }
+
+        private long contentLength(Client client) throws IOException {
+            String head = new String(client.head, 0, client.headLength, StandardCharsets.ISO_8859_1);
+            client.status = head.startsWith("HTTP/1.1 ") ? Integer.parseInt(head.substring(9, 12)) : 0;
+            if (client.status != 200 && client.status != 503) {
+                throw new IOException("Unexpected response " + head.lines().findFirst().orElse(""));
+            }
+            for (String header : head.split("\r\n")) {
+                if (header.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                    return Long.parseLong(header.substring(15).trim());
+                }
+            }
+            throw new IOException("Response without Content-Length");
+        }
+
+        private void complete(Client client) {
+            client.waiting = false;
+            outstanding--;
+            if (client.status == 503) {
+                shed += recording ? 1 : 0;
+            } else if (recording) {
+                if (samples == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, samples * 2);
+                }
+                latencies[samples++] = System.nanoTime() - client.sentNanos;
+            }
+            if (repeat) {
+                send(client);
+            }
+        }
+
+        private void send(Client client) {
+            ByteBuffer out = ByteBuffer.wrap(request);
+            client.sentNanos = System.nanoTime();
+            client.waiting = true;
+            outstanding++;
+            try {
+                while (out.hasRemaining()) {
+                    client.channel.write(out);
+                }
+            } catch (IOException e) {
+                fail(client, client.channel.keyFor(selector));
+            }
+        }
+
+        // A connection the server closed while idle is not an error, just no longer alive
+        private void fail(Client client, SelectionKey key) {
+            if (client.waiting) {
+                outstanding--;
+                errors++;
+            }
+            client.failed = true;
+            client.waiting = false;
+            key.cancel();
+            try {
+                client.channel.close();
+            } catch (IOException e) {
+                // Already counted
+            }
+            if (client.active && repeat) {
+                try {
+                    connect(client);
+                    reconnects++;
+                } catch (IOException e) {
+                    client.failed = true;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (Client client : all) {
+                client.channel.close();
+            }
+            selector.close();
+        }
+    }
+
+    // Value of a /proc/<pid>/status field: kB for memory, a count for Threads
+    private static long procStatus(long pid, String field) throws IOException {
+        for (String line : Files.readAllLines(Paths.get("/proc/" + pid + "/status"))) {
+            if (line.startsWith(field)) {
+                return Long.parseLong(line.substring(field.length()).trim().split("\\s+")[0]);
+            }
+        }
+        return -1;
+    }
+
+    // User plus system time of a process, assuming the usual 100 clock ticks per second
+    private static long cpuMillis(long pid) throws IOException {
+        String stat = Files.readString(Paths.get("/proc/" + pid + "/stat"));
+        String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+        return (Long.parseLong(fields[11]) + Long.parseLong(fields[12])) * 10;
+    }
+
+    private static double percentile(long[] sorted, int p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
@@ -0,0 +1,223 @@
+package easymed;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// End-to-end, in-process benchmarks of every HttpHandler: each invocation builds a
+// request on a reusable BenchExchange and runs the real handler against a temporary
+// SQLite file seeded by BenchDatabase. No sockets are involved, so this measures
+// handler, JSON and database cost only.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandlerBenchmark {
+
+    // Write benchmarks need unique rows per invocation across all threads
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    // Session tokens for the first patients, issued once so requests only pay for validation
+    private final String[] tokens = new String[1000];
+
+    private HttpServer server;
+    private HttpHandler categories;
+    private HttpHandler doctors;
+    private Router router;
+    private Router cachedRouter;
+    private String doctorsEtag;
+    private HttpHandler freeSlots;
+    private HttpHandler appointments;
+    private HttpHandler register;
+    private HttpHandler login;
+    private HttpHandler symptoms;
+    private HttpHandler appointmentHistory;
+    private HttpHandler stats;
+    private HttpHandler staticFiles;
+
+    @State(Scope.Thread)
+    public static class Exchange {
+        final BenchExchange exchange = new BenchExchange();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchDatabase.ensureSeeded();
+        // loginWithPassword cycles through the seeded accounts far faster than the
+        // per-account login limit allows
+        System.setProperty("easymed.rateLimit.login.perMinute", "0");
+        // Wires up static assets and the rest of the routing exactly as main() does; never started
+        server = MedicalServer.createServer(0, null);
+        categories = new MedicalServer.DoctorCategoriesHandler();
+        doctors = new MedicalServer.DoctorsHandler();
+        freeSlots = new MedicalServer.FreeSlotsHandler();
+        appointments = new MedicalServer.AppointmentHandler();
+        register = new MedicalServer.PatientRegisterHandler();
+        login = new MedicalServer.PatientLoginHandler();
+        symptoms = new MedicalServer.SymptomCheckHandler();
+        appointmentHistory = new MedicalServer.AppointmentHistoryHandler();
+        stats = new MedicalServer.StatsHandler();
+        staticFiles = new MedicalServer.StaticFileHandler();
+        router = new Router(MedicalServer.metrics, new ServerExecutors.OverloadFilter(), staticFiles)
+                .get("/doctors", doctors);
+        cachedRouter = new Router(MedicalServer.metrics, new ServerExecutors.OverloadFilter(), staticFiles)
+                .get("/doctors", doctors)
+                .filter("/doctors", MedicalServer.responseCache.filter(() -> MedicalServer.doctorDirectory.version(), "category"));
+        BenchExchange first = new BenchExchange();
+        cachedRouter.handle(first.reset("GET", "/doctors?category=Cardiology", null));
+        doctorsEtag = first.getResponseHeaders().getFirst("ETag");
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = MedicalServer.sessions.issue(1 + i % BenchDatabase.PATIENTS);
+        }
+    }
+
+    private BenchExchange authorized(BenchExchange exchange, int n) {
+        exchange.getRequestHeaders().set("Authorization", "Bearer " + tokens[n % tokens.length]);
+        return exchange;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Benchmark
+    public long doctorCategories(Exchange e) throws Exception {
+        categories.handle(e.exchange.reset("GET", "/doctors/categories", null));
+        return e.exchange.bytesWritten();
+    }
+
+    @Benchmark
+    public long doctorsByCategory(Exchange e) throws Exception {
+        doctors.handle(e.exchange.reset("GET", "/doctors?category=Cardiology", null));
+        return e.exchange.bytesWritten();
+    }
+
+    // The same request through the router and its middleware (metrics, error mapping,
+    // CORS, overload check, dispatch), to keep their overhead in view
+    @Benchmark
+    public long doctorsByCategoryRouted(Exchange e) throws Exception {
+        router.handle(e.exchange.reset("GET", "/doctors?category=Cardiology", null));
+        return e.exchange.bytesWritten();
+    }
+
+    // The same request served from the response cache
+    @Benchmark
+    public long doctorsByCategoryCached(Exchange e) throws Exception {
+        cachedRouter.handle(e.exchange.reset("GET", "/doctors?category=Cardiology", null));
+        return e.exchange.bytesWritten();
+    }
+
+    // A browser revalidating its copy: answered 304 from the cache with no body
+    @Benchmark
+    public int doctorsByCategoryNotModified(Exchange e) throws Exception {
+        BenchExchange exchange = e.exchange.reset("GET", "/doctors?category=Cardiology", null);
+        exchange.getRequestHeaders().set("If-None-Match", doctorsEtag);
+        cachedRouter.handle(exchange);
+        return exchange.getResponseCode();
+    }
+
+    // A CORS preflight, answered by the router without reaching the handler
+    @Benchmark
+    public int preflight(Exchange e) throws Exception {
+        router.handle(e.exchange.reset("OPTIONS", "/doctors", null));
+        return e.exchange.getResponseCode();
+    }
+
+    // The dashboard refresh: answered from the in-memory counters however many rows the
+    // booking tables hold
+    @Benchmark
+    public long stats(Exchange e) throws Exception {
+        stats.handle(e.exchange.reset("GET", "/stats", null));
+        return e.exchange.bytesWritten();
+    }
+
+    @Benchmark
+    public long freeSlotsForWeek(Exchange e) throws Exception {
+        int doctor = 1 + sequence.incrementAndGet() % BenchDatabase.DOCTORS;
+        freeSlots.handle(e.exchange.reset("GET", "/doctors/slots?doctorId=" + doctor +
+                "&from=" + BenchDatabase.FIRST_DAY + "&to=" + BenchDatabase.FIRST_DAY.plusDays(6), null));
+        return e.exchange.bytesWritten();
+    }
+
+    @Benchmark
+    public long bookAppointment(Exchange e) throws Exception {
+        int n = sequence.incrementAndGet();
+        int doctor = 1 + n % BenchDatabase.DOCTORS;
+        // Book far past the seeded calendar so every request asks for a free slot
+        int slot = n / BenchDatabase.DOCTORS;
+        String body = "{\"doctorCategory\":\"" + BenchDatabase.category(doctor) + "\"," +
+                "\"doctor\":\"" + BenchDatabase.doctorName(doctor) + "\"," +
+                "\"date\":\"" + BenchDatabase.FIRST_DAY.plusYears(5).plusDays(slot / 16) + "\"," +
+                "\"time\":\"" + String.format("%02d:%02d", 9 + slot % 16 / 2, slot % 2 * 30) + "\"," +
+                "\"disease\":\"Chest pain\",\"message\":\"Short of breath, worse at night\"}";
+        appointments.handle(authorized(e.exchange.reset("POST", "/appointments", body.getBytes(StandardCharsets.UTF_8)), n));
+        return e.exchange.bytesWritten();
+    }
+
+    // Eight concurrent bookers, so the write batcher has something to group
+    @Benchmark
+    @Threads(8)
+    public long bookAppointmentContended(Exchange e) throws Exception {
+        return bookAppointment(e);
+    }
+
+    @Benchmark
+    public long registerPatient(Exchange e) throws Exception {
+        int n = sequence.incrementAndGet();
+        String body = "{\"patientName\":\"Bench Patient\",\"fatherName\":\"Bench Father\"," +
+                "\"cnic\":\"" + String.format("35202-%07d-9", n) + "\"," +
+                "\"email\":\"bench" + n + "@example.com\",\"password\":\"s3cret-" + n + "\"," +
+                "\"phone\":\"" + String.format("0333%07d", n) + "\",\"age\":41,\"disease\":\"Asthma\"}";
+        register.handle(e.exchange.reset("POST", "/patients/register", body.getBytes(StandardCharsets.UTF_8)));
+        // The handler answers from the password pool; wait for it so the hashing is measured
+        return e.exchange.awaitResponse(200).bytesWritten();
+    }
+
+    @Benchmark
+    public int loginWithPassword(Exchange e) throws Exception {
+        int patient = 1 + sequence.incrementAndGet() % BenchDatabase.PATIENTS;
+        String body = "{\"loginCnic\":\"" + BenchDatabase.phone(patient) + "\"," +
+                "\"password\":\"" + BenchDatabase.password(patient) + "\"}";
+        login.handle(e.exchange.reset("POST", "/patients/login", body.getBytes(StandardCharsets.UTF_8)));
+        return e.exchange.awaitResponse(200).getResponseCode();
+    }
+
+    @Benchmark
+    public long symptomCheck(Exchange e) throws Exception {
+        String body = "{\"symptoms\":\"High fever since yesterday, dry cough and a headache\"}";
+        symptoms.handle(authorized(e.exchange.reset("POST", "/symptoms/check", body.getBytes(StandardCharsets.UTF_8)),
+                sequence.incrementAndGet()));
+        return e.exchange.bytesWritten();
+    }
+
+    @Benchmark
+    public long appointmentHistoryPage(Exchange e) throws Exception {
+        appointmentHistory.handle(authorized(e.exchange.reset("GET", "/patients/appointments?limit=20", null),
+                sequence.incrementAndGet()));
+        return e.exchange.bytesWritten();
+    }
+
+    @Benchmark
+    public long staticIndex(Exchange e) throws Exception {
+        staticFiles.handle(e.exchange.reset("GET", "/index.html", null));
+        return e.exchange.bytesWritten();
+    }
+}
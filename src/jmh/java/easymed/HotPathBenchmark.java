@@ -0,0 +1,169 @@
+package easymed;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Micro-benchmarks of the helpers every request goes through: JSON rendering, legacy
+// password hashing (PBKDF2 has PasswordHashBenchmark), medicine suggestion, session token
+// validation and the static file path (resolution and a cached GET).
+// Static files come from -Deasymed.webRoot, the repository root by default.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HotPathBenchmark {
+
+    // Doctor rows shaped like a /doctors?category= result
+    @State(Scope.Thread)
+    public static class DoctorRows {
+        @Param({"10", "100"})
+        public int rows;
+
+        List<Map<String, Object>> list;
+        List<DoctorDirectory.Doctor> doctors;
+        // Reused, so the benchmark measures encoding rather than stream growth
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+
+        @Setup
+        public void setUp() {
+            list = new ArrayList<>();
+            doctors = new ArrayList<>();
+            for (int i = 1; i <= rows; i++) {
+                doctors.add(new DoctorDirectory.Doctor(i, BenchDatabase.doctorName(i), "Cardiology", 1 + i % 30,
+                        String.format("0321%07d", i)));
+                Map<String, Object> doc = new HashMap<>();
+                doc.put("id", i);
+                doc.put("name", BenchDatabase.doctorName(i));
+                doc.put("experience", 1 + i % 30);
+                doc.put("phone", String.format("0321%07d", i));
+                list.add(doc);
+            }
+        }
+    }
+
+    // Medicine rules: the three defaults, or those plus generated keywords that never match
+    @State(Scope.Thread)
+    public static class Rules {
+        @Param({"3", "1000"})
+        public int rules;
+
+        MedicineRules engine;
+
+        @Setup
+        public void setUp() {
+            List<MedicineRules.Rule> list = new ArrayList<>(MedicineRules.DEFAULT_RULES);
+            for (int i = list.size(); i < rules; i++) {
+                list.add(new MedicineRules.Rule("symptom" + i, "Medicine " + i, i % 2 == 0 ? 12 : null, null, null, null));
+            }
+            engine = new MedicineRules(null, "Multivitamins", 2);
+            engine.use(list);
+        }
+    }
+
+    private StaticAssets assets;
+    private SessionStore sessions;
+    private String token;
+    private final BenchExchange exchange = new BenchExchange();
+
+    @Setup
+    public void setUp() throws Exception {
+        Path root = Paths.get(System.getProperty("easymed.webRoot", "."));
+        assets = new StaticAssets(root, 1024 * 1024);
+        sessions = new SessionStore("bench-secret".getBytes(java.nio.charset.StandardCharsets.UTF_8), 3600);
+        token = sessions.issue(42);
+    }
+
+    @Benchmark
+    public String legacyToJsonArrayOfObjects(DoctorRows doctorRows) {
+        return legacyToJsonArrayOfObjects(doctorRows.list);
+    }
+
+    @Benchmark
+    public int jsonWriter(DoctorRows doctorRows) throws IOException {
+        doctorRows.out.reset();
+        try (JsonWriter json = new JsonWriter(doctorRows.out)) {
+            json.beginArray();
+            for (DoctorDirectory.Doctor d : doctorRows.doctors) {
+                json.beginObject()
+                        .field("id", d.id())
+                        .field("name", d.name())
+                        .field("experience", d.experience())
+                        .field("phone", d.phone())
+                        .endObject();
+            }
+            json.endArray();
+        }
+        return doctorRows.out.size();
+    }
+
+    // MedicalServer.toJsonArrayOfObjects() as it was before JsonWriter (no escaping)
+    static String legacyToJsonArrayOfObjects(List<Map<String, Object>> list) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[");
+        for (int i = 0; i < list.size(); i++) {
+            sb.append("{");
+            Map<String, Object> map = list.get(i);
+            int j = 0;
+            for (Map.Entry<String, Object> entry : map.entrySet()) {
+                sb.append("\"").append(entry.getKey()).append("\":");
+                if (entry.getValue() instanceof Number) {
+                    sb.append(entry.getValue());
+                } else {
+                    sb.append("\"").append(entry.getValue()).append("\"");
+                }
+                if (j < map.size() - 1) sb.append(",");
+                j++;
+            }
+            sb.append("}");
+            if (i < list.size() - 1) sb.append(",");
+        }
+        sb.append("]");
+        return sb.toString();
+    }
+
+    @Benchmark
+    public String legacySha256() {
+        return PasswordHasher.legacySha256("correct horse battery staple");
+    }
+
+    @Benchmark
+    public List<String> suggestMedicines(Rules rules) {
+        return rules.engine.suggest("High fever since yesterday, dry cough and a headache", 42, null);
+    }
+
+    @Benchmark
+    public Integer validateSession() {
+        return sessions.validate(token);
+    }
+
+    @Benchmark
+    public Path staticResolve() {
+        return assets.resolve("/doctors.html");
+    }
+
+    @Benchmark
+    public long staticServeCached() throws Exception {
+        assets.serve(exchange.reset("GET", "/index.html", null));
+        return exchange.bytesWritten();
+    }
+}
@@ -0,0 +1,104 @@
+package easymed;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Streaming JsonReader binding versus the old readRequestBody() + parseJson() pair on
+// the bodies the frontend actually sends to /patients/register and /appointments.
+// Run with -prof gc to compare allocation per parse as well as time.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonParserBenchmark {
+
+    private static final String[] REGISTER_FIELDS =
+            {"patientName", "fatherName", "cnic", "email", "password", "phone", "age", "disease"};
+    private static final String[] APPOINTMENT_FIELDS =
+            {"doctorCategory", "doctor", "patientId", "date", "time", "message", "disease"};
+
+    private static final byte[] registerBody = ("{\"patientName\":\"Ayesha Siddiqui\",\"fatherName\":\"Imran Siddiqui\"," +
+            "\"cnic\":\"42101-1234567-8\",\"email\":\"ayesha.siddiqui@example.com\",\"password\":\"s3cret-Pass\"," +
+            "\"phone\":\"03001234567\",\"age\":34,\"disease\":\"Migraine\"}").getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] appointmentBody = ("{\"doctorCategory\":\"Cardiology\",\"doctor\":\"Dr. Ahmad Ali\"," +
+            "\"patientId\":1042,\"date\":\"2026-11-03\",\"time\":\"10:30\",\"disease\":\"Chest pain\"," +
+            "\"message\":\"Pain started two days ago and gets worse on stairs\"}").getBytes(StandardCharsets.UTF_8);
+
+    @Benchmark
+    public String[] streamingRegister() throws IOException {
+        return ApiRequests.readFields(new ByteArrayInputStream(registerBody), REGISTER_FIELDS, 64 * 1024);
+    }
+
+    @Benchmark
+    public Map<String, String> legacyRegister() throws IOException {
+        return legacyParseJson(legacyReadRequestBody(new ByteArrayInputStream(registerBody)));
+    }
+
+    @Benchmark
+    public String[] streamingAppointment() throws IOException {
+        return ApiRequests.readFields(new ByteArrayInputStream(appointmentBody), APPOINTMENT_FIELDS, 64 * 1024);
+    }
+
+    @Benchmark
+    public Map<String, String> legacyAppointment() throws IOException {
+        return legacyParseJson(legacyReadRequestBody(new ByteArrayInputStream(appointmentBody)));
+    }
+
+    // MedicalServer.readRequestBody() as it was before the streaming reader
+    static String legacyReadRequestBody(InputStream is) throws IOException {
+        BufferedReader br = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder();
+        String line;
+        while ((line = br.readLine()) != null) {
+            sb.append(line);
+        }
+        return sb.toString();
+    }
+
+    // MedicalServer.parseJson() as it was before the streaming reader
+    static Map<String, String> legacyParseJson(String json) {
+        Map<String, String> map = new HashMap<>();
+        json = json.trim();
+        if (!json.startsWith("{") || !json.endsWith("}")) {
+            return null;
+        }
+        json = json.substring(1, json.length() - 1).trim();
+        if (json.isEmpty()) {
+            return map;
+        }
+        String[] pairs = json.split(",");
+        for (String pair : pairs) {
+            String[] kv = pair.split(":", 2);
+            if (kv.length != 2) return null;
+            String key = kv[0].trim();
+            String value = kv[1].trim();
+            if (key.startsWith("\"") && key.endsWith("\"")) {
+                key = key.substring(1, key.length() - 1);
+            }
+            if (value.startsWith("\"") && value.endsWith("\"")) {
+                value = value.substring(1, value.length() - 1);
+            }
+            map.put(key, value);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,52 @@
+package easymed;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Password verifications per second on one thread, i.e. logins/sec per core, for each
+// PBKDF2 cost setting. The verification cache is off so every call pays the full KDF;
+// "legacy" is the old unsalted SHA-256 for comparison.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class PasswordHashBenchmark {
+
+    private static final String PASSWORD = "correct horse battery staple";
+
+    @Param({"legacy", "10000", "60000", "120000", "310000"})
+    public String cost;
+
+    private PasswordHasher hasher;
+    private String stored;
+
+    @Setup
+    public void setUp() {
+        int iterations = "legacy".equals(cost) ? 1 : Integer.parseInt(cost);
+        hasher = new PasswordHasher(iterations, 1, 1, 0, 0);
+        stored = "legacy".equals(cost) ? PasswordHasher.legacySha256(PASSWORD) : hasher.hash(PASSWORD);
+    }
+
+    @TearDown
+    public void tearDown() {
+        hasher.close();
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return hasher.matches(PASSWORD, stored);
+    }
+}
@@ -0,0 +1,88 @@
+package easymed;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The two storage engines on the same data set. The seeded SQLite database is copied into a
+// MemoryStorage, which is written out as a snapshot. For each engine prints the startup time
+// (opening the store and loading the doctor directory, slot calendar and patient ages the
+// server builds from it) and single-threaded rates for a login lookup by phone, a first
+// history page and an appointment insert.
+//
+//   mvn -Pjmh package -DskipTests -Dexec.skip
+//   java -cp target/benchmarks.jar easymed.StorageBenchmark [seconds per operation]
+public class StorageBenchmark {
+
+    private interface Op {
+        void run(long n) throws SQLException, IOException;
+    }
+
+    private static final AtomicLong slot = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+
+        BenchDatabase.ensureSeeded();
+        Path dir = Files.createTempDirectory("easymed-storage-bench");
+        Path snapshot = dir.resolve("snapshot.bin");
+        MemoryStorage copy = new MemoryStorage(snapshot);
+        copy.copyFrom(MedicalServer.storage);
+        copy.close();
+        System.out.printf("%d doctors, %d patients, %d appointments; snapshot %.1f MB%n", BenchDatabase.DOCTORS,
+                BenchDatabase.PATIENTS, BenchDatabase.APPOINTMENTS, Files.size(snapshot) / 1e6);
+
+        System.out.printf("%-16s %10s %10s %10s %10s%n", "engine", "start ms", "login/s", "page/s", "insert/s");
+        long t0 = System.nanoTime();
+        SqliteStorage sqlite = new SqliteStorage(new ConnectionManager(System.getProperty("easymed.db"), 4, 5000, 32),
+                null, null);
+        run("sqlite", sqlite, t0, seconds, false);
+
+        t0 = System.nanoTime();
+        run("memory", new MemoryStorage(null), t0, 0, true);
+
+        System.setProperty("easymed.storage.snapshot", snapshot.toString());
+        t0 = System.nanoTime();
+        run("memory+snapshot", MemoryStorage.fromSystemProperties(), t0, seconds, true);
+        System.exit(0);
+    }
+
+    // Loads the server's views of the store, then times each operation; inserts go through
+    // the server's own SQLite engine (with its WriteBatcher) when benchmarking SQLite
+    private static void run(String name, Storage storage, long startNanos, int seconds, boolean memory)
+            throws SQLException, IOException {
+        new DoctorDirectory(storage.doctors(), 300).refresh();
+        SlotCalendar.fromSystemProperties().load(storage.appointments());
+        new PatientAges(storage.patients()).load();
+        double startMillis = (System.nanoTime() - startNanos) / 1e6;
+        if (seconds == 0) {
+            System.out.printf("%-16s %10.1f%n", name, startMillis);
+            return;
+        }
+        Storage writes = memory ? storage : MedicalServer.storage;
+        double logins = rate(seconds, n -> storage.patients().findByCnicOrPhone(
+                BenchDatabase.phone(1 + (int) (n % BenchDatabase.PATIENTS))));
+        double pages = rate(seconds, n -> storage.appointments().findByPatient(
+                1 + (int) (n % BenchDatabase.PATIENTS), null, null, 0, PatientHistory.DEFAULT_LIMIT + 1, a -> { }));
+        double inserts = rate(seconds, n -> {
+            long s = slot.incrementAndGet();
+            writes.appointments().insert(new AppointmentRepository.Appointment(0,
+                    1 + (int) (s % BenchDatabase.DOCTORS), 1 + (int) (s % BenchDatabase.PATIENTS),
+                    "2099-01-01", "bench-" + s, "Storage benchmark", "Seasonal flu"));
+        });
+        System.out.printf("%-16s %10.1f %10.0f %10.0f %10.0f%n", name, startMillis, logins, pages, inserts);
+    }
+
+    private static double rate(int seconds, Op op) throws SQLException, IOException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long start = System.nanoTime();
+        long n = 0;
+        while ((n & 63) != 0 || System.nanoTime() < deadline) {
+            op.run(n++);
+        }
+        return n / ((System.nanoTime() - start) / 1e9);
+    }
+}
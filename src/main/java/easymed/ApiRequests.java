@@ -0,0 +1,94 @@
+package easymed;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Typed request bodies for the POST endpoints, bound field by field from a JsonReader
+// streaming over the exchange body. Fields absent from the JSON (or sent as null) are
+// null; unknown fields are skipped. Values stay as strings so each handler can keep its
+// own validation and error messages.
+public final class ApiRequests {
+
+    private ApiRequests() {
+    }
+
+    // Largest request body accepted, -Deasymed.maxBodyBytes (default 64 KiB)
+    static final long MAX_BODY_BYTES = Long.getLong("easymed.maxBodyBytes", 64 * 1024L);
+
+    public record RegisterRequest(String patientName, String fatherName, String cnic, String email,
+                                  String password, String phone, String age, String disease) {
+        private static final String[] FIELDS =
+                {"patientName", "fatherName", "cnic", "email", "password", "phone", "age", "disease"};
+
+        static RegisterRequest read(HttpExchange exchange) throws IOException {
+            String[] f = readFields(exchange, FIELDS);
+            return new RegisterRequest(f[0], f[1], f[2], f[3], f[4], f[5], f[6], f[7]);
+        }
+    }
+
+    public record LoginRequest(String loginCnic, String password) {
+        private static final String[] FIELDS = {"loginCnic", "password"};
+
+        static LoginRequest read(HttpExchange exchange) throws IOException {
+            String[] f = readFields(exchange, FIELDS);
+            return new LoginRequest(f[0], f[1]);
+        }
+    }
+
+    // The patient is taken from the session token; a patientId in the body is ignored
+    public record AppointmentRequest(String doctorCategory, String doctor, String date,
+                                     String time, String message, String disease) {
+        private static final String[] FIELDS =
+                {"doctorCategory", "doctor", "date", "time", "message", "disease"};
+
+        static AppointmentRequest read(HttpExchange exchange) throws IOException {
+            String[] f = readFields(exchange, FIELDS);
+            return new AppointmentRequest(f[0], f[1], f[2], f[3], f[4], f[5]);
+        }
+    }
+
+    // The patient is taken from the session token; a patientId in the body is ignored.
+    // weight (kg) is optional and only used by weight-banded medicine rules
+    public record SymptomRequest(String symptoms, String weight) {
+        private static final String[] FIELDS = {"symptoms", "weight"};
+
+        static SymptomRequest read(HttpExchange exchange) throws IOException {
+            String[] f = readFields(exchange, FIELDS);
+            return new SymptomRequest(f[0], f[1]);
+        }
+    }
+
+    // The Router has already turned away bodies declaring more than MAX_BODY_BYTES; the
+    // reader's own cap catches chunked bodies that grow past it
+    private static String[] readFields(HttpExchange exchange, String[] fields) throws IOException {
+        return readFields(exchange.getRequestBody(), fields, MAX_BODY_BYTES);
+    }
+
+    // Reads one flat JSON object, keeping the values of the named fields in order
+    static String[] readFields(InputStream body, String[] fields, long maxBytes) throws IOException {
+        JsonReader reader = new JsonReader(body, maxBytes);
+        String[] values = new String[fields.length];
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            int index = indexOf(fields, name);
+            if (index < 0) {
+                reader.skipValue();
+            } else {
+                values[index] = reader.nextString();
+            }
+        }
+        reader.endObject();
+        return values;
+    }
+
+    private static int indexOf(String[] fields, String name) {
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,28 @@
+package easymed;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.function.Consumer;
+
+// The appointments table. (doctor_id, date, time) is unique: one booking per doctor per slot.
+public interface AppointmentRepository {
+
+    record Appointment(int id, int doctorId, int patientId, String date, String time,
+                       String message, String disease) {
+    }
+
+    // Adds an appointment (the id in the record is ignored) and returns the new id. A slot
+    // already booked for the doctor fails with a DuplicateKeyException.
+    int insert(Appointment appointment) throws SQLException;
+
+    // Passes up to limit of the patient's appointments to visitor, newest first (date, time,
+    // id descending), starting after the given sort key, and returns how many it passed;
+    // afterDate null means from the newest
+    int findByPatient(int patientId, String afterDate, String afterTime, int afterId, int limit,
+                      Storage.RowVisitor<Appointment> visitor) throws SQLException, IOException;
+
+    // Every appointment with an id above afterId, in id order
+    void forEach(long afterId, Consumer<Appointment> action) throws SQLException;
+
+    boolean exists(long id) throws SQLException;
+}
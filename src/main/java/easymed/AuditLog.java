@@ -0,0 +1,495 @@
+package easymed;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+// Audit trail of registrations, logins, bookings and symptom checks, kept out of SQLite so
+// auditing adds nothing to the database's write load. Handlers publish events into a
+// bounded ring buffer: claiming a slot is one CAS, nothing locks and nothing blocks, and
+// while the ring is full an event is dropped and counted instead of holding up its request.
+// A single writer thread drains the ring in batches and appends the records to
+// memory-mapped segment files, forcing them to disk every fsyncMillis (0 forces after every
+// batch) and whenever a segment fills up and the next one is started. Starting a segment
+// deletes the oldest ones beyond keepSegments (0 keeps them all).
+//
+// Segments are audit-<n>.seg in the audit directory, n counting up from 1, each preallocated
+// to segmentBytes (sparse on most file systems) and laid out as
+//   header   long magic, long minMillis, long maxMillis
+//   records  int length, int CRC-32C of the rest, long timeMillis, byte type,
+//            byte address length, int patientId, long ref, address bytes
+// with a zero length after the last record. The header's time range is rewritten after
+// every batch so a reader can pass over segments outside the range it wants (see
+// AuditLogReader). On startup the newest segment is scanned to its last intact record and
+// appended to from there, so a record torn by a crash is simply overwritten.
+public class AuditLog implements AutoCloseable {
+
+    // What happened; ref is the appointment id for APPOINTMENT and 0 otherwise. LOGIN_FAILED
+    // carries no patient id.
+    public enum Type {
+        REGISTER, LOGIN, LOGIN_FAILED, APPOINTMENT, SYMPTOM_CHECK;
+
+        static final Type[] VALUES = values();
+
+        public String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        public static Type parse(String label) {
+            return valueOf(label.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    // address is null when the client is unknown; patientId is -1 when there is none
+    public record Event(long timeMillis, Type type, int patientId, long ref, InetAddress address) {
+    }
+
+    // "EMAUDIT1"
+    static final long MAGIC = 0x454D415544495431L;
+    static final int HEADER_BYTES = 24;
+    // length, crc, time, type, address length, patient id, ref
+    static final int RECORD_HEADER_BYTES = 30;
+    static final int MAX_RECORD_BYTES = RECORD_HEADER_BYTES + 16;
+
+    private static final byte[] NO_ADDRESS = new byte[0];
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final long fsyncNanos;
+    private final int maxBatch;
+    private final int keepSegments;
+
+    // Ring: slot i is free for position p while sequence[i] == p and holds the event for p
+    // once sequence[i] == p + 1 (Vyukov's bounded queue, with the one consumer side simplified).
+    // close() sets the CLOSED bit in tail, so a producer either claimed its slot before that
+    // (and the writer drains it) or fails its CAS and drops the event; none can slip in after
+    // the writer's last drain.
+    private static final long CLOSED = 1L << 62;
+    private final Event[] slots;
+    private final AtomicLongArray sequence;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean writerIdle;
+    private volatile boolean closed;
+
+    // Owned by the writer thread
+    private long head;
+    private volatile long segment;
+    private MappedByteBuffer buffer;
+    private int forcedTo;
+    private long minMillis;
+    private long maxMillis;
+    private long lastForceNanos = System.nanoTime();
+    private long retryNanos;
+    private final byte[] scratch = new byte[MAX_RECORD_BYTES];
+    private final CRC32C crc = new CRC32C();
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder lost = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder fsyncs = new LongAdder();
+    private final LongAdder rotations = new LongAdder();
+    private final LongAdder deletedSegments = new LongAdder();
+
+    public AuditLog(Path dir, int ringSize, long segmentBytes, long fsyncMillis, int maxBatch, int keepSegments)
+            throws IOException {
+        this.dir = dir;
+        this.keepSegments = Math.max(0, keepSegments);
+        this.segmentBytes = Math.max(HEADER_BYTES + MAX_RECORD_BYTES, Math.min(segmentBytes, Integer.MAX_VALUE));
+        this.fsyncNanos = TimeUnit.MILLISECONDS.toNanos(fsyncMillis);
+        this.maxBatch = Math.max(1, maxBatch);
+        int capacity = Integer.highestOneBit(Math.max(2, ringSize - 1)) << 1;
+        this.slots = new Event[capacity];
+        this.sequence = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            sequence.set(i, i);
+        }
+        Files.createDirectories(dir);
+        List<Path> existing = segments(dir);
+        if (existing.isEmpty()) {
+            openSegment(1);
+        } else {
+            resume(existing.get(existing.size() - 1));
+        }
+        this.writer = new Thread(this::run, "easymed-audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Builds a log from -Deasymed.audit.dir (default "audit"), .ringSize (8192 events),
+    // .segmentBytes (64 MiB), .fsyncMillis (1000), .batchSize (512) and .keepSegments (32,
+    // so 2 GiB of trail at the default segment size)
+    public static AuditLog fromSystemProperties() throws IOException {
+        return new AuditLog(Paths.get(System.getProperty("easymed.audit.dir", "audit")),
+                Integer.getInteger("easymed.audit.ringSize", 8192),
+                Long.getLong("easymed.audit.segmentBytes", 64L * 1024 * 1024),
+                Long.getLong("easymed.audit.fsyncMillis", 1000L),
+                Integer.getInteger("easymed.audit.batchSize", 512),
+                Integer.getInteger("easymed.audit.keepSegments", 32));
+    }
+
+    // Records an event from the exchange's client address
+    public boolean record(Type type, int patientId, long ref, HttpExchange exchange) {
+        return record(type, patientId, ref, exchange.getRemoteAddress().getAddress());
+    }
+
+    // Queues an event for the writer; false (and counted as dropped) when the ring is full
+    // or the log is closed
+    public boolean record(Type type, int patientId, long ref, InetAddress address) {
+        Event event = new Event(System.currentTimeMillis(), type, patientId, ref, address);
+        long pos = tail.get();
+        while (true) {
+            if ((pos & CLOSED) != 0) {
+                dropped.increment();
+                return false;
+            }
+            int i = (int) pos & mask;
+            long diff = sequence.getAcquire(i) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots[i] = event;
+                    sequence.setRelease(i, pos + 1);
+                    break;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                // The writer has not freed this slot from the previous lap yet
+                dropped.increment();
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+        published.increment();
+        if (writerIdle) {
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+
+    public String statsJson() {
+        return "{\"ringSize\":" + slots.length +
+                ",\"queued\":" + Math.max(0, published.sum() - written.sum() - lost.sum()) +
+                ",\"published\":" + published.sum() +
+                ",\"dropped\":" + dropped.sum() +
+                ",\"written\":" + written.sum() +
+                ",\"lost\":" + lost.sum() +
+                ",\"batches\":" + batches.sum() +
+                ",\"fsyncs\":" + fsyncs.sum() +
+                ",\"rotations\":" + rotations.sum() +
+                ",\"deletedSegments\":" + deletedSegments.sum() +
+                ",\"segment\":" + segment + "}";
+    }
+
+    // Writes and forces everything already published, then stops the writer thread
+    @Override
+    public void close() {
+        long t;
+        do {
+            t = tail.get();
+        } while (!tail.compareAndSet(t, t | CLOSED));
+        // From here on tail cannot move, so the writer stops once it has caught up with it
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            int n = drain();
+            if (System.nanoTime() - lastForceNanos >= fsyncNanos) {
+                force();
+            }
+            if (n > 0) {
+                continue;
+            }
+            if (claimed() != head) {
+                // A producer has claimed a slot but not filled it yet
+                Thread.onSpinWait();
+                continue;
+            }
+            if (closed) {
+                break;
+            }
+            // Sleep until an event arrives, or until unforced records are due
+            long timeout = buffer != null && buffer.position() != forcedTo
+                    ? fsyncNanos - (System.nanoTime() - lastForceNanos) : TimeUnit.SECONDS.toNanos(1);
+            writerIdle = true;
+            if (claimed() == head && !closed) {
+                LockSupport.parkNanos(Math.max(timeout, TimeUnit.MILLISECONDS.toNanos(1)));
+            }
+            writerIdle = false;
+        }
+        force();
+    }
+
+    private long claimed() {
+        return tail.get() & ~CLOSED;
+    }
+
+    // Appends up to maxBatch queued events; returns how many were taken off the ring
+    private int drain() {
+        int n = 0;
+        while (n < maxBatch) {
+            int i = (int) head & mask;
+            if (sequence.getAcquire(i) != head + 1) {
+                break;
+            }
+            Event event = slots[i];
+            slots[i] = null;
+            sequence.setRelease(i, head + slots.length);
+            head++;
+            n++;
+            append(event);
+        }
+        if (n > 0) {
+            writeHeader();
+            batches.increment();
+        }
+        return n;
+    }
+
+    private void writeHeader() {
+        if (buffer != null) {
+            buffer.putLong(8, minMillis);
+            buffer.putLong(16, maxMillis);
+        }
+    }
+
+    private void append(Event event) {
+        byte[] address = event.address() == null ? NO_ADDRESS : event.address().getAddress();
+        int length = RECORD_HEADER_BYTES + address.length;
+        if (buffer == null || buffer.remaining() < length) {
+            if (buffer == null && System.nanoTime() - retryNanos < 0) {
+                lost.increment();
+                return;
+            }
+            try {
+                rotate();
+            } catch (IOException | UncheckedIOException e) {
+                // Retried a second later; events until then are lost, and counted
+                e.printStackTrace();
+                buffer = null;
+                retryNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+                lost.increment();
+                return;
+            }
+        }
+        encode(event, address, scratch);
+        crc.reset();
+        crc.update(scratch, 8, length - 8);
+        putInt(scratch, 4, (int) crc.getValue());
+        buffer.put(scratch, 0, length);
+        minMillis = Math.min(minMillis, event.timeMillis());
+        maxMillis = Math.max(maxMillis, event.timeMillis());
+        written.increment();
+    }
+
+    private static void encode(Event event, byte[] address, byte[] out) {
+        putInt(out, 0, RECORD_HEADER_BYTES + address.length);
+        putLong(out, 8, event.timeMillis());
+        out[16] = (byte) event.type().ordinal();
+        out[17] = (byte) address.length;
+        putInt(out, 18, event.patientId());
+        putLong(out, 22, event.ref());
+        System.arraycopy(address, 0, out, RECORD_HEADER_BYTES, address.length);
+    }
+
+    private void rotate() throws IOException {
+        if (buffer != null) {
+            writeHeader();
+            force();
+            rotations.increment();
+        }
+        openSegment(segment + 1);
+        deleteOldSegments();
+    }
+
+    // Runs on the writer thread after a rotation; a failed delete is retried at the next one
+    private void deleteOldSegments() {
+        if (keepSegments == 0) {
+            return;
+        }
+        try {
+            List<Path> all = segments(dir);
+            for (int i = 0; i < all.size() - keepSegments; i++) {
+                if (Files.deleteIfExists(all.get(i))) {
+                    deletedSegments.increment();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void force() {
+        if (buffer == null || buffer.position() == forcedTo) {
+            lastForceNanos = System.nanoTime();
+            return;
+        }
+        try {
+            buffer.force(forcedTo, buffer.position() - forcedTo);
+            buffer.force(0, HEADER_BYTES);
+            forcedTo = buffer.position();
+            fsyncs.increment();
+        } catch (UncheckedIOException e) {
+            e.printStackTrace();
+        }
+        lastForceNanos = System.nanoTime();
+    }
+
+    private void openSegment(long number) throws IOException {
+        MappedByteBuffer mapped = map(dir.resolve(segmentName(number)), segmentBytes);
+        mapped.putLong(0, MAGIC);
+        mapped.putLong(8, Long.MAX_VALUE);
+        mapped.putLong(16, Long.MIN_VALUE);
+        mapped.position(HEADER_BYTES);
+        use(number, mapped, Long.MAX_VALUE, Long.MIN_VALUE);
+    }
+
+    // Continues the newest segment after its last intact record, or starts a new one if it
+    // is not a segment at all
+    private void resume(Path file) throws IOException {
+        long number = segmentNumber(file);
+        MappedByteBuffer mapped = map(file, Math.max(Files.size(file), HEADER_BYTES));
+        if (mapped.getLong(0) != MAGIC) {
+            openSegment(number + 1);
+            return;
+        }
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        byte[] record = new byte[MAX_RECORD_BYTES];
+        int pos = HEADER_BYTES;
+        int length;
+        while ((length = readRecord(mapped, pos, record, crc)) > 0) {
+            long time = getLong(record, 8);
+            min = Math.min(min, time);
+            max = Math.max(max, time);
+            pos += length;
+        }
+        // Whatever a torn append left behind would otherwise follow the next record
+        for (int i = pos; i < Math.min(pos + MAX_RECORD_BYTES, mapped.capacity()); i++) {
+            mapped.put(i, (byte) 0);
+        }
+        mapped.putLong(8, min);
+        mapped.putLong(16, max);
+        mapped.position(pos);
+        use(number, mapped, min, max);
+    }
+
+    private void use(long number, MappedByteBuffer mapped, long min, long max) {
+        segment = number;
+        buffer = mapped;
+        forcedTo = HEADER_BYTES;
+        minMillis = min;
+        maxMillis = max;
+    }
+
+    // The mapping outlives the channel; extending the file leaves the new part zeroed
+    private static MappedByteBuffer map(Path file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    // Copies the record at pos into out and returns its length, or 0 where the written part
+    // of the segment ends (a zero length, a length out of range or a checksum mismatch)
+    static int readRecord(ByteBuffer segment, int pos, byte[] out, CRC32C crc) {
+        if (pos > segment.capacity() - RECORD_HEADER_BYTES) {
+            return 0;
+        }
+        int length = segment.getInt(pos);
+        if (length < RECORD_HEADER_BYTES || length > MAX_RECORD_BYTES || length > segment.capacity() - pos) {
+            return 0;
+        }
+        segment.get(pos, out, 0, length);
+        if ((out[17] & 0xFF) != length - RECORD_HEADER_BYTES) {
+            return 0;
+        }
+        crc.reset();
+        crc.update(out, 8, length - 8);
+        return (int) crc.getValue() == getInt(out, 4) ? length : 0;
+    }
+
+    // Decodes a record returned by readRecord
+    static Event decode(byte[] record) throws IOException {
+        int type = record[16];
+        int addressLength = record[17];
+        InetAddress address = addressLength == 0 ? null
+                : InetAddress.getByAddress(Arrays.copyOfRange(record, RECORD_HEADER_BYTES,
+                RECORD_HEADER_BYTES + addressLength));
+        return new Event(getLong(record, 8), type >= 0 && type < Type.VALUES.length ? Type.VALUES[type] : null,
+                getInt(record, 18), getLong(record, 22), address);
+    }
+
+    static String segmentName(long number) {
+        return String.format(Locale.ROOT, "audit-%08d.seg", number);
+    }
+
+    // The segment files in dir, oldest first
+    static List<Path> segments(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return List.of();
+        }
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(dir)) {
+            list.filter(p -> p.getFileName().toString().matches("audit-\\d+\\.seg")).forEach(files::add);
+        }
+        files.sort(Comparator.comparingLong(AuditLog::segmentNumber));
+        return files;
+    }
+
+    private static long segmentNumber(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring("audit-".length(), name.length() - ".seg".length()));
+    }
+
+    static int getInt(byte[] b, int at) {
+        return (b[at] & 0xFF) << 24 | (b[at + 1] & 0xFF) << 16 | (b[at + 2] & 0xFF) << 8 | b[at + 3] & 0xFF;
+    }
+
+    static long getLong(byte[] b, int at) {
+        return (long) getInt(b, at) << 32 | getInt(b, at + 4) & 0xFFFFFFFFL;
+    }
+
+    private static void putInt(byte[] b, int at, int v) {
+        b[at] = (byte) (v >>> 24);
+        b[at + 1] = (byte) (v >>> 16);
+        b[at + 2] = (byte) (v >>> 8);
+        b[at + 3] = (byte) v;
+    }
+
+    private static void putLong(byte[] b, int at, long v) {
+        putInt(b, at, (int) (v >>> 32));
+        putInt(b, at + 4, (int) v);
+    }
+}
@@ -0,0 +1,159 @@
+package easymed;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+// Scans the segments written by AuditLog. Each segment is memory-mapped read-only and walked
+// record by record through one small buffer, so only the matching events reach the heap
+// however large the files are, and a segment whose header time range lies outside the query
+// is passed over without reading its records. Safe to run against the directory of a live
+// server: a record still being written fails its checksum and ends that segment's scan.
+//
+// Command line:
+//
+//     java -cp target/easy-med-1.0-SNAPSHOT.jar easymed.AuditLogReader [--dir audit]
+//         [--patient id] [--type register|login|login_failed|appointment|symptom_check]
+//         [--from time] [--to time]
+//
+// A time is yyyy-MM-dd (the whole day), yyyy-MM-ddTHH:mm[:ss] in local time or an ISO
+// instant; --from is inclusive and --to exclusive. Prints one JSON object per event, oldest
+// first, and the number of matches to stderr.
+public class AuditLogReader {
+
+    // Null fields match anything
+    public record Query(Integer patientId, AuditLog.Type type, long fromMillis, long toMillis) {
+
+        public static final Query ALL = new Query(null, null, Long.MIN_VALUE, Long.MAX_VALUE);
+
+        boolean overlaps(long minMillis, long maxMillis) {
+            return minMillis <= maxMillis && maxMillis >= fromMillis && minMillis < toMillis;
+        }
+
+        boolean matches(byte[] record) {
+            long time = AuditLog.getLong(record, 8);
+            return time >= fromMillis && time < toMillis &&
+                    (patientId == null || AuditLog.getInt(record, 18) == patientId) &&
+                    (type == null || record[16] == type.ordinal());
+        }
+    }
+
+    public interface Sink {
+        void accept(AuditLog.Event event) throws IOException;
+    }
+
+    private AuditLogReader() {
+    }
+
+    // Passes every matching event in dir to sink, oldest segment first; returns the count
+    public static long scan(Path dir, Query query, Sink sink) throws IOException {
+        byte[] record = new byte[AuditLog.MAX_RECORD_BYTES];
+        CRC32C crc = new CRC32C();
+        long matched = 0;
+        for (Path file : AuditLog.segments(dir)) {
+            MappedByteBuffer segment;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                if (channel.size() < AuditLog.HEADER_BYTES || channel.size() > Integer.MAX_VALUE) {
+                    continue;
+                }
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (NoSuchFileException e) {
+                // Deleted by the log's retention since the listing
+                continue;
+            }
+            if (segment.getLong(0) != AuditLog.MAGIC || !query.overlaps(segment.getLong(8), segment.getLong(16))) {
+                continue;
+            }
+            int pos = AuditLog.HEADER_BYTES;
+            int length;
+            while ((length = AuditLog.readRecord(segment, pos, record, crc)) > 0) {
+                if (query.matches(record)) {
+                    sink.accept(AuditLog.decode(record));
+                    matched++;
+                }
+                pos += length;
+            }
+        }
+        return matched;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            opts.put(args[i], args[i + 1]);
+        }
+        Query query;
+        try {
+            if (args.length % 2 != 0 || !opts.keySet().stream().allMatch(
+                    k -> k.equals("--dir") || k.equals("--patient") || k.equals("--type") ||
+                            k.equals("--from") || k.equals("--to"))) {
+                throw new IllegalArgumentException("unknown option");
+            }
+            query = new Query(opts.containsKey("--patient") ? Integer.valueOf(opts.get("--patient")) : null,
+                    opts.containsKey("--type") ? AuditLog.Type.parse(opts.get("--type")) : null,
+                    opts.containsKey("--from") ? parseTime(opts.get("--from"), false) : Long.MIN_VALUE,
+                    opts.containsKey("--to") ? parseTime(opts.get("--to"), true) : Long.MAX_VALUE);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            System.err.println("Usage: AuditLogReader [--dir audit] [--patient id]" +
+                    " [--type register|login|login_failed|appointment|symptom_check] [--from time] [--to time]");
+            System.exit(2);
+            return;
+        }
+        Path dir = Paths.get(opts.getOrDefault("--dir", System.getProperty("easymed.audit.dir", "audit")));
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 64 * 1024);
+        long matched = scan(dir, query, event -> {
+            try (JsonWriter json = new JsonWriter(out)) {
+                json.beginObject()
+                        .field("time", Instant.ofEpochMilli(event.timeMillis()).toString())
+                        .field("type", event.type() == null ? "unknown" : event.type().label());
+                json.name("patientId");
+                if (event.patientId() < 0) {
+                    json.nullValue();
+                } else {
+                    json.value(event.patientId());
+                }
+                json.field("ref", event.ref());
+                json.name("address");
+                if (event.address() == null) {
+                    json.nullValue();
+                } else {
+                    json.value(event.address().getHostAddress());
+                }
+                json.endObject();
+            }
+            out.write('\n');
+        });
+        out.flush();
+        System.err.println(matched + " events");
+    }
+
+    // Epoch millis for a date (its start, or for an end bound the start of the next day),
+    // a local date-time or an ISO instant
+    static long parseTime(String text, boolean end) {
+        ZoneId zone = ZoneId.systemDefault();
+        if (text.endsWith("Z") || text.matches(".*[+-]\\d\\d:\\d\\d$")) {
+            return Instant.parse(text).toEpochMilli();
+        }
+        if (text.contains("T")) {
+            return LocalDateTime.parse(text).atZone(zone).toInstant().toEpochMilli();
+        }
+        LocalDate day = LocalDate.parse(text);
+        return (end ? day.plusDays(1) : day).atStartOfDay(zone).toInstant().toEpochMilli();
+    }
+}
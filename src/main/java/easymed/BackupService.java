@@ -0,0 +1,330 @@
+package easymed;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+import org.sqlite.SQLiteConnection;
+
+// Online snapshots of the SQLite database, taken on a schedule and by POST /admin/backup.
+//
+// The pages are copied with SQLite's backup API from a connection of its own, all in one
+// step. In WAL mode that step is a single read transaction: it sees the database as of its
+// start and never blocks the writer, whose commits go on landing in the WAL while the copy
+// runs (a checkpoint just cannot pass the snapshot until it ends). Copying a few pages per
+// step would look gentler but does not work here: the backup API starts over from the first
+// page whenever another connection commits between two steps, so with bookings arriving it
+// may never finish. The copy is written to a temporary file beside the snapshots and checked
+// with PRAGMA quick_check, then gzip-compressed into <prefix>-<UTC time>.db.gz with a
+// sha256sum-style .sha256 file next to it. Only the newest `keep` snapshots are kept.
+//
+// Each run reports its throughput and the writes that completed while it ran (through a
+// ConnectionManager write window), so a backup that does slow bookings down is visible.
+//
+// Restore: `sha256sum -c <snapshot>.sha256`, stop the server, `gunzip -c <snapshot> >
+// medical.db` and delete medical.db-wal and medical.db-shm.
+public class BackupService implements AutoCloseable {
+
+    private static final DateTimeFormatter STAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneOffset.UTC);
+    private static final String SUFFIX = ".db.gz";
+    private static final String TEMP_PREFIX = ".tmp-";
+
+    public record Report(String file, Instant time, long databaseBytes, long compressedBytes, String sha256,
+                         long copyMillis, long totalMillis, long writes, long writeAvgMicros, long writeMaxMicros,
+                         long writeAvgMicrosBefore) {
+
+        public long copyBytesPerSecond() {
+            return databaseBytes * 1000 / Math.max(1, copyMillis);
+        }
+
+        // The report fields, for embedding in a larger object
+        public void writeFields(JsonWriter json) throws IOException {
+            json.field("file", file)
+                    .field("time", time.toString())
+                    .field("databaseBytes", databaseBytes)
+                    .field("compressedBytes", compressedBytes)
+                    .field("sha256", sha256)
+                    .field("copyMillis", copyMillis)
+                    .field("copyBytesPerSecond", copyBytesPerSecond())
+                    .field("totalMillis", totalMillis);
+            json.name("writesDuring").beginObject()
+                    .field("count", writes)
+                    .field("avgMicros", writeAvgMicros)
+                    .field("maxMicros", writeMaxMicros)
+                    .endObject()
+                    .field("writeAvgMicrosBefore", writeAvgMicrosBefore);
+        }
+    }
+
+    private final ConnectionManager db;
+    private final Path database;
+    private final Path dir;
+    private final String prefix;
+    private final long intervalMinutes;
+    private final int keep;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private volatile Report last;
+    private Thread scheduler;
+    private volatile boolean closed;
+
+    public BackupService(ConnectionManager db, Path database, Path dir, long intervalMinutes, int keep) {
+        this.db = db;
+        this.database = database;
+        this.dir = dir;
+        String name = database.getFileName().toString();
+        this.prefix = name.endsWith(".db") ? name.substring(0, name.length() - 3) : name;
+        this.intervalMinutes = intervalMinutes;
+        this.keep = Math.max(1, keep);
+    }
+
+    // Backs up -Deasymed.db into -Deasymed.backup.dir (default "backups") every
+    // .intervalMinutes (1440; 0 leaves only the admin endpoint) keeping the newest .keep (7)
+    public static BackupService fromSystemProperties(ConnectionManager db) {
+        return new BackupService(db,
+                Paths.get(System.getProperty("easymed.db", "medical.db")),
+                Paths.get(System.getProperty("easymed.backup.dir", "backups")),
+                Long.getLong("easymed.backup.intervalMinutes", 1440L),
+                Integer.getInteger("easymed.backup.keep", 7));
+    }
+
+    // Starts the schedule; the first backup is one interval after start-up
+    public void start() {
+        if (intervalMinutes <= 0 || scheduler != null) {
+            return;
+        }
+        scheduler = new Thread(this::scheduleLoop, "easymed-backup");
+        scheduler.setDaemon(true);
+        scheduler.start();
+    }
+
+    private void scheduleLoop() {
+        while (!closed) {
+            try {
+                TimeUnit.MINUTES.sleep(intervalMinutes);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                Report report = backup();
+                System.out.println("Backup: " + report.file() + ", " + report.databaseBytes() + " bytes copied in " +
+                        report.copyMillis() + "ms, slowest write meanwhile " + report.writeMaxMicros() + "us");
+            } catch (IllegalStateException e) {
+                // One started from the admin endpoint is still running
+            } catch (IOException | SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Takes a snapshot now. Throws IllegalStateException if one is already running.
+    public Report backup() throws IOException, SQLException {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("A backup is already running");
+        }
+        ConnectionManager.WriteWindow window = db.openWriteWindow();
+        Path copy = null;
+        try {
+            Files.createDirectories(dir);
+            deleteTemporaryFiles();
+            long start = System.nanoTime();
+            Instant time = Instant.now();
+            String name = prefix + "-" + STAMP.format(time) + SUFFIX;
+            copy = dir.resolve(TEMP_PREFIX + name + ".db");
+            copyPages(copy);
+            long copyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            quickCheck(copy);
+            Path snapshot = dir.resolve(name);
+            String sha256 = compress(copy, snapshot);
+            writeAtomically(dir.resolve(name + ".sha256"), (sha256 + "  " + name + "\n").getBytes(StandardCharsets.UTF_8));
+            prune();
+            Report report = new Report(name, time, Files.size(copy), Files.size(snapshot), sha256, copyMillis,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), window.count(), window.avgMicros(),
+                    window.maxMicros(), window.avgMicrosBefore());
+            last = report;
+            completed.increment();
+            return report;
+        } catch (IOException | SQLException | RuntimeException e) {
+            failures.increment();
+            throw e;
+        } finally {
+            db.closeWriteWindow(window);
+            if (copy != null) {
+                Files.deleteIfExists(copy);
+            }
+            running.set(false);
+        }
+    }
+
+    // All pages in one backup step, so the copy is one consistent read snapshot
+    private void copyPages(Path copy) throws SQLException {
+        try (Connection c = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+            try (Statement stmt = c.createStatement()) {
+                stmt.execute("PRAGMA busy_timeout = 5000");
+            }
+            int rc = c.unwrap(SQLiteConnection.class).getDatabase()
+                    .backup("main", copy.toString(), (remaining, pageCount) -> { }, 100, 50, -1);
+            if (rc != 0) {
+                throw new SQLException("Backup failed with SQLite result code " + rc);
+            }
+        }
+    }
+
+    private static void quickCheck(Path copy) throws SQLException {
+        try (Connection c = DriverManager.getConnection("jdbc:sqlite:" + copy);
+             Statement stmt = c.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA quick_check")) {
+            String result = rs.next() ? rs.getString(1) : "no result";
+            if (!"ok".equals(result)) {
+                throw new SQLException("Snapshot failed quick_check: " + result);
+            }
+        }
+    }
+
+    // Gzips copy into target and returns the SHA-256 of the compressed file
+    private static String compress(Path copy, Path target) throws IOException {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        Path tmp = target.resolveSibling(TEMP_PREFIX + target.getFileName());
+        try (InputStream in = Files.newInputStream(copy);
+             OutputStream out = new GZIPOutputStream(new DigestOutputStream(
+                     new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024), sha256), 64 * 1024)) {
+            in.transferTo(out);
+        }
+        moveDurably(tmp, target);
+        return HexFormat.of().formatHex(sha256.digest());
+    }
+
+    private static void writeAtomically(Path target, byte[] content) throws IOException {
+        Path tmp = target.resolveSibling(TEMP_PREFIX + target.getFileName());
+        Files.write(tmp, content);
+        moveDurably(tmp, target);
+    }
+
+    // Written to a temporary file, synced and moved into place so a crash never leaves a
+    // snapshot or checksum that looks complete but is not
+    private static void moveDurably(Path tmp, Path target) throws IOException {
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Left behind by a backup the server died in the middle of
+    private void deleteTemporaryFiles() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, TEMP_PREFIX + "*")) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private void prune() throws IOException {
+        List<Path> all = snapshots();
+        for (Path old : all.subList(0, Math.max(0, all.size() - keep))) {
+            Files.deleteIfExists(old.resolveSibling(old.getFileName() + ".sha256"));
+            Files.deleteIfExists(old);
+        }
+    }
+
+    // Snapshot files, oldest first (the timestamp in the name sorts)
+    public List<Path> snapshots() throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return files;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, prefix + "-*" + SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+        return files;
+    }
+
+    // The GET /admin/backup body: schedule, counters, the last report and the snapshots kept
+    public byte[] statusJson() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+        try (JsonWriter json = new JsonWriter(out)) {
+            json.beginObject()
+                    .field("running", running.get())
+                    .field("intervalMinutes", intervalMinutes)
+                    .field("keep", keep)
+                    .field("completed", completed.sum())
+                    .field("failures", failures.sum());
+            json.name("last");
+            Report report = last;
+            if (report == null) {
+                json.nullValue();
+            } else {
+                json.beginObject();
+                report.writeFields(json);
+                json.endObject();
+            }
+            json.name("snapshots").beginArray();
+            for (Path file : snapshots()) {
+                json.beginObject()
+                        .field("file", file.getFileName().toString())
+                        .field("bytes", Files.size(file))
+                        .endObject();
+            }
+            json.endArray().endObject();
+        }
+        return out.toByteArray();
+    }
+
+    // Stops the schedule. A scheduled backup cut short leaves temporary files that the next
+    // run removes.
+    @Override
+    public void close() {
+        closed = true;
+        if (scheduler != null) {
+            scheduler.interrupt();
+        }
+    }
+
+    // One report as a JSON object
+    static String toJson(Report report) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+        try (JsonWriter json = new JsonWriter(out)) {
+            json.beginObject();
+            report.writeFields(json);
+            json.endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,403 @@
+package easymed;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+// Live booking analytics for GET /stats: appointments per doctor, per category and per
+// appointment day, and the most frequent (symptoms, medicine) pairs from the symptom
+// checker. The handlers report every committed row, which bumps LongAdder counters (striped,
+// so concurrent bookings do not contend on a shared count), and nothing here ever queries
+// the booking tables while the server runs. The response is rendered from the counters at
+// most once per renderMillis and only after a change, so a dashboard refresh costs the same
+// whatever the size of the tables.
+//
+// At startup the counters are restored from the checkpoint file and brought up to date
+// with one streaming pass over the rows added since (every row when there is no usable
+// checkpoint). A background thread rewrites the checkpoint every checkpointSeconds when
+// something has changed, and close() writes a last one. The checkpoint is copied under a
+// write lock that the per-row updates share, so its counts match its high-water row ids;
+// only a row committed just before a checkpoint but reported after it can be missed, and
+// only if the server then dies before the next one. With no checkpoint file (the memory
+// storage engine without a snapshot) every start counts all rows and nothing is written.
+//
+// Symptom texts are compared lower-cased with whitespace collapsed. Distinct pairs are
+// capped at maxPairs; pairs past the cap are only counted as a total.
+public class BookingStats implements AutoCloseable {
+
+    private static final int MAX_SYMPTOMS_CHARS = 80;
+    private static final String UNKNOWN_CATEGORY = "Unknown";
+
+    private record Pair(String symptoms, String medicine) {
+    }
+
+    private final AppointmentRepository appointmentRows;
+    private final SymptomRepository symptomRows;
+    private final DoctorDirectory doctors;
+    private final Path checkpoint;
+    private final long checkpointNanos;
+    private final long renderNanos;
+    private final int maxPairs;
+    private final int topPairs;
+    private final int days;
+
+    private final ConcurrentHashMap<Integer, LongAdder> byDoctor = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> byCategory = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> byDay = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Pair, LongAdder> pairs = new ConcurrentHashMap<>();
+    private final LongAdder appointments = new LongAdder();
+    private final LongAdder symptomChecks = new LongAdder();
+    private final LongAdder otherPairs = new LongAdder();
+    private final AtomicLong lastAppointmentId = new AtomicLong();
+    private final AtomicLong lastSymptomId = new AtomicLong();
+    // Bumped by every update; the rendered JSON and the checkpoint remember the value they saw
+    private final AtomicLong changes = new AtomicLong();
+    private final StampedLock checkpointLock = new StampedLock();
+
+    private final Object renderLock = new Object();
+    private volatile byte[] rendered;
+    private volatile long renderedChanges = -1;
+    private volatile long renderedAtNanos;
+    private long checkpointedChanges = -1;
+    private Thread checkpointer;
+    private volatile boolean closed;
+
+    public BookingStats(AppointmentRepository appointmentRows, SymptomRepository symptomRows, DoctorDirectory doctors,
+                        Path checkpoint, long checkpointSeconds, long renderMillis, int maxPairs, int topPairs, int days) {
+        this.appointmentRows = appointmentRows;
+        this.symptomRows = symptomRows;
+        this.doctors = doctors;
+        this.checkpoint = checkpoint;
+        this.checkpointNanos = TimeUnit.SECONDS.toNanos(Math.max(1, checkpointSeconds));
+        this.renderNanos = TimeUnit.MILLISECONDS.toNanos(renderMillis);
+        this.maxPairs = maxPairs;
+        this.topPairs = topPairs;
+        this.days = days;
+    }
+
+    // Builds the stats from -Deasymed.stats.checkpoint (default <storage file>.stats, none when
+    // the storage has no file), .checkpointSeconds (60), .renderMillis (1000), .maxPairs
+    // (10000), .topPairs (20) and .days (the 90 latest appointment days are listed)
+    public static BookingStats fromSystemProperties(Storage storage, DoctorDirectory doctors) {
+        String checkpoint = System.getProperty("easymed.stats.checkpoint",
+                storage.file() == null ? null : storage.file() + ".stats");
+        return new BookingStats(storage.appointments(), storage.symptoms(), doctors,
+                checkpoint == null ? null : Paths.get(checkpoint),
+                Long.getLong("easymed.stats.checkpointSeconds", 60L),
+                Long.getLong("easymed.stats.renderMillis", 1000L),
+                Integer.getInteger("easymed.stats.maxPairs", 10_000),
+                Integer.getInteger("easymed.stats.topPairs", 20),
+                Integer.getInteger("easymed.stats.days", 90));
+    }
+
+    // Restores the checkpoint, catches up from the storage and starts checkpointing
+    public void load() throws SQLException {
+        if (!restore()) {
+            clear();
+        }
+        long start = System.nanoTime();
+        long[] rows = new long[2];
+        Map<Integer, DoctorDirectory.Doctor> roster = doctors.doctorsById();
+        appointmentRows.forEach(lastAppointmentId.get(), a -> {
+            DoctorDirectory.Doctor doctor = roster.get(a.doctorId());
+            countAppointment(a.id(), a.doctorId(), doctor == null ? UNKNOWN_CATEGORY : doctor.category(), a.date());
+            rows[0]++;
+        });
+        symptomRows.forEach(lastSymptomId.get(), c -> {
+            String medicines = c.medicines();
+            countSymptomCheck(c.id(), c.symptoms(), medicines == null || medicines.isEmpty()
+                    ? List.of() : List.of(medicines.split(", ")));
+            rows[1]++;
+        });
+        System.out.println("Booking stats: caught up on " + rows[0] + " appointments and " + rows[1] +
+                " symptom checks in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        if (checkpointer == null && checkpoint != null) {
+            checkpointer = new Thread(this::checkpointLoop, "easymed-stats-checkpoint");
+            checkpointer.setDaemon(true);
+            checkpointer.start();
+        }
+    }
+
+    // Counts a committed appointment row
+    public void appointmentBooked(long appointmentId, int doctorId, String date) {
+        DoctorDirectory.Doctor doctor = null;
+        try {
+            doctor = doctors.findDoctor(doctorId);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        long stamp = checkpointLock.readLock();
+        try {
+            countAppointment(appointmentId, doctorId, doctor == null ? UNKNOWN_CATEGORY : doctor.category(), date);
+        } finally {
+            checkpointLock.unlockRead(stamp);
+        }
+    }
+
+    // Counts a committed symptom check row
+    public void symptomsChecked(long symptomId, String symptoms, List<String> medicines) {
+        long stamp = checkpointLock.readLock();
+        try {
+            countSymptomCheck(symptomId, symptoms, medicines);
+        } finally {
+            checkpointLock.unlockRead(stamp);
+        }
+    }
+
+    // The /stats body; re-rendered when the counters changed and the last one is old enough
+    public byte[] json() throws SQLException {
+        byte[] body = rendered;
+        if (body != null && (renderedChanges == changes.get() || System.nanoTime() - renderedAtNanos < renderNanos)) {
+            return body;
+        }
+        synchronized (renderLock) {
+            long seen = changes.get();
+            if (rendered == null || renderedChanges != seen && System.nanoTime() - renderedAtNanos >= renderNanos) {
+                rendered = render();
+                renderedChanges = seen;
+                renderedAtNanos = System.nanoTime();
+            }
+            return rendered;
+        }
+    }
+
+    // Writes a final checkpoint and stops the checkpoint thread
+    @Override
+    public void close() {
+        closed = true;
+        if (checkpointer != null) {
+            checkpointer.interrupt();
+            try {
+                checkpointer.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        writeCheckpointIfChanged();
+    }
+
+    private void countAppointment(long id, int doctorId, String category, String date) {
+        counter(byDoctor, doctorId).increment();
+        counter(byCategory, category).increment();
+        counter(byDay, date).increment();
+        appointments.increment();
+        lastAppointmentId.accumulateAndGet(id, Math::max);
+        changes.incrementAndGet();
+    }
+
+    private void countSymptomCheck(long id, String symptoms, List<String> medicines) {
+        String normalized = normalize(symptoms);
+        for (String medicine : medicines) {
+            Pair pair = new Pair(normalized, medicine);
+            LongAdder count = pairs.get(pair);
+            if (count == null && pairs.size() >= maxPairs) {
+                otherPairs.increment();
+            } else {
+                (count != null ? count : counter(pairs, pair)).increment();
+            }
+        }
+        symptomChecks.increment();
+        lastSymptomId.accumulateAndGet(id, Math::max);
+        changes.incrementAndGet();
+    }
+
+    private static <K> LongAdder counter(ConcurrentHashMap<K, LongAdder> counters, K key) {
+        LongAdder count = counters.get(key);
+        return count != null ? count : counters.computeIfAbsent(key, k -> new LongAdder());
+    }
+
+    private static String normalize(String symptoms) {
+        String text = symptoms.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        return text.length() > MAX_SYMPTOMS_CHARS ? text.substring(0, MAX_SYMPTOMS_CHARS) : text;
+    }
+
+    private byte[] render() throws SQLException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        try (JsonWriter json = new JsonWriter(out)) {
+            json.beginObject()
+                    .field("asOf", Instant.now().toString())
+                    .field("appointments", appointments.sum())
+                    .field("symptomChecks", symptomChecks.sum());
+
+            json.name("byCategory").beginObject();
+            for (Map.Entry<String, Long> e : sorted(byCategory)) {
+                json.field(e.getKey(), e.getValue());
+            }
+            json.endObject();
+
+            json.name("byDoctor").beginArray();
+            for (Map.Entry<Integer, Long> e : sorted(byDoctor)) {
+                DoctorDirectory.Doctor doctor = doctors.findDoctor(e.getKey());
+                json.beginObject().field("id", e.getKey());
+                if (doctor != null) {
+                    json.field("name", doctor.name()).field("category", doctor.category());
+                }
+                json.field("appointments", e.getValue()).endObject();
+            }
+            json.endArray();
+
+            // Latest days first
+            json.name("byDay").beginObject();
+            TreeMap<String, LongAdder> byDate = new TreeMap<>(byDay);
+            int listed = 0;
+            for (Map.Entry<String, LongAdder> e : byDate.descendingMap().entrySet()) {
+                if (listed++ == days) {
+                    break;
+                }
+                json.field(e.getKey(), e.getValue().sum());
+            }
+            json.endObject();
+
+            json.name("topSymptomMedicines").beginArray();
+            List<Map.Entry<Pair, Long>> top = sorted(pairs);
+            for (Map.Entry<Pair, Long> e : top.subList(0, Math.min(topPairs, top.size()))) {
+                json.beginObject()
+                        .field("symptoms", e.getKey().symptoms())
+                        .field("medicine", e.getKey().medicine())
+                        .field("count", e.getValue())
+                        .endObject();
+            }
+            json.endArray()
+                    .field("otherPairs", otherPairs.sum())
+                    .endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    // Entries by count, largest first
+    private static <K> List<Map.Entry<K, Long>> sorted(Map<K, LongAdder> counters) {
+        List<Map.Entry<K, Long>> entries = new ArrayList<>(counters.size());
+        for (Map.Entry<K, LongAdder> e : counters.entrySet()) {
+            entries.add(Map.entry(e.getKey(), e.getValue().sum()));
+        }
+        entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        return entries;
+    }
+
+    private void checkpointLoop() {
+        while (!closed) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(checkpointNanos);
+            } catch (InterruptedException e) {
+                return;
+            }
+            writeCheckpointIfChanged();
+        }
+    }
+
+    private synchronized void writeCheckpointIfChanged() {
+        if (checkpoint == null || changes.get() == checkpointedChanges) {
+            return;
+        }
+        Properties p = new Properties();
+        long seen;
+        long stamp = checkpointLock.writeLock();
+        try {
+            seen = changes.get();
+            p.setProperty("appointments.lastId", String.valueOf(lastAppointmentId.get()));
+            p.setProperty("symptoms.lastId", String.valueOf(lastSymptomId.get()));
+            p.setProperty("appointments", String.valueOf(appointments.sum()));
+            p.setProperty("symptomChecks", String.valueOf(symptomChecks.sum()));
+            p.setProperty("otherPairs", String.valueOf(otherPairs.sum()));
+            byDoctor.forEach((id, n) -> p.setProperty("doctor." + id, String.valueOf(n.sum())));
+            byCategory.forEach((category, n) -> p.setProperty("category." + category, String.valueOf(n.sum())));
+            byDay.forEach((day, n) -> p.setProperty("day." + day, String.valueOf(n.sum())));
+            pairs.forEach((pair, n) -> p.setProperty("pair." + pair.symptoms() + "\t" + pair.medicine(),
+                    String.valueOf(n.sum())));
+        } finally {
+            checkpointLock.unlockWrite(stamp);
+        }
+        // Written to a temporary file and moved into place so a crash never leaves half a file
+        try {
+            Path target = checkpoint.toAbsolutePath();
+            Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+            try (var out = Files.newOutputStream(tmp)) {
+                p.store(out, "easymed booking stats checkpoint");
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            checkpointedChanges = seen;
+        } catch (IOException e) {
+            System.err.println("Could not write the booking stats checkpoint: " + e.getMessage());
+        }
+    }
+
+    // Loads the checkpoint; false when there is none or it cannot belong to this database
+    // (rows it counted are missing, as after a restore from an older backup)
+    private boolean restore() throws SQLException {
+        if (checkpoint == null || !Files.exists(checkpoint)) {
+            return false;
+        }
+        Properties p = new Properties();
+        try (InputStream in = Files.newInputStream(checkpoint)) {
+            p.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Ignoring unreadable booking stats checkpoint: " + e.getMessage());
+            return false;
+        }
+        try {
+            long appointmentId = Long.parseLong(p.getProperty("appointments.lastId"));
+            long symptomId = Long.parseLong(p.getProperty("symptoms.lastId"));
+            // Id 0 stands for an empty table, which any database matches
+            if ((appointmentId != 0 && !appointmentRows.exists(appointmentId)) ||
+                    (symptomId != 0 && !symptomRows.exists(symptomId))) {
+                System.err.println("Booking stats checkpoint does not match the database; rebuilding");
+                return false;
+            }
+            clear();
+            lastAppointmentId.set(appointmentId);
+            lastSymptomId.set(symptomId);
+            appointments.add(Long.parseLong(p.getProperty("appointments")));
+            symptomChecks.add(Long.parseLong(p.getProperty("symptomChecks")));
+            otherPairs.add(Long.parseLong(p.getProperty("otherPairs", "0")));
+            for (String key : p.stringPropertyNames()) {
+                long n = Long.parseLong(p.getProperty(key));
+                if (key.startsWith("doctor.")) {
+                    counter(byDoctor, Integer.valueOf(key.substring("doctor.".length()))).add(n);
+                } else if (key.startsWith("category.")) {
+                    counter(byCategory, key.substring("category.".length())).add(n);
+                } else if (key.startsWith("day.")) {
+                    counter(byDay, key.substring("day.".length())).add(n);
+                } else if (key.startsWith("pair.")) {
+                    int tab = key.indexOf('\t');
+                    counter(pairs, new Pair(key.substring("pair.".length(), tab), key.substring(tab + 1))).add(n);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Ignoring malformed booking stats checkpoint: " + e);
+            return false;
+        }
+        return true;
+    }
+
+    private void clear() {
+        byDoctor.clear();
+        byCategory.clear();
+        byDay.clear();
+        pairs.clear();
+        appointments.reset();
+        symptomChecks.reset();
+        otherPairs.reset();
+        lastAppointmentId.set(0);
+        lastSymptomId.set(0);
+    }
+}
@@ -0,0 +1,589 @@
+package easymed;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Streaming bulk import of doctors or patients from CSV (with a header row) or NDJSON.
+// Records are parsed one at a time and validated with the same rules as the register
+// handler. Each batch of patients has its passwords hashed in parallel on a PasswordHasher
+// pool, then the batch is inserted in one transaction; rows the database refuses (a
+// duplicate CNIC or email, say) are rejected on their own without failing the batch.
+// The transaction holds the single SQLite writer, so batches are kept small enough
+// (DEFAULT_BATCH_SIZE) that bookings queued behind one wait a few milliseconds, not the
+// length of a large import; a requested size is capped at MAX_BATCH_SIZE.
+// After every committed batch a checkpoint file records how many input records are done,
+// so an interrupted import run again with resume skips straight past them.
+//
+// Command line:
+//
+//     java -cp target/easy-med-1.0-SNAPSHOT.jar easymed.BulkImporter \
+//         --entity patients|doctors [--format csv|ndjson] [--db medical.db] [--batch 250]
+//         [--checkpoint file] [--resume] [--drop-indexes] [--rejects file] input-file
+public class BulkImporter {
+
+    public static final int DEFAULT_BATCH_SIZE = 250;
+    public static final int MAX_BATCH_SIZE = 5000;
+
+    public enum Entity {
+        DOCTORS(new String[] {"name", "category", "experience", "phone"},
+                "INSERT INTO doctors (name, category, experience, phone) VALUES (?, ?, ?, ?)"),
+        PATIENTS(new String[] {"patientName", "fatherName", "cnic", "email", "password", "phone", "age", "disease"},
+                "INSERT INTO patients (patient_name, father_name, cnic, email, password, phone, age, disease) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+
+        final String[] fields;
+        final String insertSql;
+
+        Entity(String[] fields, String insertSql) {
+            this.fields = fields;
+            this.insertSql = insertSql;
+        }
+
+        static Entity parse(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    public enum Format {
+        CSV, NDJSON;
+
+        static Format parse(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    // checkpoint may be null (no checkpointing); resume skips records it marks as done.
+    // dropIndexes drops secondary indexes on the target table for the duration of the
+    // import and rebuilds them once at the end, which beats updating them row by row
+    // when the import is large next to the existing table.
+    public record Options(Entity entity, Format format, int batchSize, Path checkpoint, boolean resume,
+                          boolean dropIndexes) {
+    }
+
+    public record Rejection(long record, String reason) {
+    }
+
+    // Live counters for one import, readable from other threads while it runs
+    public static final class Progress {
+        final Entity entity;
+        final long startNanos = System.nanoTime();
+        final AtomicLong read = new AtomicLong();
+        final AtomicLong skipped = new AtomicLong();
+        final AtomicLong imported = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        volatile long endNanos;
+        volatile String error;
+
+        Progress(Entity entity) {
+            this.entity = entity;
+        }
+
+        public long imported() {
+            return imported.get();
+        }
+
+        public long rejected() {
+            return rejected.get();
+        }
+
+        public boolean finished() {
+            return endNanos != 0;
+        }
+
+        public long rowsPerSecond() {
+            long elapsed = (finished() ? endNanos : System.nanoTime()) - startNanos;
+            return elapsed <= 0 ? 0 : imported.get() * 1_000_000_000L / elapsed;
+        }
+
+        public String toJson() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+            try (JsonWriter json = new JsonWriter(out)) {
+                json.beginObject();
+                writeFields(json);
+                json.endObject();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return out.toString(StandardCharsets.UTF_8);
+        }
+
+        // The progress fields, for embedding in a larger object
+        public void writeFields(JsonWriter json) throws IOException {
+            json.field("entity", entity.name().toLowerCase(Locale.ROOT))
+                    .field("finished", finished())
+                    .field("read", read.get())
+                    .field("skipped", skipped.get())
+                    .field("imported", imported.get())
+                    .field("rejected", rejected.get())
+                    .field("rowsPerSecond", rowsPerSecond());
+            if (error != null) {
+                json.field("error", error);
+            }
+        }
+    }
+
+    private static final class Row {
+        final long record;
+        final String[] values;
+        String passwordHash;
+
+        Row(long record, String[] values) {
+            this.record = record;
+            this.values = values;
+        }
+    }
+
+    // Secondary indexes worth dropping during a large import, per table
+    private static final Map<Entity, String[][]> DROPPABLE_INDEXES = Map.of(
+            Entity.PATIENTS, new String[][] {{"idx_patients_phone", "patients (phone)"}},
+            Entity.DOCTORS, new String[0][]);
+
+    private final ConnectionManager db;
+    private final PasswordHasher hasher;
+
+    public BulkImporter(ConnectionManager db, PasswordHasher hasher) {
+        this.db = db;
+        this.hasher = hasher;
+    }
+
+    // A hasher for imports: the configured cost and thread count, a queue deep enough for a
+    // whole batch and no verification cache (nothing is verified)
+    public static PasswordHasher importHasher(int batchSize) {
+        return new PasswordHasher(
+                Integer.getInteger("easymed.password.iterations", 120_000),
+                Integer.getInteger("easymed.password.threads", Runtime.getRuntime().availableProcessors()),
+                Math.max(1, batchSize), 0, 0);
+    }
+
+    // Imports every record from in, reporting rejected rows to rejects. The returned
+    // progress object is also updated live and handed to onStart before any row is read.
+    public Progress run(InputStream in, Options options, Consumer<Progress> onStart, Consumer<Rejection> rejects)
+            throws IOException, SQLException {
+        Progress progress = new Progress(options.entity());
+        onStart.accept(progress);
+        long done = options.resume() ? readCheckpoint(options) : 0;
+        String[] fields = options.entity().fields;
+        RecordSource source = options.format() == Format.CSV
+                ? new CsvSource(new InputStreamReader(in, StandardCharsets.UTF_8), fields)
+                : new NdjsonSource(in, fields);
+
+        if (options.dropIndexes()) {
+            dropIndexes(options.entity());
+        }
+        try {
+            List<Row> batch = new ArrayList<>(options.batchSize());
+            long record = 0;
+            String[] values;
+            while (true) {
+                try {
+                    values = source.next();
+                } catch (RecordException e) {
+                    record++;
+                    progress.read.incrementAndGet();
+                    if (record > done) {
+                        reject(progress, rejects, record, e.getMessage());
+                    } else {
+                        progress.skipped.incrementAndGet();
+                    }
+                    continue;
+                }
+                if (values == null) {
+                    break;
+                }
+                record++;
+                progress.read.incrementAndGet();
+                if (record <= done) {
+                    progress.skipped.incrementAndGet();
+                    continue;
+                }
+                String problem = validate(options.entity(), values);
+                if (problem != null) {
+                    reject(progress, rejects, record, problem);
+                    continue;
+                }
+                batch.add(new Row(record, values));
+                if (batch.size() >= options.batchSize()) {
+                    commit(batch, options, progress, rejects, record);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                commit(batch, options, progress, rejects, record);
+            }
+            if (options.checkpoint() != null) {
+                Files.deleteIfExists(options.checkpoint());
+            }
+            return progress;
+        } catch (IOException | SQLException | RuntimeException e) {
+            progress.error = e.getMessage();
+            throw e;
+        } finally {
+            if (options.dropIndexes()) {
+                MedicalServer.createSchema(db);
+            }
+            progress.endNanos = System.nanoTime();
+        }
+    }
+
+    // Same checks as PatientRegisterHandler (and their doctor equivalents); null if valid
+    static String validate(Entity entity, String[] v) {
+        for (int i = 0; i < v.length; i++) {
+            if (v[i] == null || v[i].trim().isEmpty()) {
+                return "Missing " + entity.fields[i];
+            }
+        }
+        String number = entity == Entity.PATIENTS ? v[6] : v[2];
+        try {
+            Integer.parseInt(number.trim());
+        } catch (NumberFormatException e) {
+            return "Invalid " + (entity == Entity.PATIENTS ? "age" : "experience") + " format";
+        }
+        return null;
+    }
+
+    private void commit(List<Row> batch, Options options, Progress progress, Consumer<Rejection> rejects,
+                        long lastRecord) throws IOException, SQLException {
+        if (options.entity() == Entity.PATIENTS) {
+            hashPasswords(batch);
+        }
+        List<Rejection> refused = new ArrayList<>();
+        int inserted = db.transaction(connection -> insert(connection, options.entity(), batch, refused));
+        progress.imported.addAndGet(inserted);
+        for (Rejection r : refused) {
+            reject(progress, rejects, r.record(), r.reason());
+        }
+        if (options.checkpoint() != null) {
+            writeCheckpoint(options, lastRecord, progress);
+        }
+    }
+
+    // Hashes the whole batch on the hasher's pool before the write transaction starts
+    private void hashPasswords(List<Row> batch) throws SQLException {
+        List<CompletableFuture<String>> hashes = new ArrayList<>(batch.size());
+        for (Row row : batch) {
+            String password = row.values[4];
+            hashes.add(hasher.submit(() -> hasher.hash(password)));
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).passwordHash = waitFor(hashes.get(i));
+        }
+    }
+
+    private static String waitFor(CompletableFuture<String> future) throws SQLException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while hashing passwords", e);
+        } catch (ExecutionException e) {
+            throw new SQLException("Password hashing failed", e.getCause());
+        }
+    }
+
+    private static int insert(Connection connection, Entity entity, List<Row> batch, List<Rejection> refused)
+            throws SQLException {
+        int inserted = 0;
+        try (PreparedStatement ps = connection.prepareStatement(entity.insertSql)) {
+            for (Row row : batch) {
+                String[] v = row.values;
+                if (entity == Entity.PATIENTS) {
+                    ps.setString(1, v[0]);
+                    ps.setString(2, v[1]);
+                    ps.setString(3, v[2]);
+                    ps.setString(4, v[3]);
+                    ps.setString(5, row.passwordHash);
+                    ps.setString(6, v[5]);
+                    ps.setInt(7, Integer.parseInt(v[6].trim()));
+                    ps.setString(8, v[7]);
+                } else {
+                    ps.setString(1, v[0]);
+                    ps.setString(2, v[1]);
+                    ps.setInt(3, Integer.parseInt(v[2].trim()));
+                    ps.setString(4, v[3]);
+                }
+                try {
+                    inserted += ps.executeUpdate();
+                } catch (SQLException e) {
+                    // A failed statement only undoes itself; the rest of the transaction stands
+                    refused.add(new Rejection(row.record, e.getMessage()));
+                }
+            }
+        }
+        return inserted;
+    }
+
+    private static void reject(Progress progress, Consumer<Rejection> rejects, long record, String reason) {
+        progress.rejected.incrementAndGet();
+        rejects.accept(new Rejection(record, reason));
+    }
+
+    private void dropIndexes(Entity entity) throws SQLException {
+        db.write(connection -> {
+            try (Statement stmt = connection.createStatement()) {
+                for (String[] index : DROPPABLE_INDEXES.get(entity)) {
+                    stmt.execute("DROP INDEX IF EXISTS " + index[0]);
+                }
+            }
+            return null;
+        });
+    }
+
+    private static long readCheckpoint(Options options) throws IOException {
+        if (options.checkpoint() == null || !Files.exists(options.checkpoint())) {
+            return 0;
+        }
+        Properties p = new Properties();
+        try (InputStream in = Files.newInputStream(options.checkpoint())) {
+            p.load(in);
+        }
+        if (!options.entity().name().equals(p.getProperty("entity"))) {
+            throw new IOException("Checkpoint " + options.checkpoint() + " belongs to a " +
+                    p.getProperty("entity") + " import");
+        }
+        return Long.parseLong(p.getProperty("records", "0"));
+    }
+
+    // Written to a temporary file and moved into place so a crash never leaves half a file
+    private static void writeCheckpoint(Options options, long records, Progress progress) throws IOException {
+        Properties p = new Properties();
+        p.setProperty("entity", options.entity().name());
+        p.setProperty("records", String.valueOf(records));
+        p.setProperty("imported", String.valueOf(progress.imported.get()));
+        p.setProperty("rejected", String.valueOf(progress.rejected.get()));
+        Path target = options.checkpoint().toAbsolutePath();
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (var out = Files.newOutputStream(tmp)) {
+            p.store(out, "easymed bulk import checkpoint");
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // One malformed record; reading can carry on with the next one
+    static final class RecordException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RecordException(String message) {
+            super(message);
+        }
+    }
+
+    interface RecordSource {
+        // Field values in Entity.fields order, or null at end of input
+        String[] next() throws IOException;
+    }
+
+    // RFC 4180 CSV: quoted fields may hold commas, doubled quotes and line breaks. Columns
+    // are matched to fields by the header row; unknown columns are ignored.
+    static final class CsvSource implements RecordSource {
+        private final Reader reader;
+        private final int[] columnToField;
+        private final int fieldCount;
+        private int peeked = -2;
+
+        CsvSource(Reader reader, String[] fields) throws IOException {
+            this.reader = reader instanceof BufferedReader ? reader : new BufferedReader(reader, 64 * 1024);
+            List<String> header = readRow();
+            if (header == null) {
+                throw new IOException("CSV input has no header row");
+            }
+            Map<String, Integer> index = new HashMap<>();
+            for (int i = 0; i < fields.length; i++) {
+                index.put(fields[i].toLowerCase(Locale.ROOT), i);
+            }
+            columnToField = new int[header.size()];
+            for (int c = 0; c < header.size(); c++) {
+                Integer f = index.get(header.get(c).trim().toLowerCase(Locale.ROOT));
+                columnToField[c] = f == null ? -1 : f;
+            }
+            this.fieldCount = fields.length;
+        }
+
+        @Override
+        public String[] next() throws IOException {
+            List<String> row;
+            do {
+                row = readRow();
+                if (row == null) {
+                    return null;
+                }
+            } while (row.size() == 1 && row.get(0).isEmpty());
+            if (row.size() != columnToField.length) {
+                throw new RecordException("Expected " + columnToField.length + " columns, found " + row.size());
+            }
+            String[] values = new String[fieldCount];
+            for (int c = 0; c < row.size(); c++) {
+                if (columnToField[c] >= 0) {
+                    values[columnToField[c]] = row.get(c);
+                }
+            }
+            return values;
+        }
+
+        private List<String> readRow() throws IOException {
+            int c = read();
+            if (c == -1) {
+                return null;
+            }
+            List<String> row = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            while (true) {
+                if (quoted) {
+                    if (c == -1) {
+                        throw new IOException("Unterminated quoted field");
+                    }
+                    if (c == '"') {
+                        int n = read();
+                        if (n == '"') {
+                            field.append('"');
+                        } else {
+                            quoted = false;
+                            c = n;
+                            continue;
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                } else if (c == '"' && field.length() == 0) {
+                    quoted = true;
+                } else if (c == ',') {
+                    row.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\n' || c == '\r' || c == -1) {
+                    if (c == '\r') {
+                        int n = read();
+                        if (n != '\n') {
+                            peeked = n;
+                        }
+                    }
+                    row.add(field.toString());
+                    return row;
+                } else {
+                    field.append((char) c);
+                }
+                c = read();
+            }
+        }
+
+        private int read() throws IOException {
+            if (peeked != -2) {
+                int c = peeked;
+                peeked = -2;
+                return c;
+            }
+            return reader.read();
+        }
+    }
+
+    // One JSON object per line, bound with the same streaming reader as request bodies
+    static final class NdjsonSource implements RecordSource {
+        private final BufferedReader reader;
+        private final String[] fields;
+
+        NdjsonSource(InputStream in, String[] fields) {
+            this.reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 64 * 1024);
+            this.fields = fields;
+        }
+
+        @Override
+        public String[] next() throws IOException {
+            String line;
+            do {
+                line = reader.readLine();
+                if (line == null) {
+                    return null;
+                }
+            } while (line.isBlank());
+            try {
+                return ApiRequests.readFields(new ByteArrayInputStream(line.getBytes(StandardCharsets.UTF_8)),
+                        fields, ApiRequests.MAX_BODY_BYTES);
+            } catch (JsonReader.JsonException e) {
+                throw new RecordException(e.getMessage());
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new HashMap<>();
+        String input = null;
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            if (a.equals("--resume") || a.equals("--drop-indexes")) {
+                opts.put(a, "true");
+            } else if (a.startsWith("--") && i + 1 < args.length) {
+                opts.put(a, args[++i]);
+            } else {
+                input = a;
+            }
+        }
+        if (input == null || !opts.containsKey("--entity")) {
+            System.err.println("Usage: BulkImporter --entity patients|doctors [--format csv|ndjson] [--db medical.db]" +
+                    " [--batch 250] [--checkpoint file] [--resume] [--drop-indexes] [--rejects file] input-file");
+            System.exit(2);
+        }
+        Path file = Paths.get(input);
+        String format = opts.getOrDefault("--format", input.endsWith(".ndjson") || input.endsWith(".jsonl") ? "ndjson" : "csv");
+        int batchSize = Integer.parseInt(opts.getOrDefault("--batch", String.valueOf(DEFAULT_BATCH_SIZE)));
+        Options options = new Options(Entity.parse(opts.get("--entity")), Format.parse(format),
+                Math.max(1, Math.min(batchSize, MAX_BATCH_SIZE)),
+                Paths.get(opts.getOrDefault("--checkpoint", input + ".checkpoint")),
+                opts.containsKey("--resume"), opts.containsKey("--drop-indexes"));
+
+        System.setProperty("easymed.db", opts.getOrDefault("--db", System.getProperty("easymed.db", "medical.db")));
+        try (ConnectionManager db = ConnectionManager.fromSystemProperties();
+             PasswordHasher hasher = importHasher(options.batchSize());
+             PrintStream rejects = opts.containsKey("--rejects")
+                     ? new PrintStream(Files.newOutputStream(Paths.get(opts.get("--rejects"))), true, StandardCharsets.UTF_8)
+                     : System.err;
+             InputStream in = Files.newInputStream(file)) {
+            MedicalServer.createSchema(db);
+            BulkImporter importer = new BulkImporter(db, hasher);
+            Progress[] running = new Progress[1];
+            Thread reporter = new Thread(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    try {
+                        Thread.sleep(2000);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    System.err.println("progress " + running[0].toJson());
+                }
+            }, "easymed-import-progress");
+            reporter.setDaemon(true);
+            Progress result = importer.run(in, options, p -> {
+                running[0] = p;
+                reporter.start();
+            }, r -> rejects.println("record " + r.record() + ": " + r.reason()));
+            reporter.interrupt();
+            System.out.println(result.toJson());
+            if (options.entity() == Entity.DOCTORS) {
+                System.out.println("POST /admin/doctors/refresh (or restart) so a running server lists the new doctors.");
+            }
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package easymed;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Owns every SQLite connection the server uses. The database is opened in WAL mode so
+// readers never block on the writer: GET paths borrow one of a fixed pool of read-only
+// connections, and all writes are serialized onto a single dedicated writer connection.
+// Each connection carries its own prepared-statement cache, which is discarded with the
+// connection if it ever has to be replaced.
+public class ConnectionManager implements AutoCloseable {
+
+    // Unit of work run against a borrowed connection
+    @FunctionalInterface
+    public interface SqlWork<T> {
+        T apply(Connection connection) throws SQLException;
+    }
+
+    private final String url;
+    private final int readPoolSize;
+    private final BlockingQueue<Connection> readers;
+    // Readers retired without a replacement (the reopen failed); refilled on a later read
+    private final AtomicInteger missingReaders = new AtomicInteger();
+    private Connection writer; // guarded by writeLock
+    private final ReentrantLock writeLock = new ReentrantLock(true);
+    private final long acquireTimeoutMillis;
+    private volatile boolean closed;
+
+    private final int statementCacheSize;
+    private final Map<Connection, StatementCache> statementCaches = new ConcurrentHashMap<>();
+    private final StatementCache.Counters statementCounters = new StatementCache.Counters();
+
+    private final Stats readStats = new Stats();
+    private final Stats writeStats = new Stats();
+    private volatile WriteWindow writeWindow;
+
+    public ConnectionManager(String path, int readPoolSize, long acquireTimeoutMillis, int statementCacheSize)
+            throws SQLException {
+        this.url = "jdbc:sqlite:" + path;
+        this.readPoolSize = readPoolSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.statementCacheSize = statementCacheSize;
+
+        // The writer is opened first so it is the one that switches the file to WAL
+        this.writer = open(false);
+        this.readers = new ArrayBlockingQueue<>(readPoolSize);
+        for (int i = 0; i < readPoolSize; i++) {
+            readers.add(open(true));
+        }
+    }
+
+    // Builds a manager from the -Deasymed.db, -Deasymed.db.readers, -Deasymed.db.acquireTimeoutMs
+    // and -Deasymed.db.statementCacheSize system properties
+    public static ConnectionManager fromSystemProperties() throws SQLException {
+        String path = System.getProperty("easymed.db", "medical.db");
+        int readers = Integer.getInteger("easymed.db.readers",
+                Math.max(2, Runtime.getRuntime().availableProcessors()));
+        long timeout = Long.getLong("easymed.db.acquireTimeoutMs", 5000L);
+        int statementCacheSize = Integer.getInteger("easymed.db.statementCacheSize", 32);
+        return new ConnectionManager(path, readers, timeout, statementCacheSize);
+    }
+
+    private Connection open(boolean readOnly) throws SQLException {
+        Connection c = DriverManager.getConnection(url);
+        try (Statement stmt = c.createStatement()) {
+            stmt.execute("PRAGMA busy_timeout = 5000");
+            if (!readOnly) {
+                stmt.execute("PRAGMA journal_mode = WAL");
+            }
+            stmt.execute("PRAGMA synchronous = NORMAL");
+            stmt.execute("PRAGMA mmap_size = 268435456");
+            stmt.execute("PRAGMA cache_size = -16000");
+            stmt.execute("PRAGMA temp_store = MEMORY");
+            if (readOnly) {
+                stmt.execute("PRAGMA query_only = 1");
+            }
+        }
+        statementCaches.put(c, new StatementCache(c, statementCacheSize, statementCounters));
+        return c;
+    }
+
+    // Returns the cached prepared statement for sql on a connection borrowed from this manager.
+    // The statement stays owned by the cache: close its ResultSet, never the statement.
+    public PreparedStatement prepare(Connection c, String sql) throws SQLException {
+        return statementCaches.get(c).prepare(sql);
+    }
+
+    public PreparedStatement prepare(Connection c, String sql, int autoGeneratedKeys) throws SQLException {
+        return statementCaches.get(c).prepare(sql, autoGeneratedKeys);
+    }
+
+    // Closes a connection along with its statement cache
+    private void retire(Connection c) {
+        StatementCache cache = statementCaches.remove(c);
+        if (cache != null) {
+            cache.clear();
+        }
+        closeQuietly(c);
+    }
+
+    // Runs work on a pooled read-only connection
+    public <T> T read(SqlWork<T> work) throws SQLException {
+        long waitStart = System.nanoTime();
+        refillReaders();
+        Connection c;
+        try {
+            c = readers.poll(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a read connection", e);
+        }
+        long queryStart = System.nanoTime();
+        readStats.recordWait(queryStart - waitStart);
+        if (c == null) {
+            readStats.timeouts.increment();
+            Metrics.addDbNanos(queryStart - waitStart);
+            throw new SQLException("Timed out waiting for a read connection");
+        }
+        try {
+            return work.apply(c);
+        } finally {
+            long end = System.nanoTime();
+            readStats.recordQuery(end - queryStart);
+            Metrics.addDbNanos(end - waitStart);
+            release(c);
+        }
+    }
+
+    // Runs work on the single writer connection in autocommit mode
+    public <T> T write(SqlWork<T> work) throws SQLException {
+        long waitStart = System.nanoTime();
+        boolean locked;
+        try {
+            locked = writeLock.tryLock(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the write connection", e);
+        }
+        long queryStart = System.nanoTime();
+        writeStats.recordWait(queryStart - waitStart);
+        if (!locked) {
+            writeStats.timeouts.increment();
+            Metrics.addDbNanos(queryStart - waitStart);
+            throw new SQLException("Timed out waiting for the write connection");
+        }
+        try {
+            return work.apply(writer);
+        } finally {
+            long end = System.nanoTime();
+            writeStats.recordQuery(end - queryStart);
+            Metrics.addDbNanos(end - waitStart);
+            WriteWindow window = writeWindow;
+            if (window != null) {
+                window.record(end - waitStart);
+            }
+            try {
+                if (!closed && writer.isClosed()) {
+                    // Replace a writer the driver has closed under us, cache and all
+                    retire(writer);
+                    writer = open(false);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    // Runs work on the writer connection inside a single transaction
+    public <T> T transaction(SqlWork<T> work) throws SQLException {
+        return write(c -> {
+            c.setAutoCommit(false);
+            try {
+                T result = work.apply(c);
+                c.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        });
+    }
+
+    private void release(Connection c) {
+        if (closed) {
+            retire(c);
+            return;
+        }
+        try {
+            if (c.isClosed()) {
+                retire(c);
+                missingReaders.incrementAndGet();
+                // Swap in a fresh reader so the pool keeps its size
+                refillReaders();
+                return;
+            }
+            if (!c.getAutoCommit()) {
+                c.rollback();
+                c.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            // A reader that cannot be reset is not handed out again; its slot is refilled
+            e.printStackTrace();
+            retire(c);
+            missingReaders.incrementAndGet();
+            return;
+        }
+        readers.offer(c);
+    }
+
+    // Opens a reader for every slot left empty by a failed reopen. If the database still
+    // cannot be opened the slot stays counted and the next read tries again.
+    private void refillReaders() {
+        int missing;
+        while (!closed && (missing = missingReaders.get()) > 0) {
+            if (!missingReaders.compareAndSet(missing, missing - 1)) {
+                continue;
+            }
+            Connection c;
+            try {
+                c = open(true);
+            } catch (SQLException e) {
+                e.printStackTrace();
+                missingReaders.incrementAndGet();
+                return;
+            }
+            if (closed) {
+                retire(c);
+                return;
+            }
+            readers.offer(c);
+        }
+    }
+
+    public int readPoolSize() {
+        return readPoolSize;
+    }
+
+    public int idleReaders() {
+        return readers.size();
+    }
+
+    // Starts timing every write (lock wait plus query) until the window is closed, so a
+    // background job can see what it cost the writers. One window at a time.
+    public WriteWindow openWriteWindow() {
+        WriteWindow window = new WriteWindow(writeStats);
+        writeWindow = window;
+        return window;
+    }
+
+    public void closeWriteWindow(WriteWindow window) {
+        if (writeWindow == window) {
+            writeWindow = null;
+        }
+    }
+
+    public String statsJson() {
+        return "{\"readPool\":{\"size\":" + readPoolSize() + ",\"idle\":" + idleReaders() +
+                ",\"missing\":" + missingReaders.get() + "}," +
+                "\"reads\":" + readStats.toJson() + "," +
+                "\"writes\":" + writeStats.toJson() + "," +
+                "\"writerQueue\":" + writeLock.getQueueLength() + "," +
+                "\"statementCache\":" + statementCounters.toJson() + "}";
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Connection c;
+        while ((c = readers.poll()) != null) {
+            retire(c);
+        }
+        writeLock.lock();
+        try {
+            retire(writer);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private static void closeQuietly(Connection c) {
+        try {
+            c.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Writes completed while the window was open, and the average write before it opened
+    public static final class WriteWindow {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final long avgMicrosBefore;
+
+        WriteWindow(Stats before) {
+            long n = before.count.sum();
+            this.avgMicrosBefore = n == 0 ? 0 : (before.waitNanos.sum() + before.queryNanos.sum()) / n / 1000;
+        }
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public long avgMicros() {
+            return totalNanos.sum() / Math.max(1, count.sum()) / 1000;
+        }
+
+        public long maxMicros() {
+            return maxNanos.get() / 1000;
+        }
+
+        public long avgMicrosBefore() {
+            return avgMicrosBefore;
+        }
+    }
+
+    // Wait and query timings for one side of the pool
+    static final class Stats {
+        final LongAdder count = new LongAdder();
+        final LongAdder timeouts = new LongAdder();
+        final LongAdder waitNanos = new LongAdder();
+        final LongAdder queryNanos = new LongAdder();
+        final AtomicLong maxWaitNanos = new AtomicLong();
+        final AtomicLong maxQueryNanos = new AtomicLong();
+
+        void recordWait(long nanos) {
+            waitNanos.add(nanos);
+            maxWaitNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        void recordQuery(long nanos) {
+            count.increment();
+            queryNanos.add(nanos);
+            maxQueryNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        String toJson() {
+            long n = Math.max(1, count.sum());
+            return "{\"count\":" + count.sum() +
+                    ",\"timeouts\":" + timeouts.sum() +
+                    ",\"avgWaitMicros\":" + waitNanos.sum() / n / 1000 +
+                    ",\"maxWaitMicros\":" + maxWaitNanos.get() / 1000 +
+                    ",\"avgQueryMicros\":" + queryNanos.sum() / n / 1000 +
+                    ",\"maxQueryMicros\":" + maxQueryNanos.get() / 1000 + "}";
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package easymed;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+// In-memory copy of the doctors repository. The roster changes a few times a day at most, so
+// GET /doctors and /doctors/categories are answered from an immutable snapshot whose
+// JSON bodies are rendered once at load time. A new snapshot is swapped in atomically
+// after invalidate() (called by any server path that modifies doctors), an explicit
+// refresh, or once the TTL runs out. Each snapshot carries a version number, which the
+// ResponseCache uses to retire responses rendered from an older one, and its own
+// DoctorSearch index.
+public class DoctorDirectory {
+
+    public record Doctor(int id, String name, String category, int experience, String phone) {
+    }
+
+    private static final byte[] EMPTY_ARRAY = "[]".getBytes(StandardCharsets.UTF_8);
+
+    // Everything derived from one read of the doctors table
+    static final class Snapshot {
+        final List<Doctor> doctors;
+        final byte[] categoriesJson;
+        final Map<String, byte[]> doctorsJsonByCategory;
+        final Map<String, Map<String, Integer>> idByCategoryAndName;
+        final Map<Integer, Doctor> byId;
+        final DoctorSearch search;
+        final long version;
+        final long loadedAtNanos;
+
+        Snapshot(List<Doctor> doctors, long version, long loadedAtNanos) {
+            this.doctors = Collections.unmodifiableList(doctors);
+            this.version = version;
+            this.loadedAtNanos = loadedAtNanos;
+
+            Map<String, List<Doctor>> byCategory = new LinkedHashMap<>();
+            Map<Integer, Doctor> byId = new HashMap<>();
+            for (Doctor d : doctors) {
+                byCategory.computeIfAbsent(d.category(), k -> new ArrayList<>()).add(d);
+                byId.put(d.id(), d);
+            }
+            this.byId = Collections.unmodifiableMap(byId);
+            this.search = new DoctorSearch(doctors);
+
+            Map<String, byte[]> json = new HashMap<>();
+            Map<String, Map<String, Integer>> ids = new HashMap<>();
+            ByteArrayOutputStream categories = new ByteArrayOutputStream();
+            ByteArrayOutputStream doctorsOut = new ByteArrayOutputStream();
+            try (JsonWriter categoriesJson = new JsonWriter(categories)) {
+                categoriesJson.beginArray();
+                for (Map.Entry<String, List<Doctor>> entry : byCategory.entrySet()) {
+                    categoriesJson.value(entry.getKey());
+
+                    Map<String, Integer> byName = new HashMap<>();
+                    doctorsOut.reset();
+                    try (JsonWriter doctorsJson = new JsonWriter(doctorsOut)) {
+                        doctorsJson.beginArray();
+                        for (Doctor d : entry.getValue()) {
+                            doctorsJson.beginObject()
+                                    .field("id", d.id())
+                                    .field("name", d.name())
+                                    .field("experience", d.experience())
+                                    .field("phone", d.phone())
+                                    .endObject();
+                            // First row wins, matching the old SELECT id ... LIMIT-less lookup
+                            byName.putIfAbsent(d.name(), d.id());
+                        }
+                        doctorsJson.endArray();
+                    }
+                    json.put(entry.getKey(), doctorsOut.toByteArray());
+                    ids.put(entry.getKey(), byName);
+                }
+                categoriesJson.endArray();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            this.categoriesJson = categories.toByteArray();
+            this.doctorsJsonByCategory = json;
+            this.idByCategoryAndName = ids;
+        }
+    }
+
+    private final DoctorRepository repository;
+    private final long ttlNanos;
+    private final AtomicReference<Snapshot> current = new AtomicReference<>();
+    private final ReentrantLock reloadLock = new ReentrantLock();
+    private volatile boolean stale;
+    // Guarded by reloadLock
+    private long loads;
+
+    public DoctorDirectory(DoctorRepository repository, long ttlSeconds) {
+        this.repository = repository;
+        this.ttlNanos = ttlSeconds * 1_000_000_000L;
+    }
+
+    public byte[] categoriesJson() throws SQLException {
+        return snapshot().categoriesJson;
+    }
+
+    public byte[] doctorsJson(String category) throws SQLException {
+        return snapshot().doctorsJsonByCategory.getOrDefault(category, EMPTY_ARRAY);
+    }
+
+    // Replaces SELECT id FROM doctors WHERE name = ? AND category = ?
+    public Integer findDoctorId(String name, String category) throws SQLException {
+        Map<String, Integer> byName = snapshot().idByCategoryAndName.get(category);
+        return byName == null ? null : byName.get(name);
+    }
+
+    public Doctor findDoctor(int id) throws SQLException {
+        return snapshot().byId.get(id);
+    }
+
+    public List<Doctor> doctors() throws SQLException {
+        return snapshot().doctors;
+    }
+
+    // The current snapshot's id index, for resolving many ids without re-checking freshness
+    public Map<Integer, Doctor> doctorsById() throws SQLException {
+        return snapshot().byId;
+    }
+
+    // Type-ahead search by name, category or specialty keyword, best matches first
+    public List<Doctor> search(String query, int limit) throws SQLException {
+        return snapshot().search.search(query, limit);
+    }
+
+    // Changes whenever a new snapshot is loaded
+    public long version() throws SQLException {
+        return snapshot().version;
+    }
+
+    // Marks the snapshot stale; the next read rebuilds it
+    public void invalidate() {
+        stale = true;
+    }
+
+    // Rebuilds the snapshot now and returns the number of doctors loaded
+    public int refresh() throws SQLException {
+        reloadLock.lock();
+        try {
+            return reload().doctors.size();
+        } finally {
+            reloadLock.unlock();
+        }
+    }
+
+    private Snapshot snapshot() throws SQLException {
+        Snapshot s = current.get();
+        if (s != null && !stale && System.nanoTime() - s.loadedAtNanos < ttlNanos) {
+            return s;
+        }
+        if (s == null) {
+            // Nothing to serve yet, so every caller waits for the first load
+            reloadLock.lock();
+        } else if (!reloadLock.tryLock()) {
+            // Someone else is already reloading; keep serving the old snapshot meanwhile
+            return s;
+        }
+        try {
+            Snapshot latest = current.get();
+            if (latest != s && latest != null && !stale) {
+                return latest;
+            }
+            return reload();
+        } finally {
+            reloadLock.unlock();
+        }
+    }
+
+    // Caller holds reloadLock. The flag is cleared before the read so an invalidate() that
+    // lands during it is not lost, and set again if the read fails so the old snapshot is
+    // not served as fresh.
+    private Snapshot reload() throws SQLException {
+        stale = false;
+        List<Doctor> doctors;
+        try {
+            doctors = repository.findAll();
+        } catch (SQLException | RuntimeException e) {
+            stale = true;
+            throw e;
+        }
+        Snapshot s = new Snapshot(doctors, ++loads, System.nanoTime());
+        current.set(s);
+        return s;
+    }
+}
@@ -0,0 +1,15 @@
+package easymed;
+
+import java.sql.SQLException;
+import java.util.List;
+
+// The doctors table. Reads go through the DoctorDirectory, which keeps the whole roster in
+// memory; after an insert the caller invalidates it.
+public interface DoctorRepository {
+
+    // Every doctor in id order
+    List<DoctorDirectory.Doctor> findAll() throws SQLException;
+
+    // Adds a doctor (the id in the record is ignored) and returns the new id
+    int insert(DoctorDirectory.Doctor doctor) throws SQLException;
+}
@@ -0,0 +1,225 @@
+package easymed;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+// Type-ahead search over the doctor roster. An inverted index maps every lower-cased word
+// of a doctor's name, category and the category's specialty keywords ("heart" for
+// Cardiology) to the doctors carrying it. The terms are kept sorted, so each query word is
+// taken as a prefix and resolves to one contiguous run of terms by binary search; a doctor
+// matches when every query word matches one of its terms. Matches are ranked by where the
+// words hit (name over category over keyword, a whole word over a prefix), then by
+// experience, and only the best `limit` are kept.
+//
+// The index is immutable and rebuilt with every DoctorDirectory snapshot, so it follows
+// each change to the doctors table. Per-query scratch arrays are borrowed from the
+// current thread, so a search allocates only its result.
+final class DoctorSearch {
+
+    static final int DEFAULT_LIMIT = 10;
+    static final int MAX_LIMIT = 50;
+
+    // Query words past this many are ignored
+    private static final int MAX_WORDS = 6;
+    // Titles carry no information; dropped from names and queries alike
+    private static final Set<String> STOP_WORDS = Set.of("dr", "doctor", "prof");
+
+    // Postings hold doc << 2 | field
+    private static final int KEYWORD = 0;
+    private static final int CATEGORY = 1;
+    private static final int NAME = 2;
+
+    // Lay terms a patient might type for each specialty, keyed by lower-cased category
+    private static final Map<String, String> SPECIALTY_KEYWORDS = Map.ofEntries(
+            Map.entry("cardiology", "heart cardiac cardiologist chest blood pressure"),
+            Map.entry("neurology", "brain nerve neurologist headache migraine seizure stroke"),
+            Map.entry("orthopedics", "bone joint fracture spine knee back orthopedic"),
+            Map.entry("dermatology", "skin rash acne hair allergy dermatologist"),
+            Map.entry("pediatrics", "child children baby kids infant pediatrician"),
+            Map.entry("gynecology", "women pregnancy obstetrics gynecologist"),
+            Map.entry("ent", "ear nose throat sinus hearing"),
+            Map.entry("ophthalmology", "eye vision sight cataract"),
+            Map.entry("psychiatry", "mental depression anxiety stress psychiatrist"),
+            Map.entry("urology", "kidney bladder urinary urologist"),
+            Map.entry("gastroenterology", "stomach digestion liver bowel gastro"),
+            Map.entry("general medicine", "general physician family fever flu checkup"));
+
+    private static final class Scratch {
+        int[] state = new int[0];
+        int[] prior = new int[0];
+        int[] score = new int[0];
+        int[] candidates = new int[0];
+        int generation;
+
+        // state[doc] == generation * 8 + n once the doc has matched the first n query words
+        int begin(int doctors) {
+            if (state.length < doctors) {
+                state = new int[doctors];
+                prior = new int[doctors];
+                score = new int[doctors];
+                candidates = new int[doctors];
+            }
+            if (++generation > Integer.MAX_VALUE / 8 - 1) {
+                Arrays.fill(state, 0);
+                generation = 1;
+            }
+            return generation * 8;
+        }
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final DoctorDirectory.Doctor[] doctors;
+    private final String[] terms;
+    private final int[][] postings;
+
+    DoctorSearch(List<DoctorDirectory.Doctor> roster) {
+        this.doctors = roster.toArray(new DoctorDirectory.Doctor[0]);
+        Map<String, IntList> index = new HashMap<>();
+        Map<String, Integer> fields = new HashMap<>();
+        Map<String, List<String>> keywordsByCategory = new HashMap<>();
+        for (int doc = 0; doc < doctors.length; doc++) {
+            DoctorDirectory.Doctor d = doctors[doc];
+            // Strongest field per word, so a doctor appears once in each posting list
+            fields.clear();
+            for (String word : keywordsByCategory.computeIfAbsent(d.category(), c ->
+                    words(SPECIALTY_KEYWORDS.getOrDefault(c.toLowerCase(Locale.ROOT), ""), Integer.MAX_VALUE))) {
+                fields.merge(word, KEYWORD, Math::max);
+            }
+            for (String word : words(d.category(), Integer.MAX_VALUE)) {
+                fields.merge(word, CATEGORY, Math::max);
+            }
+            for (String word : words(d.name(), Integer.MAX_VALUE)) {
+                fields.merge(word, NAME, Math::max);
+            }
+            for (Map.Entry<String, Integer> e : fields.entrySet()) {
+                index.computeIfAbsent(e.getKey(), k -> new IntList()).add(doc << 2 | e.getValue());
+            }
+        }
+        this.terms = index.keySet().toArray(new String[0]);
+        Arrays.sort(terms);
+        this.postings = new int[terms.length][];
+        for (int t = 0; t < terms.length; t++) {
+            postings[t] = index.get(terms[t]).toArray();
+        }
+    }
+
+    // Clamps a requested result count; null or unparsable means the default
+    static int limit(String requested) {
+        if (requested == null) {
+            return DEFAULT_LIMIT;
+        }
+        try {
+            return Math.max(1, Math.min(MAX_LIMIT, Integer.parseInt(requested)));
+        } catch (NumberFormatException e) {
+            return DEFAULT_LIMIT;
+        }
+    }
+
+    // The best matches for the query, best first; empty when it has no usable words
+    List<DoctorDirectory.Doctor> search(String query, int limit) {
+        List<String> words = words(query, MAX_WORDS);
+        if (words.isEmpty() || doctors.length == 0) {
+            return List.of();
+        }
+        Scratch s = SCRATCH.get();
+        int base = s.begin(doctors.length);
+        int[] state = s.state;
+        int[] prior = s.prior;
+        int[] score = s.score;
+        int[] candidates = s.candidates;
+        int found = 0;
+        int last = words.size() - 1;
+        for (int w = 0; w <= last; w++) {
+            String word = words.get(w);
+            int t = Arrays.binarySearch(terms, word);
+            for (t = t < 0 ? -t - 1 : t; t < terms.length && terms[t].startsWith(word); t++) {
+                int whole = terms[t].length() == word.length() ? 2 : 1;
+                for (int posting : postings[t]) {
+                    int doc = posting >>> 2;
+                    int points = ((posting & 3) + 1) * whole;
+                    int st = state[doc];
+                    if (st == base + w + 1) {
+                        // Another term matching the same word: keep the better one
+                        score[doc] = Math.max(score[doc], prior[doc] + points);
+                    } else if (w == 0 ? st - base <= 0 : st == base + w) {
+                        prior[doc] = w == 0 ? 0 : score[doc];
+                        score[doc] = prior[doc] + points;
+                        state[doc] = base + w + 1;
+                        if (w == last) {
+                            candidates[found++] = doc;
+                        }
+                    }
+                }
+            }
+        }
+        return top(candidates, found, score, limit);
+    }
+
+    // Partial selection of the best `limit` candidates; the rank key orders by score, then
+    // experience, then roster order (doctor id)
+    private List<DoctorDirectory.Doctor> top(int[] candidates, int found, int[] score, int limit) {
+        long[] best = new long[Math.min(limit, found)];
+        int kept = 0;
+        for (int i = 0; i < found; i++) {
+            int doc = candidates[i];
+            long key = (long) score[doc] << 40 |
+                    (long) Math.min(Math.max(doctors[doc].experience(), 0), 0xFFFF) << 24 | (0xFFFFFF - doc);
+            if (kept == best.length && key <= best[kept - 1]) {
+                continue;
+            }
+            int at = kept == best.length ? kept - 1 : kept++;
+            while (at > 0 && best[at - 1] < key) {
+                best[at] = best[at - 1];
+                at--;
+            }
+            best[at] = key;
+        }
+        List<DoctorDirectory.Doctor> result = new ArrayList<>(kept);
+        for (int i = 0; i < kept; i++) {
+            result.add(doctors[0xFFFFFF - (int) (best[i] & 0xFFFFFF)]);
+        }
+        return result;
+    }
+
+    // Lower-cased runs of letters and digits, without titles
+    private static List<String> words(String text, int max) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length() && words.size() < max; i++) {
+            boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                String word = text.substring(start, i).toLowerCase(Locale.ROOT);
+                if (!STOP_WORDS.contains(word)) {
+                    words.add(word);
+                }
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    // Growable int array for building posting lists
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package easymed;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// Single-pass pull parser reading JSON straight from an InputStream. It decodes UTF-8
+// itself and reuses one buffer and one StringBuilder per reader, so the only per-value
+// allocation is the String handed back. Request bodies are flat objects, so scalar
+// values come back as strings (numbers and booleans as their literal text) and nested
+// objects or arrays can be skipped but not read.
+public final class JsonReader {
+
+    // Malformed or oversized input; status is the HTTP status to answer with
+    public static final class JsonException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        JsonException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+        public int status() {
+            return status;
+        }
+    }
+
+    private static final int MAX_DEPTH = 32;
+
+    private final InputStream in;
+    private final long maxBytes;
+    private final byte[] buf = new byte[1024];
+    private final StringBuilder sb = new StringBuilder(64);
+    private int pos;
+    private int limit;
+    private long consumed;
+    private boolean expectComma;
+
+    public JsonReader(InputStream in, long maxBytes) {
+        this.in = in;
+        this.maxBytes = maxBytes;
+    }
+
+    public void beginObject() throws IOException {
+        expect('{');
+        expectComma = false;
+    }
+
+    // True if another name/value pair follows in the current object
+    public boolean hasNext() throws IOException {
+        int c = peekNonWhitespace();
+        if (c == '}') {
+            return false;
+        }
+        if (expectComma) {
+            if (c != ',') {
+                throw malformed("Expected ',' or '}'");
+            }
+            pos++;
+            if (peekNonWhitespace() != '"') {
+                throw malformed("Expected a name after ','");
+            }
+        }
+        return true;
+    }
+
+    public String nextName() throws IOException {
+        if (peekNonWhitespace() != '"') {
+            throw malformed("Expected a name");
+        }
+        pos++;
+        String name = readString();
+        expect(':');
+        expectComma = true;
+        return name;
+    }
+
+    // Reads a string, number or boolean as text; JSON null comes back as null
+    public String nextString() throws IOException {
+        int c = peekNonWhitespace();
+        if (c == '"') {
+            pos++;
+            return readString();
+        }
+        if (c == '-' || (c >= '0' && c <= '9')) {
+            return readNumber();
+        }
+        if (c == 't') {
+            readLiteral("true");
+            return "true";
+        }
+        if (c == 'f') {
+            readLiteral("false");
+            return "false";
+        }
+        if (c == 'n') {
+            readLiteral("null");
+            return null;
+        }
+        throw malformed(c == '{' || c == '[' ? "Expected a scalar value" : "Unexpected character");
+    }
+
+    public void skipValue() throws IOException {
+        skipValue(0);
+    }
+
+    // Consumes the closing brace and checks nothing but whitespace follows
+    public void endObject() throws IOException {
+        expect('}');
+        if (peekNonWhitespace() != -1) {
+            throw malformed("Unexpected data after JSON object");
+        }
+    }
+
+    private void skipValue(int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw malformed("JSON nested too deeply");
+        }
+        int c = peekNonWhitespace();
+        if (c == '{' || c == '[') {
+            int close = c == '{' ? '}' : ']';
+            pos++;
+            boolean first = true;
+            while (peekNonWhitespace() != close) {
+                if (!first) {
+                    expect(',');
+                }
+                first = false;
+                if (close == '}') {
+                    expect('"');
+                    readString();
+                    expect(':');
+                }
+                skipValue(depth + 1);
+            }
+            pos++;
+        } else {
+            nextString();
+        }
+    }
+
+    private String readString() throws IOException {
+        sb.setLength(0);
+        while (true) {
+            int b = read();
+            if (b == '"') {
+                return sb.toString();
+            }
+            if (b == '\\') {
+                readEscape();
+            } else if (b < 0) {
+                throw malformed("Unterminated string");
+            } else if (b < 0x20) {
+                throw malformed("Control character in string");
+            } else if (b < 0x80) {
+                sb.append((char) b);
+            } else {
+                readUtf8(b);
+            }
+        }
+    }
+
+    private void readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case '"': sb.append('"'); break;
+            case '\\': sb.append('\\'); break;
+            case '/': sb.append('/'); break;
+            case 'b': sb.append('\b'); break;
+            case 'f': sb.append('\f'); break;
+            case 'n': sb.append('\n'); break;
+            case 'r': sb.append('\r'); break;
+            case 't': sb.append('\t'); break;
+            case 'u': {
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw malformed("Invalid \\u escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                // Surrogate pairs arrive as two escapes and recombine in the builder
+                sb.append((char) value);
+                break;
+            }
+            default:
+                throw malformed("Invalid escape sequence");
+        }
+    }
+
+    // Decodes one multi-byte UTF-8 sequence whose lead byte has been read
+    private void readUtf8(int lead) throws IOException {
+        int extra;
+        int codePoint;
+        if ((lead & 0xE0) == 0xC0) {
+            extra = 1;
+            codePoint = lead & 0x1F;
+        } else if ((lead & 0xF0) == 0xE0) {
+            extra = 2;
+            codePoint = lead & 0x0F;
+        } else if ((lead & 0xF8) == 0xF0) {
+            extra = 3;
+            codePoint = lead & 0x07;
+        } else {
+            sb.append('\uFFFD');
+            return;
+        }
+        for (int i = 0; i < extra; i++) {
+            int b = read();
+            if ((b & 0xC0) != 0x80) {
+                throw malformed("Invalid UTF-8 sequence");
+            }
+            codePoint = (codePoint << 6) | (b & 0x3F);
+        }
+        if (codePoint > Character.MAX_CODE_POINT) {
+            sb.append('\uFFFD');
+        } else {
+            sb.appendCodePoint(codePoint);
+        }
+    }
+
+    private String readNumber() throws IOException {
+        sb.setLength(0);
+        int c = peek();
+        if (c == '-') {
+            sb.append('-');
+            pos++;
+        }
+        if (readDigits() == 0) {
+            throw malformed("Invalid number");
+        }
+        if (peek() == '.') {
+            sb.append('.');
+            pos++;
+            if (readDigits() == 0) {
+                throw malformed("Invalid number");
+            }
+        }
+        c = peek();
+        if (c == 'e' || c == 'E') {
+            sb.append((char) c);
+            pos++;
+            c = peek();
+            if (c == '+' || c == '-') {
+                sb.append((char) c);
+                pos++;
+            }
+            if (readDigits() == 0) {
+                throw malformed("Invalid number");
+            }
+        }
+        return sb.toString();
+    }
+
+    private int readDigits() throws IOException {
+        int count = 0;
+        int c;
+        while ((c = peek()) >= '0' && c <= '9') {
+            sb.append((char) c);
+            pos++;
+            count++;
+        }
+        return count;
+    }
+
+    private void readLiteral(String literal) throws IOException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (read() != literal.charAt(i)) {
+                throw malformed("Invalid literal");
+            }
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        if (peekNonWhitespace() != expected) {
+            throw malformed("Expected '" + expected + "'");
+        }
+        pos++;
+    }
+
+    private int peekNonWhitespace() throws IOException {
+        while (true) {
+            int c = peek();
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return c;
+            }
+            pos++;
+        }
+    }
+
+    private int peek() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos] & 0xFF;
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos++] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0) {
+            return false;
+        }
+        consumed += n;
+        if (consumed > maxBytes) {
+            throw new JsonException(413, "Request body too large");
+        }
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    private JsonException malformed(String message) {
+        return new JsonException(400, "Invalid JSON: " + message);
+    }
+}
@@ -0,0 +1,390 @@
+package easymed;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+// Streaming JSON writer, the output-side counterpart of JsonReader. Strings are escaped
+// and encoded to UTF-8 straight into a byte buffer, numbers are written digit by digit,
+// and ResultSet columns are copied through their primitive getters, so rendering a
+// listing allocates nothing per row. The buffer is borrowed from the current thread and
+// handed back on close, so repeated responses reuse the same scratch space.
+//
+// A response writer sends the body with a Content-Length when it fits in the buffer;
+// once it outgrows the buffer the headers go out with chunked transfer encoding and the
+// rest streams to the client as it is written.
+public final class JsonWriter implements Closeable {
+
+    private static final int BUFFER_BYTES = Integer.getInteger("easymed.json.bufferBytes", 16 * 1024);
+    private static final int MAX_DEPTH = 32;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+
+    // Per-thread scratch space; a writer opened while another is still open on the same
+    // thread gets a fresh one instead
+    private static final class Scratch {
+        final byte[] buf = new byte[BUFFER_BYTES];
+        final boolean[] hasValue = new boolean[MAX_DEPTH + 1];
+        boolean inUse;
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final Scratch scratch;
+    private final byte[] buf;
+    private final boolean[] hasValue;
+    private final HttpExchange exchange;
+    private final int status;
+    private OutputStream out;
+    private int pos;
+    private int depth;
+    private boolean afterName;
+    private boolean committed;
+    private boolean closed;
+
+    private JsonWriter(HttpExchange exchange, int status, OutputStream out) {
+        Scratch s = SCRATCH.get();
+        if (s.inUse) {
+            s = new Scratch();
+        }
+        s.inUse = true;
+        this.scratch = s;
+        this.buf = s.buf;
+        this.hasValue = s.hasValue;
+        this.exchange = exchange;
+        this.status = status;
+        this.out = out;
+        hasValue[0] = false;
+    }
+
+    // Writes into any stream; close() flushes but leaves the stream open
+    public JsonWriter(OutputStream out) {
+        this(null, 0, out);
+    }
+
+    // Writes a JSON response with the given status; close() completes the exchange
+    public static JsonWriter forResponse(HttpExchange exchange, int status) {
+        return new JsonWriter(exchange, status, null);
+    }
+
+    // True once bytes have been sent to the client, after which the status can no longer
+    // be changed and a failure can only abort the exchange
+    public boolean committed() {
+        return committed;
+    }
+
+    // Drops whatever has been buffered and returns the buffer, so the caller can send a
+    // different response instead. Only meaningful before committed().
+    public void discard() {
+        pos = 0;
+        closed = true;
+        release();
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    public JsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        separate();
+        writeString(name);
+        put((byte) ':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        separate();
+        writeString(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        separate();
+        writeLong(value);
+        return this;
+    }
+
+    public JsonWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return nullValue();
+        }
+        if (value == (long) value && Math.abs(value) < 1e15) {
+            return value((long) value);
+        }
+        separate();
+        writeAscii(Double.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        separate();
+        writeBytes(value ? TRUE : FALSE);
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        separate();
+        writeBytes(NULL);
+        return this;
+    }
+
+    // Copies already-encoded JSON (a cached fragment) in as one value
+    public JsonWriter rawValue(byte[] json) throws IOException {
+        separate();
+        writeBytes(json);
+        return this;
+    }
+
+    public JsonWriter field(String name, String value) throws IOException {
+        return name(name).value(value);
+    }
+
+    public JsonWriter field(String name, long value) throws IOException {
+        return name(name).value(value);
+    }
+
+    public JsonWriter field(String name, boolean value) throws IOException {
+        return name(name).value(value);
+    }
+
+    // Integer column, or null when SQL NULL
+    public JsonWriter longColumn(String name, ResultSet rs, int column) throws IOException, SQLException {
+        name(name);
+        long value = rs.getLong(column);
+        return rs.wasNull() ? nullValue() : value(value);
+    }
+
+    // Real column, or null when SQL NULL
+    public JsonWriter doubleColumn(String name, ResultSet rs, int column) throws IOException, SQLException {
+        name(name);
+        double value = rs.getDouble(column);
+        return rs.wasNull() ? nullValue() : value(value);
+    }
+
+    // Text column, or null when SQL NULL
+    public JsonWriter stringColumn(String name, ResultSet rs, int column) throws IOException, SQLException {
+        return name(name).value(rs.getString(column));
+    }
+
+    // Sends what is buffered so far (committing a response to chunked encoding)
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (exchange != null) {
+                if (!committed) {
+                    // Everything fit in the buffer: send it with a Content-Length
+                    MedicalServer.addJsonHeaders(exchange);
+                    exchange.sendResponseHeaders(status, pos == 0 ? -1 : pos);
+                    out = exchange.getResponseBody();
+                    committed = true;
+                }
+                drain();
+                out.close();
+            } else {
+                drain();
+                out.flush();
+            }
+        } finally {
+            release();
+        }
+    }
+
+    private JsonWriter open(char bracket) throws IOException {
+        if (depth == MAX_DEPTH) {
+            throw new IllegalStateException("JSON nested too deeply");
+        }
+        separate();
+        put((byte) bracket);
+        hasValue[++depth] = false;
+        return this;
+    }
+
+    private JsonWriter close(char bracket) throws IOException {
+        if (depth == 0) {
+            throw new IllegalStateException("Unbalanced " + bracket);
+        }
+        depth--;
+        put((byte) bracket);
+        return this;
+    }
+
+    // Comma before every value or name except the first in its container, none after a name
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (hasValue[depth]) {
+            put((byte) ',');
+        }
+        hasValue[depth] = true;
+    }
+
+    private void writeString(String s) throws IOException {
+        int n = s.length();
+        if (buf.length - pos < n + 2) {
+            drain();
+        }
+        buf[pos++] = '"';
+        // Plain ASCII is copied without further checks while it lasts (the common case)
+        int i = 0;
+        if (n + 1 <= buf.length - pos) {
+            int p = pos;
+            for (; i < n; i++) {
+                char c = s.charAt(i);
+                if (c >= 0x80 || c < 0x20 || c == '"' || c == '\\') {
+                    break;
+                }
+                buf[p++] = (byte) c;
+            }
+            pos = p;
+        }
+        for (; i < n; i++) {
+            char c = s.charAt(i);
+            // Worst case per char is a six-byte control character escape
+            if (buf.length - pos < 6) {
+                drain();
+            }
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    buf[pos++] = (byte) c;
+                } else {
+                    escape(c);
+                }
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xc0 | c >> 6);
+                buf[pos++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf[pos++] = (byte) (0xf0 | cp >> 18);
+                buf[pos++] = (byte) (0x80 | cp >> 12 & 0x3f);
+                buf[pos++] = (byte) (0x80 | cp >> 6 & 0x3f);
+                buf[pos++] = (byte) (0x80 | cp & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate: not encodable, replace like String.getBytes does
+                buf[pos++] = (byte) '?';
+            } else {
+                buf[pos++] = (byte) (0xe0 | c >> 12);
+                buf[pos++] = (byte) (0x80 | c >> 6 & 0x3f);
+                buf[pos++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+        put((byte) '"');
+    }
+
+    private void escape(char c) {
+        buf[pos++] = '\\';
+        switch (c) {
+            case '"': buf[pos++] = '"'; break;
+            case '\\': buf[pos++] = '\\'; break;
+            case '\n': buf[pos++] = 'n'; break;
+            case '\r': buf[pos++] = 'r'; break;
+            case '\t': buf[pos++] = 't'; break;
+            case '\b': buf[pos++] = 'b'; break;
+            case '\f': buf[pos++] = 'f'; break;
+            default:
+                buf[pos++] = 'u';
+                buf[pos++] = '0';
+                buf[pos++] = '0';
+                buf[pos++] = HEX[c >> 4];
+                buf[pos++] = HEX[c & 0xf];
+        }
+    }
+
+    private void writeLong(long v) throws IOException {
+        if (buf.length - pos < 20) {
+            drain();
+        }
+        if (v == Long.MIN_VALUE) {
+            writeAscii(Long.toString(v));
+            return;
+        }
+        if (v < 0) {
+            buf[pos++] = '-';
+            v = -v;
+        }
+        int digits = 1;
+        for (long t = v; t >= 10; t /= 10) {
+            digits++;
+        }
+        int end = pos + digits;
+        for (int i = end - 1; i >= pos; i--) {
+            buf[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        pos = end;
+    }
+
+    private void writeAscii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            put((byte) s.charAt(i));
+        }
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if (bytes.length > buf.length - pos) {
+            drain();
+            if (bytes.length > buf.length) {
+                out.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        pos += bytes.length;
+    }
+
+    private void put(byte b) throws IOException {
+        if (pos == buf.length) {
+            drain();
+        }
+        buf[pos++] = b;
+    }
+
+    // Writes the buffer out, first committing a response to chunked encoding
+    private void drain() throws IOException {
+        if (out == null) {
+            MedicalServer.addJsonHeaders(exchange);
+            exchange.sendResponseHeaders(status, 0);
+            out = exchange.getResponseBody();
+            committed = true;
+        }
+        if (pos > 0) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+    }
+
+    private void release() {
+        scratch.inUse = false;
+    }
+}
@@ -0,0 +1,990 @@
+package easymed;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.Executor;
+
+public class MedicalServer {
+    static Storage storage;
+    // The SQLite engine's pool and group commit; null with the memory engine
+    static ConnectionManager db;
+    static DoctorDirectory doctorDirectory;
+    static SlotCalendar slotCalendar;
+    static WriteBatcher writeBatcher;
+    static MedicineRules medicineRules;
+    static PatientAges patientAges;
+    private static StaticAssets staticAssets;
+    static SessionStore sessions;
+    static PasswordHasher passwords;
+    static PatientHistory patientHistory;
+    static Metrics metrics;
+    static RateLimiter loginAttempts;
+    static ResponseCache responseCache;
+    static AuditLog audit;
+    static BookingStats bookingStats;
+    static BackupService backups;
+
+    public static void main(String[] args) throws Exception {
+        // Open the storage engine and load the in-memory views of it
+        initDatabase();
+
+        // Create HTTP server: the JDK one, or the selector-based front end with -Deasymed.server=nio
+        String mode = ServerExecutors.configuredMode();
+        String frontEnd = System.getProperty("easymed.server", "jdk");
+        Runnable start;
+        if (frontEnd.equals("nio")) {
+            NioHttpServer server = new NioHttpServer(new InetSocketAddress(8000), createRouter(),
+                    ServerExecutors.create(mode), NioHttpServer.Config.fromSystemProperties());
+            start = server::start;
+        } else {
+            HttpServer server = createServer(8000, ServerExecutors.create(mode));
+            start = server::start;
+        }
+        // Audit events still in the ring are written out on a normal shutdown
+        Runtime.getRuntime().addShutdownHook(new Thread(audit::close, "easymed-audit-shutdown"));
+        Runtime.getRuntime().addShutdownHook(new Thread(bookingStats::close, "easymed-stats-shutdown"));
+        // Commits batched writes, or writes the memory engine's snapshot
+        Runtime.getRuntime().addShutdownHook(new Thread(storage::close, "easymed-storage-shutdown"));
+        System.out.println("Server started at http://localhost:8000 (" + frontEnd + " server, " + mode + " executor)");
+        start.run();
+    }
+
+    // Pending connections the kernel queues for either server, -Deasymed.server.backlog
+    static int backlog() {
+        return Integer.getInteger("easymed.server.backlog", 1024);
+    }
+
+    // Builds the HTTP server with every route registered. A null executor keeps the
+    // default behaviour of running each exchange on the dispatcher thread.
+    static HttpServer createServer(int port, Executor executor) throws IOException {
+        // Without TCP_NODELAY small JSON responses sit behind the client's delayed ACK (~40ms)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), backlog());
+        server.createContext("/", createRouter());
+        server.setExecutor(executor);
+        return server;
+    }
+
+    // The handler behind either server
+    static HttpHandler createRouter() throws IOException {
+        if (staticAssets == null) {
+            staticAssets = new StaticAssets(Paths.get(System.getProperty("easymed.webRoot", ".")),
+                    Long.getLong("easymed.static.maxCachedBytes", 1024 * 1024L));
+        }
+        if (sessions == null) {
+            sessions = SessionStore.fromSystemProperties();
+        }
+        if (passwords == null) {
+            passwords = PasswordHasher.fromSystemProperties();
+        }
+        if (metrics == null) {
+            metrics = new Metrics();
+        }
+        if (responseCache == null) {
+            responseCache = ResponseCache.fromSystemProperties();
+        }
+        if (loginAttempts == null) {
+            loginAttempts = RateLimiter.fromSystemProperties("login", 10, 5);
+        }
+        if (audit == null) {
+            audit = AuditLog.fromSystemProperties();
+        }
+        // One context for everything: the router matches API paths exactly and sends
+        // anything else to the static file handler
+        Router router = new Router(metrics, new ServerExecutors.OverloadFilter(), new StaticFileHandler());
+
+        // API endpoints
+        HttpHandler importHandler = new ImportHandler();
+        HttpHandler backupHandler = new BackupHandler();
+        router.get("/doctors/categories", new DoctorCategoriesHandler())
+                .get("/doctors/search", new DoctorSearchHandler())
+                .get("/doctors/slots", new FreeSlotsHandler())
+                .get("/doctors", new DoctorsHandler())
+                .post("/appointments", new AppointmentHandler())
+                .post("/patients/register", new PatientRegisterHandler())
+                .post("/patients/login", new PatientLoginHandler())
+                .get("/patients/appointments", new AppointmentHistoryHandler())
+                .get("/patients/symptoms", new SymptomHistoryHandler())
+                .post("/symptoms/check", new SymptomCheckHandler())
+                .get("/admin/db-stats", new DbStatsHandler())
+                .post("/admin/doctors/refresh", new DoctorRefreshHandler())
+                .post("/admin/rules/reload", new RulesReloadHandler())
+                .get("/admin/import", importHandler)
+                // Uploads are streamed, so the body size is not capped
+                .route("POST", "/admin/import", importHandler, -1)
+                .get("/admin/backup", backupHandler)
+                .post("/admin/backup", backupHandler)
+                .get("/metrics", new MetricsHandler())
+                .get("/stats", new StatsHandler());
+
+        // The unauthenticated and symptom POSTs are rate limited per client address. Every
+        // route that reaches SQLite or the password pool shares one concurrency cap, so a
+        // burst is turned away before it queues for a connection.
+        Filter perAddress = RateLimiter.fromSystemProperties("address", 120, 30).filter();
+        Filter concurrency = ServerExecutors.ConcurrencyLimitFilter.fromSystemProperties();
+        router.filter("/patients/login", perAddress, concurrency)
+                .filter("/patients/register", perAddress, concurrency)
+                .filter("/symptoms/check", perAddress, concurrency)
+                .filter("/appointments", concurrency)
+                .filter("/patients/appointments", concurrency)
+                .filter("/patients/symptoms", concurrency);
+
+        // The doctor listings are the same for every visitor until the roster changes
+        ResponseCache.Version roster = () -> doctorDirectory.version();
+        router.filter("/doctors/categories", responseCache.filter(roster))
+                .filter("/doctors", responseCache.filter(roster, "category"))
+                .filter("/doctors/search", responseCache.filter(roster, "q", "limit"));
+        return router;
+    }
+
+    static void initDatabase() throws SQLException, IOException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            System.err.println("SQLite JDBC driver not found.");
+            System.exit(1);
+        }
+        // SQLite by default (a WAL-mode reader pool and one writer, with request-path inserts
+        // group-committed), or everything in memory with -Deasymed.storage=memory
+        storage = Storage.fromSystemProperties();
+        if (storage instanceof SqliteStorage sqlite) {
+            db = sqlite.db();
+            writeBatcher = sqlite.writeBatcher();
+        }
+
+        // Doctor roster served from memory; rebuilt on invalidate() or after the TTL
+        doctorDirectory = new DoctorDirectory(storage.doctors(), Long.getLong("easymed.doctors.ttlSeconds", 300L));
+        doctorDirectory.refresh();
+
+        // Booked slots held in memory so conflicts are settled before touching the storage
+        slotCalendar = SlotCalendar.fromSystemProperties();
+        slotCalendar.load(storage.appointments());
+
+        // Compiled medicine rules (the defaults without SQLite) and every patient's age for
+        // the symptom checker
+        medicineRules = MedicineRules.fromSystemProperties(db);
+        medicineRules.reload();
+        patientAges = new PatientAges(storage.patients());
+        patientAges.load();
+
+        patientHistory = new PatientHistory(storage.appointments(), storage.symptoms(), doctorDirectory);
+
+        // Booking analytics for /stats, restored from their checkpoint and caught up
+        bookingStats = BookingStats.fromSystemProperties(storage, doctorDirectory);
+        bookingStats.load();
+        if (db != null) {
+            backups = BackupService.fromSystemProperties(db);
+            backups.start();
+        }
+    }
+
+    // Creates any missing tables and indexes; also used by the BulkImporter command line
+    static void createSchema(ConnectionManager db) throws SQLException {
+        db.write(connection -> {
+            Statement stmt = connection.createStatement();
+
+            // Create tables if not exist
+            stmt.execute("CREATE TABLE IF NOT EXISTS doctors (" +
+                    "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "name TEXT NOT NULL," +
+                    "category TEXT NOT NULL," +
+                    "experience INTEGER NOT NULL," +
+                    "phone TEXT NOT NULL" +
+                    ")");
+
+            stmt.execute("CREATE TABLE IF NOT EXISTS patients (" +
+                    "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "patient_name TEXT NOT NULL," +
+                    "father_name TEXT NOT NULL," +
+                    "cnic TEXT UNIQUE NOT NULL," +
+                    "email TEXT UNIQUE NOT NULL," +
+                    "password TEXT NOT NULL," +
+                    "phone TEXT NOT NULL," +
+                    "age INTEGER NOT NULL," +
+                    "disease TEXT NOT NULL" +
+                    ")");
+
+            stmt.execute("CREATE TABLE IF NOT EXISTS appointments (" +
+                    "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "doctor_id INTEGER NOT NULL," +
+                    "patient_id INTEGER NOT NULL," +
+                    "date TEXT NOT NULL," +
+                    "time TEXT NOT NULL," +
+                    "message TEXT," +
+                    "disease TEXT NOT NULL," +
+                    "FOREIGN KEY(doctor_id) REFERENCES doctors(id)," +
+                    "FOREIGN KEY(patient_id) REFERENCES patients(id)" +
+                    ")");
+
+            stmt.execute("CREATE TABLE IF NOT EXISTS symptoms (" +
+                    "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "patient_id INTEGER NOT NULL," +
+                    "symptoms TEXT NOT NULL," +
+                    "medicines TEXT NOT NULL," +
+                    "FOREIGN KEY(patient_id) REFERENCES patients(id)" +
+                    ")");
+
+            // One booking per doctor per slot. Older files may already hold duplicates, in
+            // which case the index cannot be built and only the in-memory calendar guards new bookings.
+            try {
+                stmt.execute("CREATE UNIQUE INDEX IF NOT EXISTS idx_appointments_doctor_slot " +
+                        "ON appointments (doctor_id, date, time)");
+            } catch (SQLException e) {
+                System.err.println("Could not create unique appointment slot index: " + e.getMessage());
+                // The slot index would have covered doctor_id lookups; index it on its own instead
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_appointments_doctor_id ON appointments (doctor_id)");
+            }
+
+            // Login matches on cnic OR phone; cnic is indexed through its UNIQUE constraint
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_patients_phone ON patients (phone)");
+            // Covering indexes for the paged history listings: every selected column is in the
+            // index, in sort order, so a page is one index seek and scan with no table lookups.
+            // They also serve plain patient_id lookups, replacing the single-column indexes.
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_appointments_patient_date " +
+                    "ON appointments (patient_id, date, time, id, doctor_id, disease, message)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_symptoms_patient_history " +
+                    "ON symptoms (patient_id, id, symptoms, medicines)");
+            stmt.execute("DROP INDEX IF EXISTS idx_appointments_patient_id");
+            stmt.execute("DROP INDEX IF EXISTS idx_symptoms_patient_id");
+
+            // Symptom keyword -> medicine rules, seeded with the original three on first run
+            MedicineRules.createTable(stmt);
+
+            stmt.close();
+            return null;
+        });
+    }
+
+    // Content type for every JSON response; also used by JsonWriter. CORS headers are
+    // added by the Router.
+    static void addJsonHeaders(HttpExchange exchange) {
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+    }
+
+    // Utility to send JSON response
+    static void sendJsonResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
+        sendJsonResponse(exchange, statusCode, response.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Utility to send an already-encoded JSON response
+    static void sendJsonResponse(HttpExchange exchange, int statusCode, byte[] bytes) throws IOException {
+        addJsonHeaders(exchange);
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(bytes);
+        os.close();
+    }
+
+    // Handler for /doctors/categories
+    static class DoctorCategoriesHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                sendJsonResponse(exchange, 200, doctorDirectory.categoriesJson());
+            } catch (SQLException e) {
+                e.printStackTrace();
+                sendJsonResponse(exchange, 500, "Database error");
+            }
+        }
+    }
+
+    // Handler for /doctors?category=...
+    static class DoctorsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String category = parseQuery(exchange.getRequestURI().getRawQuery()).get("category");
+            if (category == null) {
+                sendJsonResponse(exchange, 400, "Category parameter is required");
+                return;
+            }
+            try {
+                sendJsonResponse(exchange, 200, doctorDirectory.doctorsJson(category));
+            } catch (SQLException e) {
+                e.printStackTrace();
+                sendJsonResponse(exchange, 500, "Database error");
+            }
+        }
+    }
+
+    // Handler for GET /doctors/search?q=...&limit=: type-ahead search by doctor name, partial
+    // category or specialty keyword, answered from the in-memory index (see DoctorSearch)
+    static class DoctorSearchHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            String query = params.get("q");
+            if (query == null) {
+                sendJsonResponse(exchange, 400, "q parameter is required");
+                return;
+            }
+            try {
+                List<DoctorDirectory.Doctor> found = doctorDirectory.search(query, DoctorSearch.limit(params.get("limit")));
+                try (JsonWriter json = JsonWriter.forResponse(exchange, 200)) {
+                    json.beginArray();
+                    for (DoctorDirectory.Doctor d : found) {
+                        json.beginObject()
+                                .field("id", d.id())
+                                .field("name", d.name())
+                                .field("category", d.category())
+                                .field("experience", d.experience())
+                                .field("phone", d.phone())
+                                .endObject();
+                    }
+                    json.endArray();
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+                sendJsonResponse(exchange, 500, "Database error");
+            }
+        }
+    }
+
+    // Handler for POST /appointments
+    static class AppointmentHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            Integer patientId = sessions.validate(exchange);
+            if (patientId == null) {
+                sendJsonResponse(exchange, 401, "Login required");
+                return;
+            }
+            ApiRequests.AppointmentRequest data = ApiRequests.AppointmentRequest.read(exchange);
+            if (data.doctorCategory() == null || data.doctor() == null ||
+                data.date() == null || data.time() == null ||
+                data.disease() == null) {
+                sendJsonResponse(exchange, 400, "Missing required fields");
+                return;
+            }
+            try {
+                // Find doctor id by name and category
+                Integer doctorId = doctorDirectory.findDoctorId(data.doctor(), data.doctorCategory());
+                if (doctorId == null) {
+                    sendJsonResponse(exchange, 400, "Doctor not found");
+                    return;
+                }
+
+                SlotCalendar.Slot slot = slotCalendar.normalize(data.date(), data.time());
+                if (slot == null) {
+                    sendJsonResponse(exchange, 400, "Date and time must be an upcoming appointment slot");
+                    return;
+                }
+                String disease = data.disease();
+                String message = data.message() != null ? data.message() : "";
+
+                // Claim the slot in memory first; only the winner goes on to write the row
+                if (slotCalendar.reserve(doctorId, slot) != SlotCalendar.Reservation.RESERVED) {
+                    sendJsonResponse(exchange, 409, "This slot is already booked");
+                    return;
+                }
+                int appointmentId;
+                try {
+                    appointmentId = storage.appointments().insert(new AppointmentRepository.Appointment(
+                            0, doctorId, patientId, slot.date(), slot.time(), message, disease));
+                } catch (Storage.DuplicateKeyException e) {
+                    // Booked behind our back by another writer; keep the slot marked as taken
+                    sendJsonResponse(exchange, 409, "This slot is already booked");
+                    return;
+                } catch (SQLException e) {
+                    slotCalendar.release(doctorId, slot);
+                    throw e;
+                }
+
+                audit.record(AuditLog.Type.APPOINTMENT, patientId, appointmentId, exchange);
+                bookingStats.appointmentBooked(appointmentId, doctorId, slot.date());
+                sendJsonResponse(exchange, 200, "{\"message\":\"Appointment booked successfully\",\"appointmentId\":" + appointmentId + "}");
+            } catch (SQLException e) {
+                e.printStackTrace();
+                sendJsonResponse(exchange, 500, "Database error");
+            }
+        }
+    }
+
+    // Handler for GET /doctors/slots?doctorId=...&from=yyyy-MM-dd&to=yyyy-MM-dd
+    // (or doctor=...&category=... in place of doctorId). Answered from the slot calendar.
+    static class FreeSlotsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            try {
+                Integer doctorId;
+                if (params.containsKey("doctorId")) {
+                    doctorId = Integer.valueOf(params.get("doctorId"));
+                    if (doctorDirectory.findDoctor(doctorId) == null) {
+                        doctorId = null;
+                    }
+                } else if (params.containsKey("doctor") && params.containsKey("category")) {
+                    doctorId = doctorDirectory.findDoctorId(params.get("doctor"), params.get("category"));
+                } else {
+                    sendJsonResponse(exchange, 400, "doctorId (or doctor and category) parameter is required");
+                    return;
+                }
+                if (doctorId == null) {
+                    sendJsonResponse(exchange, 404, "Doctor not found");
+                    return;
+                }
+
+                java.time.LocalDate from = params.containsKey("from")
+                        ? java.time.LocalDate.parse(params.get("from")) : java.time.LocalDate.now();
+                java.time.LocalDate to = params.containsKey("to") ? java.time.LocalDate.parse(params.get("to")) : from;
+                if (to.isBefore(from) || to.toEpochDay() - from.toEpochDay() >= slotCalendar.maxRangeDays()) {
+                    sendJsonResponse(exchange, 400, "Date range must span 1 to " + slotCalendar.maxRangeDays() + " days");
+                    return;
+                }
+                sendJsonResponse(exchange, 200, slotCalendar.freeSlotsJson(doctorId, from, to));
+            } catch (NumberFormatException | java.time.format.DateTimeParseException e) {
+                sendJsonResponse(exchange, 400, "Invalid doctorId or date");
+            } catch (SQLException e) {
+                e.printStackTrace();
+                sendJsonResponse(exchange, 500, "Database error");
+            }
+        }
+    }
+
+    // Handler for POST /patients/register
+    static class PatientRegisterHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            ApiRequests.RegisterRequest data = ApiRequests.RegisterRequest.read(exchange);
+            if (data.patientName() == null || data.fatherName() == null ||
+                data.cnic() == null || data.email() == null || data.password() == null ||
+                data.phone() == null || data.age() == null ||
+                data.disease() == null) {
+                sendJsonResponse(exchange, 400, "Missing required fields");
+                return;
+            }
+            
+            // Validate that fields are not empty
+            if (data.patientName().trim().isEmpty() || data.fatherName().trim().isEmpty() ||
+                data.cnic().trim().isEmpty() || data.email().trim().isEmpty() ||
+                data.password().trim().isEmpty() || data.phone().trim().isEmpty() ||
+                data.disease().trim().isEmpty()) {
+                sendJsonResponse(exchange, 400, "All fields are required");
+                return;
+            }
+            int age;
+            try {
+                age = Integer.parseInt(data.age());
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+                sendJsonResponse(exchange, 400, "Invalid age format");
+                return;
+            }
+            // Hash on the password pool; the insert and the response follow from there
+            passwords.submit(() -> passwords.hash(data.password())).whenComplete((passwordHash, error) -> {
+                if (error != null) {
+                    sendPasswordPoolFailure(exchange, error);
+                    return;
+                }
+                try {
+                    int patientId = storage.patients().insert(new PatientRepository.Patient(0, data.patientName(),
+                            data.fatherName(), data.cnic(), data.email(), passwordHash, data.phone(), age, data.disease()));
+
+                    patientAges.put(patientId, age);
+                    audit.record(AuditLog.Type.REGISTER, patientId, 0, exchange);
+                    sendJsonResponse(exchange, 200, "{\"patientId\":" + patientId + "}");
+                } catch (SQLException e) {
+                    try {
+                        if (e instanceof Storage.DuplicateKeyException duplicate) {
+                            if ("cnic".equals(duplicate.key())) {
+                                sendJsonResponse(exchange, 400, "CNIC already registered");
+                            } else if ("email".equals(duplicate.key())) {
+                                sendJsonResponse(exchange, 400, "Email already registered");
+                            } else {
+                                sendJsonResponse(exchange, 400, "User already exists");
+                            }
+                        } else {
+                            e.printStackTrace();
+                            sendJsonResponse(exchange, 500, "Database error");
+                        }
+                    } catch (IOException io) {
+                        exchange.close();
+                    }
+                } catch (IOException e) {
+                    exchange.close();
+                }
+            });
+        }
+    }
+
+    // Handler for POST /patients/login
+    static class PatientLoginHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            ApiRequests.LoginRequest data = ApiRequests.LoginRequest.read(exchange);
+            if (data.loginCnic() == null) {
+                sendJsonResponse(exchange, 400, "Missing login credentials");
+                return;
+            }
+            
+            // Validate that field is not empty
+            if (data.loginCnic().trim().isEmpty()) {
+                sendJsonResponse(exchange, 400, "CNIC or phone number is required");
+                return;
+            }
+            // A session is only ever issued for a verified password
+            String password = data.password() != null ? data.password() : "";
+            if (password.isEmpty()) {
+                sendJsonResponse(exchange, 400, "Password is required");
+                return;
+            }
+            // Attempts per account, whichever address they come from (credential stuffing)
+            long wait = loginAttempts.acquire(data.loginCnic().trim());
+            if (wait > 0) {
+                RateLimiter.reject(exchange, wait);
+                return;
+            }
+            try {
+                String loginCnic = data.loginCnic();
+                // Login with CNIC/phone and password: fetch the candidates' hashes, then
+                // verify on the password pool, which also sends the response
+                List<Integer> ids = new ArrayList<>();
+                List<String> hashes = new ArrayList<>();
+                for (PatientRepository.Patient p : storage.patients().findByCnicOrPhone(loginCnic)) {
+                    ids.add(p.id());
+                    hashes.add(p.password());
+                }
+                passwords.submit(() -> {
+                    for (int i = 0; i < hashes.size(); i++) {
+                        if (passwords.matches(password, hashes.get(i))) {
+                            int patientId = ids.get(i);
+                            if (passwords.needsRehash(hashes.get(i))) {
+                                upgradePasswordHash(patientId, hashes.get(i), password);
+                            }
+                            return patientId;
+                        }
+                    }
+                    return null;
+                }).whenComplete((patientId, error) -> {
+                    if (error != null) {
+                        sendPasswordPoolFailure(exchange, error);
+                        return;
+                    }
+                    try {
+                        if (patientId != null) {
+                            startSession(exchange, patientId);
+                        } else {
+                            audit.record(AuditLog.Type.LOGIN_FAILED, -1, 0, exchange);
+                            sendJsonResponse(exchange, 401, "Invalid credentials");
+                        }
+                    } catch (IOException e) {
+                        exchange.close();
+                    }
+                });
+            } catch (SQLException e) {
+                e.printStackTrace();
+                sendJsonResponse(exchange, 500, "Database error");
+            }
+        }
+    }
+
+    // Rewrites a legacy or outdated hash after a successful login. Runs on the password
+    // pool; the WHERE on the old hash leaves a password changed in the meantime alone.
+    private static void upgradePasswordHash(int patientId, String oldHash, String password) {
+        String newHash = passwords.hash(password);
+        try {
+            storage.patients().updatePassword(patientId, oldHash, newHash);
+        } catch (SQLException e) {
+            // The old hash still verifies, so the upgrade is simply retried on the next login
+            e.printStackTrace();
+        }
+    }
+
+    // Answers a request whose password work could not run: 503 when the pool is full
+    private static void sendPasswordPoolFailure(HttpExchange exchange, Throwable error) {
+        try {
+            if (error instanceof java.util.concurrent.RejectedExecutionException) {
+                exchange.getResponseHeaders().set("Retry-After", System.getProperty("easymed.retryAfterSeconds", "1"));
+                sendJsonResponse(exchange, 503, "Server busy, please retry");
+            } else {
+                error.printStackTrace();
+                sendJsonResponse(exchange, 500, "Internal server error");
+            }
+        } catch (IOException e) {
+            exchange.close();
+        }
+    }
+
+    // Issues a session token for a successful login, both in the JSON body (for
+    // Authorization: Bearer) and as an HttpOnly cookie for same-origin pages
+    private static void startSession(HttpExchange exchange, int patientId) throws IOException {
+        String token = sessions.issue(patientId);
+        audit.record(AuditLog.Type.LOGIN, patientId, 0, exchange);
+        exchange.getResponseHeaders().add("Set-Cookie", SessionStore.COOKIE_NAME + "=" + token +
+                "; Path=/; Max-Age=" + sessions.ttlSeconds() + "; HttpOnly; SameSite=Strict");
+        sendJsonResponse(exchange, 200, "{\"patientId\":" + patientId + ",\"token\":\"" + token +
+                "\",\"expiresIn\":" + sessions.ttlSeconds() + "}");
+    }
+
+    // Handler for POST /symptoms/check
+    static class SymptomCheckHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            Integer patientId = sessions.validate(exchange);
+            if (patientId == null) {
+                sendJsonResponse(exchange, 401, "Login required");
+                return;
+            }
+            ApiRequests.SymptomRequest data = ApiRequests.SymptomRequest.read(exchange);
+            if (data.symptoms() == null) {
+                sendJsonResponse(exchange, 400, "Missing required field: symptoms");
+                return;
+            }
+            try {
+                String symptoms = data.symptoms();
+
+                Double weight = data.weight() != null ? Double.valueOf(data.weight()) : null;
+                List<String> medicines = suggestMedicines(symptoms, patientId, weight);
+
+                // Save symptoms and medicines in DB
+                int symptomId = storage.symptoms().insert(
+                        new SymptomRepository.SymptomCheck(0, patientId, symptoms, String.join(", ", medicines)));
+                audit.record(AuditLog.Type.SYMPTOM_CHECK, patientId, 0, exchange);
+                bookingStats.symptomsChecked(symptomId, symptoms, medicines);
+
+                try (JsonWriter json = JsonWriter.forResponse(exchange, 200)) {
+                    json.beginObject().name("medicines").beginArray();
+                    for (String medicine : medicines) {
+                        json.value(medicine);
+                    }
+                    json.endArray().endObject();
+                }
+            } catch (NumberFormatException e) {
+                sendJsonResponse(exchange, 400, "Invalid weight");
+            } catch (SQLException e) {
+                e.printStackTrace();
+                sendJsonResponse(exchange, 500, "Database error");
+            }
+        }
+
+        // Matches the text against the compiled rules using the patient's cached age
+        static List<String> suggestMedicines(String symptoms, int patientId, Double weight) throws SQLException {
+            return medicineRules.suggest(symptoms, patientAges.get(patientId), weight);
+        }
+    }
+
+    // Handler for GET /patients/appointments?limit=&cursor=: the logged-in patient's
+    // appointments, newest first, a page at a time (see PatientHistory)
+    static class AppointmentHistoryHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            sendHistoryPage(exchange, true);
+        }
+    }
+
+    // Handler for GET /patients/symptoms?limit=&cursor=: the logged-in patient's symptom checks
+    static class SymptomHistoryHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            sendHistoryPage(exchange, false);
+        }
+    }
+
+    private static void sendHistoryPage(HttpExchange exchange, boolean appointments) throws IOException {
+        Integer patientId = sessions.validate(exchange);
+        if (patientId == null) {
+            sendJsonResponse(exchange, 401, "Login required");
+            return;
+        }
+        Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+        int limit = PatientHistory.limit(params.get("limit"));
+        String cursor = params.get("cursor");
+        JsonWriter json = JsonWriter.forResponse(exchange, 200);
+        try {
+            if (appointments) {
+                patientHistory.writeAppointments(json, patientId, cursor, limit);
+            } else {
+                patientHistory.writeSymptoms(json, patientId, cursor, limit);
+            }
+            json.close();
+        } catch (PatientHistory.InvalidCursorException e) {
+            json.discard();
+            sendJsonResponse(exchange, 400, e.getMessage());
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if (json.committed()) {
+                // Part of the page is already on the wire. Closing the exchange would end the
+                // chunked body cleanly and pass a truncated page off as complete; failing the
+                // handler makes the server drop the connection mid-chunk instead
+                throw new IOException("Database error after the history page was started", e);
+            } else {
+                json.discard();
+                sendJsonResponse(exchange, 500, "Database error");
+            }
+        }
+    }
+
+    // Handler for GET /admin/db-stats: connection pool wait and query timings and write
+    // batching (row counts with the memory engine), response cache hit ratio and the audit
+    // log writer
+    static class DbStatsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!isAdminRequest(exchange)) {
+                sendJsonResponse(exchange, 403, "Forbidden");
+                return;
+            }
+            // Storage stats with the response cache and audit log stats appended
+            String stats = storage.statsJson();
+            sendJsonResponse(exchange, 200, stats.substring(0, stats.length() - 1) +
+                    ",\"responseCache\":" + responseCache.statsJson() +
+                    ",\"audit\":" + audit.statsJson() + "}");
+        }
+    }
+
+    // Handler for GET /stats: appointment volume per doctor, category and day and the most
+    // common symptom/medicine pairs, kept up to date in memory (see BookingStats)
+    static class StatsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!isAdminRequest(exchange)) {
+                sendJsonResponse(exchange, 403, "Forbidden");
+                return;
+            }
+            try {
+                sendJsonResponse(exchange, 200, bookingStats.json());
+            } catch (SQLException e) {
+                e.printStackTrace();
+                sendJsonResponse(exchange, 500, "Database error");
+            }
+        }
+    }
+
+    // Handler for /admin/backup: GET lists the snapshots and the last run, POST takes a
+    // snapshot now and answers with its report (see BackupService)
+    static class BackupHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!isAdminRequest(exchange)) {
+                sendJsonResponse(exchange, 403, "Forbidden");
+                return;
+            }
+            if (backups == null) {
+                sendJsonResponse(exchange, 409, "Backups need the SQLite storage engine");
+                return;
+            }
+            if ("GET".equals(exchange.getRequestMethod())) {
+                sendJsonResponse(exchange, 200, backups.statusJson());
+                return;
+            }
+            try {
+                sendJsonResponse(exchange, 200, BackupService.toJson(backups.backup()));
+            } catch (IllegalStateException e) {
+                sendJsonResponse(exchange, 409, e.getMessage());
+            } catch (IOException | SQLException e) {
+                e.printStackTrace();
+                sendJsonResponse(exchange, 500, "Backup failed");
+            }
+        }
+    }
+
+    // Handler for POST /admin/doctors/refresh: reloads the in-memory doctor directory
+    static class DoctorRefreshHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!isAdminRequest(exchange)) {
+                sendJsonResponse(exchange, 403, "Forbidden");
+                return;
+            }
+            try {
+                int count = doctorDirectory.refresh();
+                sendJsonResponse(exchange, 200, "{\"doctors\":" + count + "}");
+            } catch (SQLException e) {
+                e.printStackTrace();
+                sendJsonResponse(exchange, 500, "Database error");
+            }
+        }
+    }
+
+    // Handler for POST /admin/rules/reload: recompiles the medicine rules from the table
+    static class RulesReloadHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!isAdminRequest(exchange)) {
+                sendJsonResponse(exchange, 403, "Forbidden");
+                return;
+            }
+            try {
+                int count = medicineRules.reload();
+                sendJsonResponse(exchange, 200, "{\"rules\":" + count + "}");
+            } catch (SQLException e) {
+                e.printStackTrace();
+                sendJsonResponse(exchange, 500, "Database error");
+            }
+        }
+    }
+
+    // Handler for GET /metrics: per-route request counts, latency histograms and database
+    // and response-writing time, in Prometheus text format or with ?format=json as JSON
+    static class MetricsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!isAdminRequest(exchange)) {
+                sendJsonResponse(exchange, 403, "Forbidden");
+                return;
+            }
+            if ("json".equals(parseQuery(exchange.getRequestURI().getRawQuery()).get("format"))) {
+                try (JsonWriter json = JsonWriter.forResponse(exchange, 200)) {
+                    metrics.writeJson(json);
+                }
+                return;
+            }
+            byte[] body = metrics.prometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(body);
+            os.close();
+        }
+    }
+
+    // Handler for /admin/import. POST streams a CSV or NDJSON body through the BulkImporter
+    // (?entity=patients|doctors&format=csv|ndjson, optionally &checkpoint=name&resume=true to
+    // continue an earlier interrupted upload of the same file) and answers with a summary and
+    // the first rejected records; GET reports the progress of the running or last import.
+    // Only one import runs at a time.
+    static class ImportHandler implements HttpHandler {
+        private static final int MAX_REPORTED_REJECTIONS = 100;
+        private static final Object lock = new Object();
+        private static BulkImporter.Progress current;
+        private static boolean running;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!isAdminRequest(exchange)) {
+                sendJsonResponse(exchange, 403, "Forbidden");
+                return;
+            }
+            if (db == null) {
+                sendJsonResponse(exchange, 409, "Imports need the SQLite storage engine");
+                return;
+            }
+            if ("GET".equals(exchange.getRequestMethod())) {
+                BulkImporter.Progress progress;
+                synchronized (lock) {
+                    progress = current;
+                }
+                sendJsonResponse(exchange, 200, progress == null ? "{}" : progress.toJson());
+                return;
+            }
+
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            BulkImporter.Options options;
+            try {
+                String format = params.getOrDefault("format", "csv");
+                int batchSize = Integer.parseInt(params.getOrDefault("batch", String.valueOf(BulkImporter.DEFAULT_BATCH_SIZE)));
+                Path checkpoint = null;
+                String name = params.get("checkpoint");
+                if (name != null) {
+                    if (!name.matches("[A-Za-z0-9_-]{1,64}")) {
+                        sendJsonResponse(exchange, 400, "Invalid checkpoint name");
+                        return;
+                    }
+                    Path dir = Paths.get(System.getProperty("easymed.import.checkpointDir", "."));
+                    Files.createDirectories(dir);
+                    checkpoint = dir.resolve(name + ".checkpoint");
+                }
+                options = new BulkImporter.Options(BulkImporter.Entity.parse(params.getOrDefault("entity", "")),
+                        BulkImporter.Format.parse(format),
+                        Math.max(1, Math.min(batchSize, BulkImporter.MAX_BATCH_SIZE)), checkpoint,
+                        "true".equals(params.get("resume")), "true".equals(params.get("dropIndexes")));
+            } catch (IllegalArgumentException e) {
+                sendJsonResponse(exchange, 400, "Invalid entity, format or batch");
+                return;
+            }
+
+            synchronized (lock) {
+                if (running) {
+                    sendJsonResponse(exchange, 409, "An import is already running");
+                    return;
+                }
+                running = true;
+            }
+            List<BulkImporter.Rejection> rejections = new ArrayList<>();
+            try (PasswordHasher hasher = BulkImporter.importHasher(options.batchSize());
+                 InputStream body = exchange.getRequestBody()) {
+                BulkImporter.Progress progress = new BulkImporter(db, hasher).run(body, options, p -> {
+                    synchronized (lock) {
+                        current = p;
+                    }
+                }, r -> {
+                    if (rejections.size() < MAX_REPORTED_REJECTIONS) {
+                        rejections.add(r);
+                    }
+                });
+                try (JsonWriter json = JsonWriter.forResponse(exchange, 200)) {
+                    json.beginObject();
+                    progress.writeFields(json);
+                    json.name("rejections").beginArray();
+                    for (BulkImporter.Rejection r : rejections) {
+                        json.beginObject().field("record", r.record()).field("reason", r.reason()).endObject();
+                    }
+                    json.endArray().endObject();
+                }
+            } catch (IOException e) {
+                // Unreadable input (no CSV header, an unterminated quote) or a checkpoint
+                // that belongs to another entity
+                sendJsonResponse(exchange, 400, e.getMessage());
+            } catch (SQLException e) {
+                e.printStackTrace();
+                sendJsonResponse(exchange, 500, "Database error");
+            } finally {
+                synchronized (lock) {
+                    running = false;
+                }
+                // Imported rows must show up in the cached doctor list and the age lookup
+                doctorDirectory.invalidate();
+                try {
+                    patientAges.load();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // Decodes a raw query string into a map; the last occurrence of a repeated name wins
+    static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null) {
+            return params;
+        }
+        for (String param : rawQuery.split("&")) {
+            String[] pair = param.split("=", 2);
+            if (pair.length == 2) {
+                params.put(java.net.URLDecoder.decode(pair[0], StandardCharsets.UTF_8),
+                        java.net.URLDecoder.decode(pair[1], StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    // Admin endpoints are open to loopback callers, or to anyone presenting the
+    // X-Admin-Token configured with -Deasymed.adminToken
+    private static boolean isAdminRequest(HttpExchange exchange) {
+        String token = System.getProperty("easymed.adminToken");
+        if (token != null && !token.isEmpty()) {
+            return token.equals(exchange.getRequestHeaders().getFirst("X-Admin-Token"));
+        }
+        return exchange.getRemoteAddress().getAddress().isLoopbackAddress();
+    }
+
+    // Handler for static files
+    static class StaticFileHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            staticAssets.serve(exchange);
+        }
+    }
+}
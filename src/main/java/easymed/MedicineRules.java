@@ -0,0 +1,244 @@
+package easymed;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Symptom keyword -> medicine rules, loaded from the medicine_rules table. Each rule may be
+// limited to an age band and a weight band (inclusive, NULL meaning unbounded); a banded
+// rule never applies when the patient's age or weight is unknown. All keywords are
+// compiled into one Aho-Corasick automaton, so matching is a single pass over the
+// symptom text however many rules there are. reload() builds a new automaton and swaps it
+// in atomically, so rules can be edited in the table and picked up without a restart.
+// Without a database (the memory storage engine) reload() compiles the default rules.
+public class MedicineRules {
+
+    public record Rule(String keyword, String medicine, Integer minAge, Integer maxAge,
+                       Double minWeight, Double maxWeight) {
+
+        boolean applies(Integer age, Double weight) {
+            if ((minAge != null || maxAge != null) && age == null) {
+                return false;
+            }
+            if ((minWeight != null || maxWeight != null) && weight == null) {
+                return false;
+            }
+            return (minAge == null || age >= minAge) && (maxAge == null || age <= maxAge) &&
+                    (minWeight == null || weight >= minWeight) && (maxWeight == null || weight <= maxWeight);
+        }
+    }
+
+    // Seeded into an empty table; the three keywords the handler used to hard-code
+    static final List<Rule> DEFAULT_RULES = List.of(
+            new Rule("fever", "Paracetamol", null, null, null, null),
+            new Rule("cough", "Cough Syrup", null, null, null, null),
+            new Rule("headache", "Ibuprofen", null, null, null, null));
+
+    private final ConnectionManager db;
+    private final String fallback;
+    private final int maxMedicines;
+    private final AtomicReference<Matcher> current = new AtomicReference<>();
+
+    public MedicineRules(ConnectionManager db, String fallback, int maxMedicines) {
+        this.db = db;
+        this.fallback = fallback;
+        this.maxMedicines = maxMedicines;
+    }
+
+    // Builds rules from -Deasymed.rules.fallback (default Multivitamins, added when fewer
+    // than the maximum matched) and -Deasymed.rules.maxMedicines (default 2)
+    public static MedicineRules fromSystemProperties(ConnectionManager db) {
+        return new MedicineRules(db,
+                System.getProperty("easymed.rules.fallback", "Multivitamins"),
+                Integer.getInteger("easymed.rules.maxMedicines", 2));
+    }
+
+    // Creates the medicine_rules table, seeding the default rules if it is empty
+    static void createTable(Statement stmt) throws SQLException {
+        stmt.execute("CREATE TABLE IF NOT EXISTS medicine_rules (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "keyword TEXT NOT NULL," +
+                "medicine TEXT NOT NULL," +
+                "min_age INTEGER," +
+                "max_age INTEGER," +
+                "min_weight REAL," +
+                "max_weight REAL" +
+                ")");
+        try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM medicine_rules")) {
+            if (rs.next() && rs.getInt(1) > 0) {
+                return;
+            }
+        }
+        try (PreparedStatement ps = stmt.getConnection().prepareStatement(
+                "INSERT INTO medicine_rules (keyword, medicine) VALUES (?, ?)")) {
+            for (Rule rule : DEFAULT_RULES) {
+                ps.setString(1, rule.keyword());
+                ps.setString(2, rule.medicine());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    // Reloads the rules table, swaps in a freshly compiled matcher and returns the rule count
+    public int reload() throws SQLException {
+        if (db == null) {
+            use(DEFAULT_RULES);
+            return DEFAULT_RULES.size();
+        }
+        List<Rule> rules = db.read(connection -> {
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT keyword, medicine, min_age, max_age, min_weight, max_weight " +
+                         "FROM medicine_rules ORDER BY id")) {
+                List<Rule> result = new ArrayList<>();
+                while (rs.next()) {
+                    result.add(new Rule(rs.getString("keyword"), rs.getString("medicine"),
+                            rs.getObject("min_age") == null ? null : rs.getInt("min_age"),
+                            rs.getObject("max_age") == null ? null : rs.getInt("max_age"),
+                            rs.getObject("min_weight") == null ? null : rs.getDouble("min_weight"),
+                            rs.getObject("max_weight") == null ? null : rs.getDouble("max_weight")));
+                }
+                return result;
+            }
+        });
+        current.set(new Matcher(rules));
+        return rules.size();
+    }
+
+    // Uses a fixed rule list instead of the table (benchmarks)
+    void use(List<Rule> rules) {
+        current.set(new Matcher(rules));
+    }
+
+    // Medicines for the symptom text, in rule order, without duplicates; padded with the
+    // fallback and capped at maxMedicines like the original hard-coded suggestions
+    public List<String> suggest(String symptoms, Integer age, Double weight) {
+        Matcher matcher = current.get();
+        boolean[] matched = matcher.match(symptoms);
+        Set<String> meds = new LinkedHashSet<>();
+        for (int i = 0; i < matched.length && meds.size() < maxMedicines; i++) {
+            Rule rule = matcher.rules[i];
+            if (matched[i] && rule.applies(age, weight)) {
+                meds.add(rule.medicine());
+            }
+        }
+        if (meds.size() < maxMedicines && fallback != null && !fallback.isEmpty()) {
+            meds.add(fallback);
+        }
+        return new ArrayList<>(meds);
+    }
+
+    // Aho-Corasick automaton over the lower-cased keywords, flattened into a full DFA:
+    // next[state * width + charClass]. Characters that appear in no keyword share class 0.
+    static final class Matcher {
+        final Rule[] rules;
+        private final char[] asciiClass = new char[128];
+        private final Map<Character, Integer> otherClass = new HashMap<>();
+        private final int width;
+        private final int[] next;
+        private final int[][] output;
+
+        Matcher(List<Rule> ruleList) {
+            this.rules = ruleList.toArray(new Rule[0]);
+
+            // Character classes for every character used by a keyword
+            int classes = 1;
+            for (Rule rule : rules) {
+                for (char c : rule.keyword().toLowerCase(Locale.ROOT).toCharArray()) {
+                    if (classOf(c) == 0) {
+                        if (c < 128) {
+                            asciiClass[c] = (char) classes++;
+                        } else {
+                            otherClass.put(c, classes++);
+                        }
+                    }
+                }
+            }
+            this.width = classes;
+
+            // Trie of the keywords
+            List<int[]> trie = new ArrayList<>();
+            List<List<Integer>> out = new ArrayList<>();
+            trie.add(new int[width]);
+            out.add(new ArrayList<>());
+            for (int r = 0; r < rules.length; r++) {
+                String keyword = rules[r].keyword().toLowerCase(Locale.ROOT);
+                if (keyword.isEmpty()) {
+                    continue;
+                }
+                int state = 0;
+                for (int i = 0; i < keyword.length(); i++) {
+                    int cls = classOf(keyword.charAt(i));
+                    if (trie.get(state)[cls] == 0) {
+                        trie.get(state)[cls] = trie.size();
+                        trie.add(new int[width]);
+                        out.add(new ArrayList<>());
+                    }
+                    state = trie.get(state)[cls];
+                }
+                out.get(state).add(r);
+            }
+
+            // Breadth-first failure links, folding them into the transitions as we go
+            int[] fail = new int[trie.size()];
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            for (int cls = 0; cls < width; cls++) {
+                int child = trie.get(0)[cls];
+                if (child != 0) {
+                    queue.add(child);
+                }
+            }
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                out.get(state).addAll(out.get(fail[state]));
+                for (int cls = 0; cls < width; cls++) {
+                    int child = trie.get(state)[cls];
+                    if (child != 0) {
+                        fail[child] = trie.get(fail[state])[cls];
+                        queue.add(child);
+                    } else {
+                        trie.get(state)[cls] = trie.get(fail[state])[cls];
+                    }
+                }
+            }
+
+            this.next = new int[trie.size() * width];
+            this.output = new int[trie.size()][];
+            for (int s = 0; s < trie.size(); s++) {
+                System.arraycopy(trie.get(s), 0, next, s * width, width);
+                output[s] = out.get(s).stream().mapToInt(Integer::intValue).distinct().toArray();
+            }
+        }
+
+        // One pass over the text; result[i] is true when rule i's keyword occurs in it
+        boolean[] match(String text) {
+            boolean[] matched = new boolean[rules.length];
+            int state = 0;
+            for (int i = 0; i < text.length(); i++) {
+                state = next[state * width + classOf(Character.toLowerCase(text.charAt(i)))];
+                for (int r : output[state]) {
+                    matched[r] = true;
+                }
+            }
+            return matched;
+        }
+
+        private int classOf(char c) {
+            if (c < 128) {
+                return asciiClass[c];
+            }
+            Integer cls = otherClass.get(c);
+            return cls == null ? 0 : cls;
+        }
+    }
+}
@@ -0,0 +1,539 @@
+package easymed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Storage engine that keeps every table in concurrent maps and does no disk I/O while the
+// server runs. Each table is a skip list keyed by id, so scans come out in id order like the
+// SQLite tables, with hash indexes beside it for the lookups the handlers make: patients by
+// cnic, email and phone, appointments by (doctor_id, date, time). Unique keys are claimed
+// with putIfAbsent before the row is published, so of two racing inserts with the same key
+// exactly one wins and the other gets a DuplicateKeyException, as it would from SQLite.
+// Each patient's appointments and symptom checks are also kept in skip lists in history
+// order, so a history page is a seek and a short walk, like the covering indexes.
+//
+// At startup the snapshot file is loaded if one is configured and exists; otherwise a SQLite
+// database can be copied in as seed data. close() writes the snapshot back (gzipped, to a
+// temporary file moved into place). Without a snapshot file the data lives only as long as
+// the process, which suits tests and throwaway demo deployments.
+public final class MemoryStorage implements Storage {
+
+    // "EMS1": the snapshot format version
+    private static final int MAGIC = 0x454d5331;
+
+    private final Path snapshot;
+    private final Doctors doctors = new Doctors();
+    private final Patients patients = new Patients();
+    private final Appointments appointments = new Appointments();
+    private final Symptoms symptoms = new Symptoms();
+    private volatile boolean closed;
+
+    // An empty store; snapshot may be null to keep nothing on close()
+    public MemoryStorage(Path snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    // Builds the store from -Deasymed.storage.snapshot (a file loaded at startup if it exists
+    // and written on close; none by default) and -Deasymed.storage.seed (a SQLite database
+    // copied in when there is no snapshot to load)
+    public static MemoryStorage fromSystemProperties() throws SQLException, IOException {
+        String snapshot = System.getProperty("easymed.storage.snapshot");
+        MemoryStorage storage = new MemoryStorage(snapshot == null || snapshot.isEmpty() ? null : Paths.get(snapshot));
+        String seed = System.getProperty("easymed.storage.seed");
+        if (!storage.load() && seed != null && !seed.isEmpty()) {
+            storage.seed(Paths.get(seed));
+        }
+        return storage;
+    }
+
+    @Override
+    public DoctorRepository doctors() {
+        return doctors;
+    }
+
+    @Override
+    public PatientRepository patients() {
+        return patients;
+    }
+
+    @Override
+    public AppointmentRepository appointments() {
+        return appointments;
+    }
+
+    @Override
+    public SymptomRepository symptoms() {
+        return symptoms;
+    }
+
+    @Override
+    public Path file() {
+        return snapshot;
+    }
+
+    // Row counts; size() walks each skip list, which is fine for an admin endpoint
+    @Override
+    public String statsJson() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try (JsonWriter json = new JsonWriter(out)) {
+            json.beginObject()
+                    .field("engine", "memory")
+                    .field("doctors", doctors.rows.size())
+                    .field("patients", patients.rows.size())
+                    .field("appointments", appointments.rows.size())
+                    .field("symptoms", symptoms.rows.size())
+                    .field("snapshot", snapshot == null ? null : snapshot.toString())
+                    .endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    // Writes the snapshot, if there is one; later calls do nothing
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (snapshot != null) {
+            try {
+                save();
+            } catch (IOException e) {
+                System.err.println("Could not write the storage snapshot: " + e.getMessage());
+            }
+        }
+    }
+
+    // Copies every row of another store in, keeping ids; rows whose unique key is already
+    // taken (duplicate slots in older SQLite files) are skipped. Returns the rows copied.
+    public long copyFrom(Storage source) throws SQLException {
+        long[] rows = new long[2];
+        Consumer<Restorable> restore = row -> {
+            try {
+                row.restore();
+                rows[0]++;
+            } catch (DuplicateKeyException e) {
+                rows[1]++;
+            }
+        };
+        for (DoctorDirectory.Doctor d : source.doctors().findAll()) {
+            restore.accept(() -> doctors.restore(d));
+        }
+        source.patients().forEach(p -> restore.accept(() -> patients.restore(p)));
+        source.appointments().forEach(0, a -> restore.accept(() -> appointments.restore(a)));
+        source.symptoms().forEach(0, s -> restore.accept(() -> symptoms.restore(s)));
+        if (rows[1] > 0) {
+            System.err.println("Memory storage: skipped " + rows[1] + " rows with duplicate keys");
+        }
+        return rows[0];
+    }
+
+    private interface Restorable {
+        void restore() throws DuplicateKeyException;
+    }
+
+    // Copies a SQLite database in through the SQLite engine. Only reads run, so it gets no
+    // WriteBatcher; opening the writer still switches the file to WAL, as the server would.
+    private void seed(Path database) throws SQLException {
+        long start = System.nanoTime();
+        ConnectionManager db = new ConnectionManager(database.toString(), 1, 5000, 8);
+        try {
+            long rows = copyFrom(new SqliteStorage(db, null, database));
+            System.out.println("Memory storage: seeded " + rows + " rows from " + database + " in " +
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        } finally {
+            db.close();
+        }
+    }
+
+    // Snapshot layout, in a gzip stream: MAGIC, then each table (doctors, patients,
+    // appointments, symptoms) as rows each preceded by true and the table ended by false.
+    // Strings are a byte length (-1 for null) and UTF-8.
+    private boolean load() throws IOException {
+        if (snapshot == null || !Files.exists(snapshot)) {
+            return false;
+        }
+        long start = System.nanoTime();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(snapshot), 1 << 16)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(snapshot + " is not a storage snapshot");
+            }
+            while (in.readBoolean()) {
+                doctors.restore(new DoctorDirectory.Doctor(in.readInt(), readString(in), readString(in),
+                        in.readInt(), readString(in)));
+            }
+            while (in.readBoolean()) {
+                patients.restore(new PatientRepository.Patient(in.readInt(), readString(in), readString(in),
+                        readString(in), readString(in), readString(in), readString(in), in.readInt(), readString(in)));
+            }
+            while (in.readBoolean()) {
+                appointments.restore(new AppointmentRepository.Appointment(in.readInt(), in.readInt(), in.readInt(),
+                        readString(in), readString(in), readString(in), readString(in)));
+            }
+            while (in.readBoolean()) {
+                symptoms.restore(new SymptomRepository.SymptomCheck(in.readInt(), in.readInt(),
+                        readString(in), readString(in)));
+            }
+        } catch (DuplicateKeyException e) {
+            throw new IOException(snapshot + " holds duplicate keys", e);
+        }
+        System.out.println("Memory storage: loaded " + snapshot + " in " +
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        return true;
+    }
+
+    // Rows inserted while the snapshot is written may or may not be in it; each row that is
+    // in it is complete
+    private void save() throws IOException {
+        Path target = snapshot.toAbsolutePath();
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(tmp), 1 << 16)))) {
+            out.writeInt(MAGIC);
+            for (DoctorDirectory.Doctor d : doctors.rows.values()) {
+                out.writeBoolean(true);
+                out.writeInt(d.id());
+                writeString(out, d.name());
+                writeString(out, d.category());
+                out.writeInt(d.experience());
+                writeString(out, d.phone());
+            }
+            out.writeBoolean(false);
+            for (PatientRepository.Patient p : patients.rows.values()) {
+                out.writeBoolean(true);
+                out.writeInt(p.id());
+                writeString(out, p.patientName());
+                writeString(out, p.fatherName());
+                writeString(out, p.cnic());
+                writeString(out, p.email());
+                writeString(out, p.password());
+                writeString(out, p.phone());
+                out.writeInt(p.age());
+                writeString(out, p.disease());
+            }
+            out.writeBoolean(false);
+            for (AppointmentRepository.Appointment a : appointments.rows.values()) {
+                out.writeBoolean(true);
+                out.writeInt(a.id());
+                out.writeInt(a.doctorId());
+                out.writeInt(a.patientId());
+                writeString(out, a.date());
+                writeString(out, a.time());
+                writeString(out, a.message());
+                writeString(out, a.disease());
+            }
+            out.writeBoolean(false);
+            for (SymptomRepository.SymptomCheck s : symptoms.rows.values()) {
+                out.writeBoolean(true);
+                out.writeInt(s.id());
+                out.writeInt(s.patientId());
+                writeString(out, s.symptoms());
+                writeString(out, s.medicines());
+            }
+            out.writeBoolean(false);
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Ids continue after the highest one ever stored, like AUTOINCREMENT; an insert refused
+    // for a duplicate key still uses up its id
+    private static int nextId(AtomicInteger lastId) {
+        return lastId.incrementAndGet();
+    }
+
+    private static void sawId(AtomicInteger lastId, int id) {
+        lastId.accumulateAndGet(id, Math::max);
+    }
+
+    private static final class Doctors implements DoctorRepository {
+        final ConcurrentSkipListMap<Integer, DoctorDirectory.Doctor> rows = new ConcurrentSkipListMap<>();
+        final AtomicInteger lastId = new AtomicInteger();
+
+        @Override
+        public List<DoctorDirectory.Doctor> findAll() {
+            return new ArrayList<>(rows.values());
+        }
+
+        @Override
+        public int insert(DoctorDirectory.Doctor doctor) {
+            int id = nextId(lastId);
+            rows.put(id, new DoctorDirectory.Doctor(id, doctor.name(), doctor.category(), doctor.experience(),
+                    doctor.phone()));
+            return id;
+        }
+
+        void restore(DoctorDirectory.Doctor doctor) {
+            rows.put(doctor.id(), doctor);
+            sawId(lastId, doctor.id());
+        }
+    }
+
+    private static final class Patients implements PatientRepository {
+        final ConcurrentSkipListMap<Integer, Patient> rows = new ConcurrentSkipListMap<>();
+        final AtomicInteger lastId = new AtomicInteger();
+        private final ConcurrentHashMap<String, Integer> byCnic = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, Integer> byEmail = new ConcurrentHashMap<>();
+        // Phone numbers are not unique: every id registered with one, ascending
+        private final ConcurrentHashMap<String, int[]> byPhone = new ConcurrentHashMap<>();
+        private static final int[] NO_IDS = new int[0];
+
+        @Override
+        public int insert(Patient patient) throws DuplicateKeyException {
+            int id = nextId(lastId);
+            add(new Patient(id, patient.patientName(), patient.fatherName(), patient.cnic(), patient.email(),
+                    patient.password(), patient.phone(), patient.age(), patient.disease()));
+            return id;
+        }
+
+        void restore(Patient patient) throws DuplicateKeyException {
+            add(patient);
+            sawId(lastId, patient.id());
+        }
+
+        // Claims cnic, then email, and publishes the row only once both are held
+        private void add(Patient patient) throws DuplicateKeyException {
+            if (byCnic.putIfAbsent(patient.cnic(), patient.id()) != null) {
+                throw new DuplicateKeyException("cnic", null);
+            }
+            if (byEmail.putIfAbsent(patient.email(), patient.id()) != null) {
+                byCnic.remove(patient.cnic(), patient.id());
+                throw new DuplicateKeyException("email", null);
+            }
+            rows.put(patient.id(), patient);
+            byPhone.merge(patient.phone(), new int[] {patient.id()}, (ids, added) -> {
+                int[] merged = Arrays.copyOf(ids, ids.length + 1);
+                merged[ids.length] = added[0];
+                Arrays.sort(merged);
+                return merged;
+            });
+        }
+
+        @Override
+        public Patient findById(int id) {
+            return rows.get(id);
+        }
+
+        @Override
+        public List<Patient> findByCnicOrPhone(String login) {
+            TreeSet<Integer> ids = new TreeSet<>();
+            Integer byCnicId = byCnic.get(login);
+            if (byCnicId != null) {
+                ids.add(byCnicId);
+            }
+            for (int id : byPhone.getOrDefault(login, NO_IDS)) {
+                ids.add(id);
+            }
+            List<Patient> result = new ArrayList<>(ids.size());
+            for (int id : ids) {
+                // Index entries are claimed before the row is published; skip one not there yet
+                Patient p = rows.get(id);
+                if (p != null) {
+                    result.add(p);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public boolean updatePassword(int id, String oldHash, String newHash) {
+            while (true) {
+                Patient p = rows.get(id);
+                if (p == null || !p.password().equals(oldHash)) {
+                    return false;
+                }
+                Patient updated = new Patient(p.id(), p.patientName(), p.fatherName(), p.cnic(), p.email(),
+                        newHash, p.phone(), p.age(), p.disease());
+                if (rows.replace(id, p, updated)) {
+                    return true;
+                }
+            }
+        }
+
+        @Override
+        public void forEach(Consumer<Patient> action) {
+            rows.values().forEach(action);
+        }
+    }
+
+    private record SlotKey(int doctorId, String date, String time) {
+        // The default record hash (31 * h + ...) collides badly for sequential doctor ids and
+        // dates a day apart, turning busy buckets into trees; spread each part first
+        @Override
+        public int hashCode() {
+            int h = doctorId * 0x9e3779b9 + date.hashCode() * 0x85ebca6b + time.hashCode();
+            return h ^ (h >>> 16);
+        }
+    }
+
+    private static final class Appointments implements AppointmentRepository {
+        // date, time, id descending: the order of a history page
+        private static final Comparator<Appointment> NEWEST_FIRST = Comparator
+                .comparing(Appointment::date)
+                .thenComparing(Appointment::time)
+                .thenComparingInt(Appointment::id)
+                .reversed();
+
+        final ConcurrentSkipListMap<Integer, Appointment> rows = new ConcurrentSkipListMap<>();
+        final AtomicInteger lastId = new AtomicInteger();
+        private final ConcurrentHashMap<SlotKey, Integer> bySlot = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<Integer, ConcurrentSkipListSet<Appointment>> byPatient = new ConcurrentHashMap<>();
+
+        @Override
+        public int insert(Appointment appointment) throws DuplicateKeyException {
+            int id = nextId(lastId);
+            add(new Appointment(id, appointment.doctorId(), appointment.patientId(), appointment.date(),
+                    appointment.time(), appointment.message(), appointment.disease()));
+            return id;
+        }
+
+        void restore(Appointment appointment) throws DuplicateKeyException {
+            add(appointment);
+            sawId(lastId, appointment.id());
+        }
+
+        private void add(Appointment appointment) throws DuplicateKeyException {
+            SlotKey slot = new SlotKey(appointment.doctorId(), appointment.date(), appointment.time());
+            if (bySlot.putIfAbsent(slot, appointment.id()) != null) {
+                throw new DuplicateKeyException("doctor_id, date, time", null);
+            }
+            rows.put(appointment.id(), appointment);
+            byPatient.computeIfAbsent(appointment.patientId(), k -> new ConcurrentSkipListSet<>(NEWEST_FIRST))
+                    .add(appointment);
+        }
+
+        @Override
+        public int findByPatient(int patientId, String afterDate, String afterTime, int afterId, int limit,
+                                 RowVisitor<Appointment> visitor) throws IOException {
+            NavigableSet<Appointment> history = byPatient.get(patientId);
+            if (history == null) {
+                return 0;
+            }
+            if (afterDate != null) {
+                history = history.tailSet(new Appointment(afterId, 0, patientId, afterDate, afterTime, null, null), false);
+            }
+            return page(history, limit, visitor);
+        }
+
+        @Override
+        public void forEach(long afterId, Consumer<Appointment> action) {
+            rows.tailMap((int) Math.min(afterId, Integer.MAX_VALUE), false).values().forEach(action);
+        }
+
+        @Override
+        public boolean exists(long id) {
+            return id <= Integer.MAX_VALUE && rows.containsKey((int) id);
+        }
+    }
+
+    private static final class Symptoms implements SymptomRepository {
+        final ConcurrentSkipListMap<Integer, SymptomCheck> rows = new ConcurrentSkipListMap<>();
+        final AtomicInteger lastId = new AtomicInteger();
+        // Per patient, id descending
+        private final ConcurrentHashMap<Integer, ConcurrentSkipListMap<Integer, SymptomCheck>> byPatient =
+                new ConcurrentHashMap<>();
+
+        @Override
+        public int insert(SymptomCheck check) {
+            int id = nextId(lastId);
+            add(new SymptomCheck(id, check.patientId(), check.symptoms(), check.medicines()));
+            return id;
+        }
+
+        void restore(SymptomCheck check) {
+            add(check);
+            sawId(lastId, check.id());
+        }
+
+        private void add(SymptomCheck check) {
+            rows.put(check.id(), check);
+            byPatient.computeIfAbsent(check.patientId(), k -> new ConcurrentSkipListMap<>(Comparator.reverseOrder()))
+                    .put(check.id(), check);
+        }
+
+        @Override
+        public int findByPatient(int patientId, int beforeId, int limit, RowVisitor<SymptomCheck> visitor)
+                throws IOException {
+            NavigableMap<Integer, SymptomCheck> history = byPatient.get(patientId);
+            if (history == null) {
+                return 0;
+            }
+            if (beforeId != 0) {
+                history = history.tailMap(beforeId, false);
+            }
+            return page(history.values(), limit, visitor);
+        }
+
+        @Override
+        public void forEach(long afterId, Consumer<SymptomCheck> action) {
+            rows.tailMap((int) Math.min(afterId, Integer.MAX_VALUE), false).values().forEach(action);
+        }
+
+        @Override
+        public boolean exists(long id) {
+            return id <= Integer.MAX_VALUE && rows.containsKey((int) id);
+        }
+    }
+
+    // The skip lists iterate lazily, so only the rows visited are touched
+    private static <T> int page(Collection<T> rows, int limit, RowVisitor<T> visitor) throws IOException {
+        int visited = 0;
+        for (T row : rows) {
+            if (visited == limit) {
+                break;
+            }
+            visitor.visit(row);
+            visited++;
+        }
+        return visited;
+    }
+}
@@ -0,0 +1,364 @@
+package easymed;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Per-route request metrics. Every context gets a filter from filter(route) that counts
+// requests by status code and records their latency in a log-linear histogram (HDR
+// style: 16 linear sub-buckets per power of two of microseconds, so any recorded value is
+// known to within 6.25%). All counters are LongAdders or atomic arrays, so recording
+// never takes a lock. Alongside total latency each route accumulates the time its
+// requests spent in the database (pool wait included, reported by ConnectionManager and
+// WriteBatcher on the request thread) and writing the response body.
+//
+// The latency clock stops when the response body is closed, which also covers handlers
+// that answer asynchronously from the password pool.
+public class Metrics {
+
+    // Prometheus histogram bucket bounds in seconds, as printed in the le label
+    private static final String[] EXPORT_BUCKETS =
+            {"0.0001", "0.00025", "0.0005", "0.001", "0.0025", "0.005", "0.01", "0.025", "0.05", "0.1",
+             "0.25", "0.5", "1", "2.5", "5", "10"};
+
+    // The request being handled on this thread, for the database timing hooks
+    private static final ThreadLocal<Request> CURRENT = new ThreadLocal<>();
+
+    private final long startMillis = System.currentTimeMillis();
+    private final Map<String, Route> routes = new ConcurrentSkipListMap<>();
+
+    // Filter recording every exchange of one route (a context path, so label cardinality
+    // stays fixed however many distinct URLs clients send)
+    public Filter filter(String route) {
+        Route r = routes.computeIfAbsent(route, Route::new);
+        return new Filter() {
+            @Override
+            public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+                Request request = new Request(r, exchange);
+                exchange.setStreams(null, new TimedOutputStream(exchange.getResponseBody(), request));
+                Request outer = CURRENT.get();
+                CURRENT.set(request);
+                try {
+                    chain.doFilter(exchange);
+                } catch (IOException | RuntimeException e) {
+                    r.exceptions.increment();
+                    request.finish(500);
+                    throw e;
+                } finally {
+                    CURRENT.set(outer);
+                    // Synchronous responses are complete by now; asynchronous ones finish
+                    // when their body is closed
+                    if (exchange.getResponseCode() != -1) {
+                        request.finish(exchange.getResponseCode());
+                    }
+                }
+            }
+
+            @Override
+            public String description() {
+                return "Records request metrics for " + route;
+            }
+        };
+    }
+
+    // Adds database time to the request running on this thread, if any
+    static void addDbNanos(long nanos) {
+        Request request = CURRENT.get();
+        if (request != null) {
+            request.dbNanos += nanos;
+        }
+    }
+
+    // Prometheus text exposition format, version 0.0.4
+    public String prometheus() {
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("# HELP easymed_http_requests_total Requests handled, by route and status code.\n");
+        sb.append("# TYPE easymed_http_requests_total counter\n");
+        for (Route r : routes.values()) {
+            for (Map.Entry<Integer, Long> status : r.statusCounts().entrySet()) {
+                sb.append("easymed_http_requests_total{route=\"").append(r.name).append("\",status=\"")
+                        .append(status.getKey()).append("\"} ").append(status.getValue()).append('\n');
+            }
+        }
+        sb.append("# HELP easymed_http_exceptions_total Requests whose handler threw.\n");
+        sb.append("# TYPE easymed_http_exceptions_total counter\n");
+        for (Route r : routes.values()) {
+            sb.append("easymed_http_exceptions_total{route=\"").append(r.name).append("\"} ")
+                    .append(r.exceptions.sum()).append('\n');
+        }
+        sb.append("# HELP easymed_http_request_duration_seconds Time from handler entry to the end of the response.\n");
+        sb.append("# TYPE easymed_http_request_duration_seconds histogram\n");
+        for (Route r : routes.values()) {
+            Histogram h = r.latency;
+            long[] snapshot = h.snapshot();
+            for (String le : EXPORT_BUCKETS) {
+                long micros = Math.round(Double.parseDouble(le) * 1_000_000);
+                sb.append("easymed_http_request_duration_seconds_bucket{route=\"").append(r.name).append("\",le=\"")
+                        .append(le).append("\"} ").append(Histogram.countAtOrBelow(snapshot, micros)).append('\n');
+            }
+            long count = Histogram.total(snapshot);
+            sb.append("easymed_http_request_duration_seconds_bucket{route=\"").append(r.name).append("\",le=\"+Inf\"} ")
+                    .append(count).append('\n');
+            sb.append("easymed_http_request_duration_seconds_sum{route=\"").append(r.name).append("\"} ")
+                    .append(h.sumNanos.sum() / 1e9).append('\n');
+            sb.append("easymed_http_request_duration_seconds_count{route=\"").append(r.name).append("\"} ")
+                    .append(count).append('\n');
+        }
+        sb.append("# HELP easymed_http_db_seconds_total Time requests spent waiting for and running SQLite work.\n");
+        sb.append("# TYPE easymed_http_db_seconds_total counter\n");
+        for (Route r : routes.values()) {
+            sb.append("easymed_http_db_seconds_total{route=\"").append(r.name).append("\"} ")
+                    .append(r.dbNanos.sum() / 1e9).append('\n');
+        }
+        sb.append("# HELP easymed_http_write_seconds_total Time requests spent writing response bodies.\n");
+        sb.append("# TYPE easymed_http_write_seconds_total counter\n");
+        for (Route r : routes.values()) {
+            sb.append("easymed_http_write_seconds_total{route=\"").append(r.name).append("\"} ")
+                    .append(r.writeNanos.sum() / 1e9).append('\n');
+        }
+        sb.append("# HELP easymed_uptime_seconds Seconds since the metrics registry was created.\n");
+        sb.append("# TYPE easymed_uptime_seconds gauge\n");
+        sb.append("easymed_uptime_seconds ").append((System.currentTimeMillis() - startMillis) / 1000).append('\n');
+        return sb.toString();
+    }
+
+    // {"uptimeSeconds":..,"routes":{"/doctors":{"requests","exceptions","statuses":{..},
+    //  "latencyMicros":{"mean","p50","p90","p99","p999","max"},"dbMicros","writeMicros"}}}
+    public void writeJson(JsonWriter json) throws IOException {
+        json.beginObject()
+                .field("uptimeSeconds", (System.currentTimeMillis() - startMillis) / 1000)
+                .name("routes").beginObject();
+        for (Route r : routes.values()) {
+            long[] snapshot = r.latency.snapshot();
+            long count = Histogram.total(snapshot);
+            long max = r.latency.maxNanos.get() / 1000;
+            json.name(r.name).beginObject()
+                    .field("requests", count)
+                    .field("exceptions", r.exceptions.sum())
+                    .name("statuses").beginObject();
+            for (Map.Entry<Integer, Long> status : r.statusCounts().entrySet()) {
+                json.field(String.valueOf(status.getKey()), status.getValue());
+            }
+            json.endObject()
+                    .name("latencyMicros").beginObject()
+                    .field("mean", count == 0 ? 0 : r.latency.sumNanos.sum() / count / 1000)
+                    .field("p50", Math.min(max, Histogram.percentile(snapshot, 0.50)))
+                    .field("p90", Math.min(max, Histogram.percentile(snapshot, 0.90)))
+                    .field("p99", Math.min(max, Histogram.percentile(snapshot, 0.99)))
+                    .field("p999", Math.min(max, Histogram.percentile(snapshot, 0.999)))
+                    .field("max", max)
+                    .endObject()
+                    .field("dbMicros", r.dbNanos.sum() / 1000)
+                    .field("writeMicros", r.writeNanos.sum() / 1000)
+                    .endObject();
+        }
+        json.endObject().endObject();
+    }
+
+    static final class Route {
+        final String name;
+        // Indexed by status code - 100; counters are created on first use
+        final AtomicReferenceArray<LongAdder> statuses = new AtomicReferenceArray<>(500);
+        final LongAdder exceptions = new LongAdder();
+        final LongAdder dbNanos = new LongAdder();
+        final LongAdder writeNanos = new LongAdder();
+        final Histogram latency = new Histogram();
+
+        Route(String name) {
+            this.name = name;
+        }
+
+        void record(int status, long latencyNanos, long db, long write) {
+            // Anything outside 1xx-5xx is counted as a server error
+            int slot = (status < 100 || status > 599 ? 500 : status) - 100;
+            LongAdder counter = statuses.get(slot);
+            if (counter == null) {
+                statuses.compareAndSet(slot, null, new LongAdder());
+                counter = statuses.get(slot);
+            }
+            counter.increment();
+            latency.record(latencyNanos);
+            if (db != 0) {
+                dbNanos.add(db);
+            }
+            if (write != 0) {
+                writeNanos.add(write);
+            }
+        }
+
+        // Status code -> requests, in code order
+        Map<Integer, Long> statusCounts() {
+            Map<Integer, Long> counts = new TreeMap<>();
+            for (int i = 0; i < statuses.length(); i++) {
+                LongAdder counter = statuses.get(i);
+                if (counter != null) {
+                    counts.put(i + 100, counter.sum());
+                }
+            }
+            return counts;
+        }
+    }
+
+    // One exchange in flight; recorded exactly once, by whichever of the filter and the
+    // body stream sees it finish first
+    static final class Request {
+        final Route route;
+        final HttpExchange exchange;
+        final long startNanos = System.nanoTime();
+        private static final AtomicIntegerFieldUpdater<Request> DONE =
+                AtomicIntegerFieldUpdater.newUpdater(Request.class, "done");
+        private volatile int done;
+        long dbNanos;
+        long writeNanos;
+
+        Request(Route route, HttpExchange exchange) {
+            this.route = route;
+            this.exchange = exchange;
+        }
+
+        void finish(int status) {
+            if (DONE.compareAndSet(this, 0, 1)) {
+                route.record(status, System.nanoTime() - startNanos, dbNanos, writeNanos);
+            }
+        }
+    }
+
+    // Times body writes and finishes the request when the body is closed
+    private static final class TimedOutputStream extends FilterOutputStream {
+        private final Request request;
+
+        TimedOutputStream(OutputStream out, Request request) {
+            super(out);
+            this.request = request;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            long start = System.nanoTime();
+            out.write(b);
+            request.writeNanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            out.write(b, off, len);
+            request.writeNanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            long start = System.nanoTime();
+            out.flush();
+            request.writeNanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public void close() throws IOException {
+            long start = System.nanoTime();
+            try {
+                out.close();
+            } finally {
+                request.writeNanos += System.nanoTime() - start;
+                int status = request.exchange.getResponseCode();
+                request.finish(status == -1 ? 500 : status);
+            }
+        }
+    }
+
+    // Log-linear histogram of microseconds: values below 16 get a bucket each, above that
+    // every power of two is split into 16 equal sub-buckets, up to 2^36 us (about 19 hours)
+    static final class Histogram {
+        static final int SUB_BITS = 4;
+        static final int SUB_COUNT = 1 << SUB_BITS;
+        static final int MAX_EXPONENT = 36;
+        static final int BUCKETS = SUB_COUNT + (MAX_EXPONENT - SUB_BITS) * SUB_COUNT;
+
+        final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        final LongAdder sumNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            counts.incrementAndGet(index(nanos / 1000));
+            sumNanos.add(nanos);
+            if (nanos > maxNanos.get()) {
+                maxNanos.accumulateAndGet(nanos, Math::max);
+            }
+        }
+
+        long[] snapshot() {
+            long[] copy = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] = counts.get(i);
+            }
+            return copy;
+        }
+
+        static int index(long micros) {
+            if (micros < SUB_COUNT) {
+                return (int) Math.max(0, micros);
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(micros);
+            if (exponent >= MAX_EXPONENT) {
+                return BUCKETS - 1;
+            }
+            int sub = (int) (micros >>> (exponent - SUB_BITS)) - SUB_COUNT;
+            return SUB_COUNT + (exponent - SUB_BITS) * SUB_COUNT + sub;
+        }
+
+        // Smallest value (in us) that no longer falls into the bucket
+        static long upperBound(int index) {
+            if (index < SUB_COUNT) {
+                return index + 1;
+            }
+            int exponent = SUB_BITS + (index - SUB_COUNT) / SUB_COUNT;
+            int sub = (index - SUB_COUNT) % SUB_COUNT;
+            return (long) (SUB_COUNT + sub + 1) << (exponent - SUB_BITS);
+        }
+
+        static long total(long[] snapshot) {
+            long n = 0;
+            for (long c : snapshot) {
+                n += c;
+            }
+            return n;
+        }
+
+        // Requests whose bucket lies entirely at or below the bound; where a bound cuts
+        // a bucket in two the whole bucket counts as above it
+        static long countAtOrBelow(long[] snapshot, long micros) {
+            long n = 0;
+            for (int i = 0; i < snapshot.length && upperBound(i) <= micros + 1; i++) {
+                n += snapshot[i];
+            }
+            return n;
+        }
+
+        // Upper end (in us) of the bucket holding the q-th quantile, 0 when empty
+        static long percentile(long[] snapshot, double q) {
+            long count = total(snapshot);
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(q * count);
+            long seen = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return upperBound(i) - 1;
+                }
+            }
+            return upperBound(snapshot.length - 1) - 1;
+        }
+    }
+}
@@ -0,0 +1,1138 @@
+package easymed;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpPrincipal;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Selector-based HTTP/1.1 front end, an alternative to com.sun.net.httpserver.HttpServer
+// chosen with -Deasymed.server=nio. It runs the same HttpHandler (the Router) on the same
+// executors, handing each request over as an HttpExchange, so handlers and filters cannot
+// tell the two servers apart.
+//
+// Acceptor threads take connections off the listening socket and deal them out to selector
+// threads, which do all reading and parsing. A connection holds no buffer while it is idle:
+// a pooled direct buffer is borrowed when bytes arrive and handed back once they have been
+// consumed, so an idle keep-alive connection costs its socket and one small object.
+// Requests on a connection run one at a time, in order. Pipelined requests wait in the read
+// buffer and the next one is dispatched as soon as the previous response has been queued,
+// so their responses go out back to back. A response is encoded straight into pooled direct
+// buffers on the handler's thread, which also makes the socket write itself; the selector
+// only steps in when the socket is full. Connections idle (or stalled mid-request) past the
+// idle timeout are closed.
+//
+// Request bodies up to ApiRequests.MAX_BODY_BYTES are read in full before the handler runs.
+// Larger ones (imports) are streamed to it, and the socket is paused whenever the handler
+// falls behind. Chunked request bodies are answered with 411.
+public final class NioHttpServer {
+
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    // Room kept in front of each response chunk for its size line: four hex digits and CRLF
+    private static final int CHUNK_HEADER_BYTES = 6;
+    // Response buffers a handler may queue on a slow connection before it has to wait
+    private static final int MAX_QUEUED_BUFFERS = 4;
+    // Body chunks read ahead of a handler consuming a streamed request body
+    private static final int MAX_STREAMED_CHUNKS = 8;
+
+    // -Deasymed.server.backlog (shared with the JDK server), -Deasymed.nio.acceptors (1),
+    // -Deasymed.nio.selectors (one per two cores), -Deasymed.nio.idleTimeoutSeconds (30, as
+    // the JDK server), -Deasymed.nio.bufferBytes (16384, which also caps the request head)
+    // and -Deasymed.nio.maxPooledBuffers (1024)
+    public record Config(int backlog, int acceptors, int selectors, long idleTimeoutMillis, int bufferBytes,
+                         int maxPooledBuffers) {
+
+        public static Config fromSystemProperties() {
+            int cores = Runtime.getRuntime().availableProcessors();
+            return new Config(MedicalServer.backlog(),
+                    Integer.getInteger("easymed.nio.acceptors", 1),
+                    Integer.getInteger("easymed.nio.selectors", Math.max(1, cores / 2)),
+                    TimeUnit.SECONDS.toMillis(Long.getLong("easymed.nio.idleTimeoutSeconds", 30L)),
+                    Integer.getInteger("easymed.nio.bufferBytes", 16 * 1024),
+                    Integer.getInteger("easymed.nio.maxPooledBuffers", 1024));
+        }
+    }
+
+    private record CachedDate(long second, String value) {
+    }
+
+    private static volatile CachedDate date = new CachedDate(-1, "");
+
+    private final HttpHandler handler;
+    private final Executor executor;
+    private final long idleTimeoutNanos;
+    private final int bufferBytes;
+    private final ServerSocketChannel server;
+    private final BufferPool pool;
+    private final Loop[] loops;
+    private final Thread[] acceptors;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private volatile boolean stopped;
+
+    // Binds straight away; a null executor runs handlers on the selector threads
+    public NioHttpServer(InetSocketAddress address, HttpHandler handler, Executor executor, Config config)
+            throws IOException {
+        this.handler = handler;
+        this.executor = executor;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.idleTimeoutMillis());
+        // Chunk sizes are written as four hex digits
+        this.bufferBytes = Math.max(1024, Math.min(config.bufferBytes(), 0xFFFF));
+        this.pool = new BufferPool(bufferBytes, config.maxPooledBuffers());
+        this.server = ServerSocketChannel.open();
+        server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        server.bind(address, config.backlog());
+        this.loops = new Loop[Math.max(1, config.selectors())];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new Loop(i);
+        }
+        this.acceptors = new Thread[Math.max(1, config.acceptors())];
+        for (int i = 0; i < acceptors.length; i++) {
+            acceptors[i] = new Thread(this::acceptLoop, "nio-acceptor-" + i);
+        }
+    }
+
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) server.socket().getLocalSocketAddress();
+    }
+
+    public void start() {
+        for (Loop loop : loops) {
+            loop.thread.start();
+        }
+        for (Thread acceptor : acceptors) {
+            acceptor.start();
+        }
+    }
+
+    // Stops accepting and closes every connection, whether or not a request is in flight
+    public void stop() {
+        stopped = true;
+        try {
+            server.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+        for (Loop loop : loops) {
+            loop.selector.wakeup();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!stopped) {
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                // Typically out of file descriptors; back off instead of spinning
+                System.err.println("Accept failed: " + e.getMessage());
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            } catch (IOException e) {
+                closeQuietly(channel);
+                continue;
+            }
+            Loop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+            loop.execute(() -> loop.register(channel));
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing left to do with it
+        }
+    }
+
+    private static String date() {
+        long second = System.currentTimeMillis() / 1000;
+        CachedDate cached = date;
+        if (cached.second() != second) {
+            cached = new CachedDate(second, DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC)));
+            date = cached;
+        }
+        return cached.value();
+    }
+
+    private static String reason(int code) {
+        switch (code) {
+            case 200: return "OK";
+            case 204: return "No Content";
+            case 304: return "Not Modified";
+            case 400: return "Bad Request";
+            case 401: return "Unauthorized";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 409: return "Conflict";
+            case 411: return "Length Required";
+            case 413: return "Payload Too Large";
+            case 429: return "Too Many Requests";
+            case 431: return "Request Header Fields Too Large";
+            case 500: return "Internal Server Error";
+            case 503: return "Service Unavailable";
+            default: return "Status";
+        }
+    }
+
+    // Direct buffers of one size; beyond maxPooled, returned buffers are left to the GC
+    private static final class BufferPool {
+        private final int bufferBytes;
+        private final int maxPooled;
+        private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pooled = new AtomicInteger();
+
+        BufferPool(int bufferBytes, int maxPooled) {
+            this.bufferBytes = bufferBytes;
+            this.maxPooled = maxPooled;
+        }
+
+        ByteBuffer acquire() {
+            ByteBuffer buffer = free.poll();
+            if (buffer == null) {
+                return ByteBuffer.allocateDirect(bufferBytes);
+            }
+            pooled.decrementAndGet();
+            return buffer.clear();
+        }
+
+        // Ignores buffers that did not come from the pool
+        void release(ByteBuffer buffer) {
+            if (!buffer.isDirect() || buffer.capacity() != bufferBytes) {
+                return;
+            }
+            if (pooled.incrementAndGet() <= maxPooled) {
+                free.offer(buffer);
+            } else {
+                pooled.decrementAndGet();
+            }
+        }
+    }
+
+    // One selector thread and the connections registered with it
+    private final class Loop implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // Loop thread only
+        final Set<Connection> connections = new HashSet<>();
+        final byte[] head = new byte[bufferBytes];
+        long nextSweepNanos = System.nanoTime();
+
+        Loop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "nio-selector-" + index);
+        }
+
+        // Runs task on the loop thread
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        void register(SocketChannel channel) {
+            try {
+                Connection connection = new Connection(this, channel);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connections.add(connection);
+            } catch (IOException e) {
+                closeQuietly(channel);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                try {
+                    selector.select(this::ready, 1000);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                long now = System.nanoTime();
+                if (now - nextSweepNanos >= 0) {
+                    sweep(now);
+                    nextSweepNanos = now + TimeUnit.SECONDS.toNanos(1);
+                }
+            }
+            for (Connection connection : new ArrayList<>(connections)) {
+                connection.abort();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Stopping anyway
+            }
+        }
+
+        private void ready(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isValid() && key.isWritable()) {
+                    connection.onWritable();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    connection.onReadable();
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                connection.abort();
+            }
+        }
+
+        // Closes connections that have been idle too long. One whose handler is running is
+        // left alone, unless the handler is waiting for body bytes that stopped coming.
+        private void sweep(long now) {
+            for (Connection connection : connections) {
+                boolean waiting = !connection.dispatched || connection.stream != null && !connection.paused;
+                if (waiting && now - connection.lastActiveNanos > idleTimeoutNanos) {
+                    connection.abort();
+                }
+            }
+        }
+    }
+
+    private final class Connection {
+        final Loop loop;
+        final SocketChannel channel;
+        final InetSocketAddress remote;
+        final InetSocketAddress local;
+        SelectionKey key;
+
+        // Loop thread only. `in` is borrowed while it holds unconsumed bytes, which run from
+        // start to its position; scanned is where the search for the end of the head resumes.
+        ByteBuffer in;
+        int start;
+        int scanned;
+        Exchange exchange;
+        boolean dispatched;
+        byte[] body;
+        int bodyFilled;
+        BodyStream stream;
+        long streamRemaining;
+        long lastActiveNanos = System.nanoTime();
+        // Set on the loop thread, read by the handler's thread
+        volatile boolean paused;
+
+        // Guarded by this
+        private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        private boolean closed;
+        private boolean closeWhenFlushed;
+
+        Connection(Loop loop, SocketChannel channel) throws IOException {
+            this.loop = loop;
+            this.channel = channel;
+            this.remote = (InetSocketAddress) channel.getRemoteAddress();
+            this.local = (InetSocketAddress) channel.getLocalAddress();
+        }
+
+        void onReadable() {
+            if (in == null) {
+                in = pool.acquire();
+                start = 0;
+                scanned = 0;
+            } else if (!in.hasRemaining() && start > 0) {
+                in.flip().position(start);
+                in.compact();
+                scanned -= start;
+                start = 0;
+            }
+            int n;
+            try {
+                n = channel.read(in);
+            } catch (IOException e) {
+                abort();
+                return;
+            }
+            if (n < 0) {
+                abort();
+                return;
+            }
+            if (n == 0) {
+                return;
+            }
+            lastActiveNanos = System.nanoTime();
+            if (stream != null) {
+                feedStream();
+            } else if (body != null) {
+                fillBody();
+            } else {
+                parse();
+            }
+        }
+
+        // Starts every complete request in the buffer, one at a time
+        void parse() {
+            while (exchange == null) {
+                int end = in == null ? -1 : headEnd();
+                if (end < 0) {
+                    if (in != null && start == 0 && !in.hasRemaining()) {
+                        reject(431, "Request Header Fields Too Large");
+                        return;
+                    }
+                    releaseIfConsumed();
+                    setReading(true);
+                    return;
+                }
+                Exchange request;
+                long length;
+                try {
+                    request = parseHead(end);
+                    if (request.requestHeaders.containsKey("Transfer-Encoding")) {
+                        reject(411, "Length Required");
+                        return;
+                    }
+                    String declared = request.requestHeaders.getFirst("Content-Length");
+                    length = declared == null ? 0 : Long.parseLong(declared.trim());
+                    if (length < 0) {
+                        throw new NumberFormatException();
+                    }
+                } catch (URISyntaxException | RuntimeException e) {
+                    reject(400, "Bad Request");
+                    return;
+                }
+                start = end;
+                scanned = end;
+                exchange = request;
+                if (length > 0 && "100-continue".equalsIgnoreCase(request.requestHeaders.getFirst("Expect"))) {
+                    try {
+                        write(ByteBuffer.wrap(CONTINUE));
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+                if (length == 0) {
+                    dispatch();
+                } else if (length <= ApiRequests.MAX_BODY_BYTES) {
+                    body = new byte[(int) length];
+                    bodyFilled = 0;
+                    fillBody();
+                } else {
+                    stream = new BodyStream(this);
+                    streamRemaining = length;
+                    request.body = stream;
+                    request.stream = stream;
+                    feedStream();
+                    dispatch();
+                }
+            }
+        }
+
+        // Index just past the blank line ending the request head, or -1
+        private int headEnd() {
+            int end = in.position();
+            for (int i = Math.max(start, scanned - 3); i + 3 < end; i++) {
+                if (in.get(i) == '\r' && in.get(i + 1) == '\n' && in.get(i + 2) == '\r' && in.get(i + 3) == '\n') {
+                    return i + 4;
+                }
+            }
+            scanned = end;
+            return -1;
+        }
+
+        private Exchange parseHead(int end) throws URISyntaxException {
+            byte[] head = loop.head;
+            int length = end - start;
+            in.get(start, head, 0, length);
+            int lineEnd = indexOfCrlf(head, 0, length);
+            String line = new String(head, 0, lineEnd, StandardCharsets.ISO_8859_1);
+            int first = line.indexOf(' ');
+            int last = line.lastIndexOf(' ');
+            if (first <= 0 || last <= first) {
+                throw new IllegalArgumentException("Malformed request line");
+            }
+            String protocol = line.substring(last + 1);
+            if (!protocol.startsWith("HTTP/1.")) {
+                throw new IllegalArgumentException("Unsupported protocol");
+            }
+            Headers headers = new Headers();
+            for (int pos = lineEnd + 2; pos < length - 2; ) {
+                int next = indexOfCrlf(head, pos, length);
+                int colon = pos;
+                while (colon < next && head[colon] != ':') {
+                    colon++;
+                }
+                if (colon == pos || colon == next) {
+                    throw new IllegalArgumentException("Malformed header");
+                }
+                headers.add(new String(head, pos, colon - pos, StandardCharsets.ISO_8859_1),
+                        new String(head, colon + 1, next - colon - 1, StandardCharsets.ISO_8859_1).trim());
+                pos = next + 2;
+            }
+            String connection = headers.getFirst("Connection");
+            boolean keepAlive = protocol.equals("HTTP/1.0")
+                    ? "keep-alive".equalsIgnoreCase(connection) : !"close".equalsIgnoreCase(connection);
+            return new Exchange(this, line.substring(0, first), new URI(line.substring(first + 1, last)), protocol,
+                    headers, keepAlive);
+        }
+
+        private int indexOfCrlf(byte[] b, int from, int to) {
+            for (int i = from; i + 1 < to; i++) {
+                if (b[i] == '\r' && b[i + 1] == '\n') {
+                    return i;
+                }
+            }
+            return to;
+        }
+
+        private void fillBody() {
+            int n = Math.min(in.position() - start, body.length - bodyFilled);
+            in.get(start, body, bodyFilled, n);
+            start += n;
+            bodyFilled += n;
+            releaseIfConsumed();
+            if (bodyFilled < body.length) {
+                setReading(true);
+                return;
+            }
+            exchange.body = new ByteArrayInputStream(body);
+            body = null;
+            dispatch();
+        }
+
+        // Moves received body bytes to the handler's stream, pausing the socket while the
+        // stream is full
+        void feedStream() {
+            while (streamRemaining > 0 && in != null && in.position() > start) {
+                if (!stream.hasRoom()) {
+                    paused = true;
+                    setReading(false);
+                    return;
+                }
+                int n = (int) Math.min(in.position() - start, streamRemaining);
+                byte[] chunk = new byte[n];
+                in.get(start, chunk, 0, n);
+                start += n;
+                streamRemaining -= n;
+                stream.offer(chunk);
+            }
+            releaseIfConsumed();
+            paused = false;
+            if (streamRemaining == 0) {
+                stream.finish();
+                stream = null;
+                setReading(false);
+            } else {
+                setReading(true);
+            }
+        }
+
+        void resumeStream() {
+            if (stream != null && paused) {
+                feedStream();
+            }
+        }
+
+        private void dispatch() {
+            dispatched = true;
+            if (stream == null) {
+                // Pipelined bytes stay where they are until this response is on its way
+                setReading(false);
+            }
+            Exchange request = exchange;
+            try {
+                if (executor == null) {
+                    request.run();
+                } else {
+                    executor.execute(request::run);
+                }
+            } catch (RejectedExecutionException e) {
+                abort();
+            }
+        }
+
+        // Called once the exchange's response has been queued; continues on the loop thread
+        void finished(Exchange done) {
+            boolean keepAlive = done.keepAlive && (done.stream == null || done.stream.atEnd());
+            loop.execute(() -> next(keepAlive));
+        }
+
+        private void next(boolean keepAlive) {
+            exchange = null;
+            dispatched = false;
+            stream = null;
+            if (!keepAlive) {
+                closeWhenFlushed();
+                return;
+            }
+            lastActiveNanos = System.nanoTime();
+            parse();
+        }
+
+        private void releaseIfConsumed() {
+            if (in != null && start == in.position()) {
+                pool.release(in);
+                in = null;
+                start = 0;
+                scanned = 0;
+            }
+        }
+
+        // Answers a request that cannot be handled and closes the connection
+        private void reject(int code, String message) {
+            byte[] response = ("HTTP/1.1 " + code + " " + message + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            exchange = null;
+            dispatched = true;
+            setReading(false);
+            try {
+                write(ByteBuffer.wrap(response));
+            } catch (IOException e) {
+                return;
+            }
+            closeWhenFlushed();
+        }
+
+        private synchronized void setReading(boolean reading) {
+            if (closed) {
+                return;
+            }
+            int ops = key.interestOps();
+            key.interestOps(reading ? ops | SelectionKey.OP_READ : ops & ~SelectionKey.OP_READ);
+        }
+
+        // Writes straight to the socket when nothing is queued, otherwise queues the buffer
+        // for the selector. Handler threads wait while too much is queued; the loop thread never does.
+        void write(ByteBuffer buffer) throws IOException {
+            synchronized (this) {
+                if (closed) {
+                    pool.release(buffer);
+                    throw new IOException("Connection closed");
+                }
+                if (out.isEmpty()) {
+                    try {
+                        channel.write(buffer);
+                    } catch (IOException e) {
+                        pool.release(buffer);
+                        abortLocked();
+                        throw e;
+                    }
+                    if (!buffer.hasRemaining()) {
+                        pool.release(buffer);
+                        return;
+                    }
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    if (Thread.currentThread() != loop.thread) {
+                        loop.selector.wakeup();
+                    }
+                }
+                out.add(buffer);
+                if (Thread.currentThread() == loop.thread) {
+                    return;
+                }
+                while (out.size() > MAX_QUEUED_BUFFERS && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while writing the response");
+                    }
+                }
+                if (closed) {
+                    throw new IOException("Connection closed");
+                }
+            }
+        }
+
+        synchronized void onWritable() {
+            while (!out.isEmpty()) {
+                ByteBuffer buffer = out.peek();
+                try {
+                    channel.write(buffer);
+                } catch (IOException e) {
+                    abortLocked();
+                    return;
+                }
+                if (buffer.hasRemaining()) {
+                    return;
+                }
+                pool.release(out.poll());
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            notifyAll();
+            if (closeWhenFlushed) {
+                abortLocked();
+            }
+        }
+
+        private synchronized void closeWhenFlushed() {
+            if (out.isEmpty()) {
+                abortLocked();
+            } else {
+                closeWhenFlushed = true;
+            }
+        }
+
+        synchronized void abort() {
+            abortLocked();
+        }
+
+        private void abortLocked() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            closeQuietly(channel);
+            for (ByteBuffer buffer : out) {
+                pool.release(buffer);
+            }
+            out.clear();
+            notifyAll();
+            Exchange current = exchange;
+            if (current != null && current.stream != null) {
+                current.stream.abort();
+            }
+            loop.execute(this::cleanup);
+        }
+
+        private void cleanup() {
+            loop.connections.remove(this);
+            if (in != null) {
+                pool.release(in);
+                in = null;
+            }
+        }
+    }
+
+    // Body bytes handed from the loop thread to the handler; reading the last chunk out of a
+    // full stream resumes the socket
+    private static final class BodyStream extends InputStream {
+        private final Connection connection;
+        private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+        private byte[] current;
+        private int pos;
+        private boolean finished;
+        private boolean aborted;
+
+        BodyStream(Connection connection) {
+            this.connection = connection;
+        }
+
+        synchronized boolean hasRoom() {
+            return chunks.size() < MAX_STREAMED_CHUNKS;
+        }
+
+        synchronized void offer(byte[] chunk) {
+            chunks.add(chunk);
+            notifyAll();
+        }
+
+        synchronized void finish() {
+            finished = true;
+            notifyAll();
+        }
+
+        synchronized void abort() {
+            aborted = true;
+            notifyAll();
+        }
+
+        synchronized boolean atEnd() {
+            return finished && chunks.isEmpty() && (current == null || pos == current.length);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (current == null || pos == current.length) {
+                byte[] next = chunks.poll();
+                if (next != null) {
+                    current = next;
+                    pos = 0;
+                    if (connection.paused) {
+                        connection.loop.execute(connection::resumeStream);
+                    }
+                } else if (aborted) {
+                    throw new IOException("Connection closed");
+                } else if (finished) {
+                    return -1;
+                } else {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while reading the request body");
+                    }
+                }
+            }
+            int n = Math.min(len, current.length - pos);
+            System.arraycopy(current, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+    }
+
+    // The response as the handler writes it: status line and headers, then the body, filled
+    // into pooled buffers that are sent as they fill up. A length of 0 means chunked, as with
+    // the JDK server; flush() does not send a partial buffer.
+    private final class ResponseStream extends OutputStream {
+        private final Exchange exchange;
+        private ByteBuffer buffer;
+        private boolean noBody;
+        private boolean chunked;
+        private long remaining;
+        private int chunkStart;
+        private boolean closed;
+
+        ResponseStream(Exchange exchange) {
+            this.exchange = exchange;
+        }
+
+        void begin(int code, long length) throws IOException {
+            boolean head = "HEAD".equals(exchange.method);
+            noBody = length == -1 || head || code == 204 || code == 304 || code < 200;
+            chunked = !noBody && length == 0;
+            remaining = noBody ? 0 : length;
+            buffer = pool.acquire();
+            ascii("HTTP/1.1 ");
+            ascii(String.valueOf(code));
+            ascii(" ");
+            ascii(reason(code));
+            ascii("\r\nDate: ");
+            ascii(date());
+            ascii("\r\n");
+            for (Map.Entry<String, List<String>> header : exchange.responseHeaders.entrySet()) {
+                String name = header.getKey();
+                if (name.equalsIgnoreCase("Content-Length") || name.equalsIgnoreCase("Transfer-Encoding") ||
+                        name.equalsIgnoreCase("Connection") || name.equalsIgnoreCase("Date")) {
+                    continue;
+                }
+                for (String value : header.getValue()) {
+                    ascii(name);
+                    ascii(": ");
+                    ascii(value);
+                    ascii("\r\n");
+                }
+            }
+            if (chunked) {
+                ascii("Transfer-Encoding: chunked\r\n");
+            } else if (code != 204 && code != 304 && code >= 200) {
+                ascii("Content-Length: ");
+                ascii(String.valueOf(head && length > 0 ? length : remaining));
+                ascii("\r\n");
+            }
+            if (!exchange.keepAlive) {
+                ascii("Connection: close\r\n");
+            }
+            ascii("\r\n");
+            if (chunked) {
+                if (buffer.remaining() < CHUNK_HEADER_BYTES + 3) {
+                    sendBuffer();
+                }
+                buffer.position(buffer.position() + CHUNK_HEADER_BYTES);
+                chunkStart = buffer.position();
+            }
+        }
+
+        private void ascii(String s) throws IOException {
+            for (int i = 0; i < s.length(); i++) {
+                if (!buffer.hasRemaining()) {
+                    sendBuffer();
+                }
+                buffer.put((byte) s.charAt(i));
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream is closed");
+            }
+            if (buffer == null) {
+                throw new IOException("Response headers not sent yet");
+            }
+            if (noBody) {
+                if ("HEAD".equals(exchange.method)) {
+                    return;
+                }
+                throw new IOException("Response has no body");
+            }
+            if (!chunked) {
+                if (len > remaining) {
+                    throw new IOException("Too many bytes to write to stream");
+                }
+                remaining -= len;
+            }
+            while (len > 0) {
+                int room = buffer.capacity() - (chunked ? 2 : 0) - buffer.position();
+                if (room == 0) {
+                    endChunk();
+                    sendBuffer();
+                    if (chunked) {
+                        buffer.position(CHUNK_HEADER_BYTES);
+                        chunkStart = CHUNK_HEADER_BYTES;
+                    }
+                    continue;
+                }
+                int n = Math.min(room, len);
+                buffer.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        // Fills in the size line of the chunk in the buffer and ends it, or drops the space
+        // kept for it if the chunk is empty
+        private void endChunk() {
+            if (!chunked) {
+                return;
+            }
+            int size = buffer.position() - chunkStart;
+            if (size == 0) {
+                buffer.position(chunkStart - CHUNK_HEADER_BYTES);
+                return;
+            }
+            int at = chunkStart - CHUNK_HEADER_BYTES;
+            buffer.put(at, HEX[size >>> 12 & 15]);
+            buffer.put(at + 1, HEX[size >>> 8 & 15]);
+            buffer.put(at + 2, HEX[size >>> 4 & 15]);
+            buffer.put(at + 3, HEX[size & 15]);
+            buffer.put(at + 4, (byte) '\r');
+            buffer.put(at + 5, (byte) '\n');
+            buffer.put((byte) '\r').put((byte) '\n');
+        }
+
+        private void sendBuffer() throws IOException {
+            ByteBuffer full = buffer.flip();
+            buffer = pool.acquire();
+            exchange.connection.write(full);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (buffer == null) {
+                exchange.connection.abort();
+                return;
+            }
+            if (remaining > 0) {
+                exchange.connection.abort();
+                throw new IOException("Insufficient bytes written to stream");
+            }
+            if (chunked) {
+                endChunk();
+                if (buffer.remaining() < 5) {
+                    sendBuffer();
+                }
+                buffer.put((byte) '0').put((byte) '\r').put((byte) '\n').put((byte) '\r').put((byte) '\n');
+            }
+            ByteBuffer last = buffer.flip();
+            buffer = null;
+            exchange.connection.write(last);
+            exchange.connection.finished(exchange);
+        }
+    }
+
+    private final class Exchange extends HttpExchange {
+        final Connection connection;
+        final String method;
+        final URI uri;
+        final String protocol;
+        final Headers requestHeaders;
+        final Headers responseHeaders = new Headers();
+        final boolean keepAlive;
+        final ResponseStream response = new ResponseStream(this);
+        InputStream body = InputStream.nullInputStream();
+        BodyStream stream;
+        private InputStream filteredIn;
+        private OutputStream filteredOut;
+        private Map<String, Object> attributes;
+        private int status = -1;
+        private boolean closed;
+
+        Exchange(Connection connection, String method, URI uri, String protocol, Headers requestHeaders,
+                 boolean keepAlive) {
+            this.connection = connection;
+            this.method = method;
+            this.uri = uri;
+            this.protocol = protocol;
+            this.requestHeaders = requestHeaders;
+            this.keepAlive = keepAlive;
+        }
+
+        // As with the JDK server, a handler that fails lets the connection go
+        void run() {
+            try {
+                handler.handle(this);
+            } catch (IOException e) {
+                connection.abort();
+            } catch (RuntimeException | Error e) {
+                e.printStackTrace();
+                connection.abort();
+            }
+        }
+
+        @Override
+        public Headers getRequestHeaders() {
+            return requestHeaders;
+        }
+
+        @Override
+        public Headers getResponseHeaders() {
+            return responseHeaders;
+        }
+
+        @Override
+        public URI getRequestURI() {
+            return uri;
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return method;
+        }
+
+        // There are no contexts; the one handler sees every path
+        @Override
+        public HttpContext getHttpContext() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (status == -1) {
+                connection.abort();
+                return;
+            }
+            try {
+                getResponseBody().close();
+            } catch (IOException e) {
+                connection.abort();
+            }
+        }
+
+        @Override
+        public InputStream getRequestBody() {
+            return filteredIn != null ? filteredIn : body;
+        }
+
+        @Override
+        public OutputStream getResponseBody() {
+            return filteredOut != null ? filteredOut : response;
+        }
+
+        @Override
+        public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+            if (status != -1) {
+                throw new IOException("headers already sent");
+            }
+            status = rCode;
+            response.begin(rCode, responseLength);
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return connection.remote;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return status;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return connection.local;
+        }
+
+        @Override
+        public String getProtocol() {
+            return protocol;
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return attributes == null ? null : attributes.get(name);
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) {
+            if (attributes == null) {
+                attributes = new HashMap<>();
+            }
+            attributes.put(name, value);
+        }
+
+        @Override
+        public void setStreams(InputStream i, OutputStream o) {
+            if (i != null) {
+                filteredIn = i;
+            }
+            if (o != null) {
+                filteredOut = o;
+            }
+        }
+
+        @Override
+        public HttpPrincipal getPrincipal() {
+            return null;
+        }
+    }
+}
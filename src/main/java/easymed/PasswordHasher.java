@@ -0,0 +1,264 @@
+package easymed;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// Salted PBKDF2-HMAC-SHA256 password hashes, stored as
+//
+//     pbkdf2-sha256$<iterations>$<base64 salt>$<base64 hash>
+//
+// Hashing is deliberately slow, so handlers hand it to submit(), which runs it on a small
+// bounded pool of its own instead of on an HTTP thread; a full queue is reported as
+// RejectedExecutionException so the caller can shed the request. Each worker reuses one
+// Mac and one MessageDigest. Rows still holding the legacy unsalted SHA-256 hex digest
+// verify as before and report needsRehash(), as do hashes made with a different
+// iteration count. Successful verifications are remembered for a short while, keyed by a
+// per-process HMAC of the stored hash and the password, so repeated logins skip the KDF.
+public class PasswordHasher implements AutoCloseable {
+
+    private static final String PREFIX = "pbkdf2-sha256$";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BYTES = 32;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<Mac> MACS = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance("HmacSHA256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("HmacSHA256 not available", e);
+        }
+    });
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 algorithm not available", e);
+        }
+    });
+
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+    private final ThreadPoolExecutor pool;
+    private final VerifiedCache verified;
+
+    private final LongAdder hashes = new LongAdder();
+    private final LongAdder verifications = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public PasswordHasher(int iterations, int threads, int queueSize, int cacheSize, long cacheTtlSeconds) {
+        this.iterations = iterations;
+        AtomicInteger ids = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+                    Thread t = new Thread(r, "easymed-password-" + ids.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.verified = cacheSize > 0 ? new VerifiedCache(cacheSize, cacheTtlSeconds * 1000L) : null;
+    }
+
+    // Builds a hasher from -Deasymed.password.iterations (default 120000),
+    // -Deasymed.password.threads (default: one per core), -Deasymed.password.queue
+    // (default 256), -Deasymed.password.cacheSize (default 10000, 0 disables the cache)
+    // and -Deasymed.password.cacheTtlSeconds (default 300)
+    public static PasswordHasher fromSystemProperties() {
+        return new PasswordHasher(
+                Integer.getInteger("easymed.password.iterations", 120_000),
+                Integer.getInteger("easymed.password.threads", Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("easymed.password.queue", 256),
+                Integer.getInteger("easymed.password.cacheSize", 10_000),
+                Long.getLong("easymed.password.cacheTtlSeconds", 300L));
+    }
+
+    // Runs a task that hashes or verifies on the password pool. The future fails with
+    // RejectedExecutionException when the pool's queue is full.
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            pool.execute(() -> {
+                try {
+                    result.complete(task.call());
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    // New salted hash in the current format and cost
+    public String hash(String password) {
+        hashes.increment();
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        byte[] hash = pbkdf2(password, salt, iterations);
+        Base64.Encoder b64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + iterations + "$" + b64.encodeToString(salt) + "$" + b64.encodeToString(hash);
+    }
+
+    // Checks a password against a stored PBKDF2 or legacy SHA-256 hash
+    public boolean matches(String password, String stored) {
+        if (stored == null) {
+            return false;
+        }
+        String cacheKey = null;
+        if (verified != null) {
+            cacheKey = verified.key(password, stored);
+            if (verified.contains(cacheKey)) {
+                cacheHits.increment();
+                return true;
+            }
+        }
+        verifications.increment();
+        boolean ok;
+        if (stored.startsWith(PREFIX)) {
+            String[] parts = stored.split("\\$");
+            if (parts.length != 4) {
+                return false;
+            }
+            try {
+                byte[] salt = Base64.getDecoder().decode(parts[2]);
+                byte[] expected = Base64.getDecoder().decode(parts[3]);
+                ok = MessageDigest.isEqual(expected, pbkdf2(password, salt, Integer.parseInt(parts[1])));
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        } else {
+            ok = MessageDigest.isEqual(stored.getBytes(StandardCharsets.US_ASCII),
+                    legacySha256(password).getBytes(StandardCharsets.US_ASCII));
+        }
+        if (ok && verified != null) {
+            verified.put(cacheKey);
+        }
+        return ok;
+    }
+
+    // True for legacy SHA-256 hashes and for PBKDF2 hashes made with another iteration count
+    public boolean needsRehash(String stored) {
+        return stored == null || !stored.startsWith(PREFIX + iterations + "$");
+    }
+
+    public int iterations() {
+        return iterations;
+    }
+
+    public String statsJson() {
+        return "{\"iterations\":" + iterations +
+                ",\"threads\":" + pool.getMaximumPoolSize() +
+                ",\"active\":" + pool.getActiveCount() +
+                ",\"queued\":" + pool.getQueue().size() +
+                ",\"hashes\":" + hashes.sum() +
+                ",\"verifications\":" + verifications.sum() +
+                ",\"cacheHits\":" + cacheHits.sum() +
+                ",\"rejected\":" + rejected.sum() + "}";
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    // The unsalted hex SHA-256 every password was stored as before PBKDF2
+    static String legacySha256(String password) {
+        byte[] hash = SHA256.get().digest(password.getBytes(StandardCharsets.UTF_8));
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[hash[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    // PBKDF2-HMAC-SHA256 (RFC 8018) for a single 32-byte block, on this thread's Mac. Gives
+    // the same result as SecretKeyFactory "PBKDF2WithHmacSHA256", without a new factory,
+    // key object and Mac per call or an allocation per iteration.
+    static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        Mac mac = MACS.get();
+        byte[] key = password.getBytes(StandardCharsets.UTF_8);
+        try {
+            // HMAC zero-pads its key, so an empty password is the same key as a single 0 byte
+            mac.init(new SecretKeySpec(key.length == 0 ? new byte[1] : key, "HmacSHA256"));
+            mac.update(salt);
+            mac.update(new byte[] {0, 0, 0, 1});
+            byte[] u = mac.doFinal();
+            byte[] t = u.clone();
+            for (int i = 1; i < iterations; i++) {
+                mac.update(u);
+                mac.doFinal(u, 0);
+                for (int j = 0; j < HASH_BYTES; j++) {
+                    t[j] ^= u[j];
+                }
+            }
+            return t;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2 failed", e);
+        }
+    }
+
+    // LRU set of recently verified (stored hash, password) pairs, each good for ttlMillis
+    private static final class VerifiedCache {
+        private final byte[] secret = new byte[32];
+        private final long ttlMillis;
+        private final Map<String, Long> entries;
+
+        VerifiedCache(int maxEntries, long ttlMillis) {
+            new SecureRandom().nextBytes(secret);
+            this.ttlMillis = ttlMillis;
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+        }
+
+        // Keyed by HMAC so neither passwords nor cheap digests of them sit in memory
+        String key(String password, String stored) {
+            Mac mac = MACS.get();
+            try {
+                mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+                mac.update(stored.getBytes(StandardCharsets.UTF_8));
+                mac.update((byte) 0);
+                return Base64.getEncoder().encodeToString(mac.doFinal(password.getBytes(StandardCharsets.UTF_8)));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 failed", e);
+            }
+        }
+
+        synchronized boolean contains(String key) {
+            Long expires = entries.get(key);
+            if (expires == null) {
+                return false;
+            }
+            if (expires <= System.currentTimeMillis()) {
+                entries.remove(key);
+                return false;
+            }
+            return true;
+        }
+
+        synchronized void put(String key) {
+            entries.put(key, System.currentTimeMillis() + ttlMillis);
+        }
+    }
+}
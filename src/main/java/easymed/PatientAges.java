@@ -0,0 +1,50 @@
+package easymed;
+
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Every patient's age, held in memory so the symptom checker can apply age-banded rules
+// without querying patients on each request. Loaded once at startup and kept current by
+// the register handler; a patient missing from the map (added by another process) is
+// looked up once and then cached.
+public class PatientAges {
+
+    private final PatientRepository patients;
+    private final ConcurrentHashMap<Integer, Integer> ages = new ConcurrentHashMap<>();
+
+    public PatientAges(PatientRepository patients) {
+        this.patients = patients;
+    }
+
+    // Loads all ages and returns how many patients were read
+    public int load() throws SQLException {
+        int[] count = new int[1];
+        patients.forEach(p -> {
+            ages.put(p.id(), p.age());
+            count[0]++;
+        });
+        return count[0];
+    }
+
+    // The patient's age, or null if there is no such patient
+    public Integer get(int patientId) throws SQLException {
+        Integer age = ages.get(patientId);
+        if (age != null) {
+            return age;
+        }
+        PatientRepository.Patient patient = patients.findById(patientId);
+        age = patient == null ? null : patient.age();
+        if (age != null) {
+            ages.put(patientId, age);
+        }
+        return age;
+    }
+
+    public void put(int patientId, int age) {
+        ages.put(patientId, age);
+    }
+
+    public int size() {
+        return ages.size();
+    }
+}
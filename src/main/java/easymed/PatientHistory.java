@@ -0,0 +1,141 @@
+package easymed;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Base64;
+import java.util.Map;
+
+// A patient's appointments and symptom checks, newest first, one page at a time. Pages
+// are addressed by keyset cursors rather than offsets: the cursor holds the sort key of
+// the last row returned, and the next page seeks straight past it (in SQLite's covering
+// index or the memory engine's per-patient skip list), so page 50 costs the same as page 1
+// and rows inserted meanwhile never shift a page. Rows are written into the response
+// through a JsonWriter as the repository hands them over, after any database connection
+// used to read them has been given back.
+public class PatientHistory {
+
+    public static final int DEFAULT_LIMIT = 20;
+    public static final int MAX_LIMIT = 100;
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    // A cursor that cannot be decoded or was made for the other listing
+    public static final class InvalidCursorException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        InvalidCursorException() {
+            super("Invalid cursor");
+        }
+    }
+
+    private final AppointmentRepository appointments;
+    private final SymptomRepository symptoms;
+    private final DoctorDirectory doctors;
+
+    public PatientHistory(AppointmentRepository appointments, SymptomRepository symptoms, DoctorDirectory doctors) {
+        this.appointments = appointments;
+        this.symptoms = symptoms;
+        this.doctors = doctors;
+    }
+
+    // {"items":[{"id","doctorId","doctor","category","date","time","message","disease"}...],
+    //  "nextCursor":...}; doctor name and category come from the in-memory directory rather
+    // than a join, nextCursor is null on the last page
+    public void writeAppointments(JsonWriter json, int patientId, String cursor, int limit) throws SQLException, IOException {
+        String[] after = cursor == null ? null : decode(cursor, 'a', 3);
+        int afterId = after == null ? 0 : parseId(after[2]);
+        // Resolved before the lookup: a directory reload needs a read connection of its own
+        Map<Integer, DoctorDirectory.Doctor> roster = doctors.doctorsById();
+        AppointmentRepository.Appointment[] last = new AppointmentRepository.Appointment[1];
+        int[] written = new int[1];
+        json.beginObject().name("items").beginArray();
+        // One row more than asked for tells whether there is a next page
+        int rows = appointments.findByPatient(patientId, after == null ? null : after[0],
+                after == null ? null : after[1], afterId, limit + 1, a -> {
+                    if (written[0] == limit) {
+                        return;
+                    }
+                    DoctorDirectory.Doctor doctor = roster.get(a.doctorId());
+                    json.beginObject()
+                            .field("id", a.id())
+                            .field("doctorId", a.doctorId())
+                            .field("doctor", doctor == null ? null : doctor.name())
+                            .field("category", doctor == null ? null : doctor.category())
+                            .field("date", a.date())
+                            .field("time", a.time())
+                            .field("message", a.message())
+                            .field("disease", a.disease())
+                            .endObject();
+                    last[0] = a;
+                    written[0]++;
+                });
+        // The cursor is the sort key of the last row on this page
+        json.endArray().field("nextCursor", rows > limit
+                ? encode('a', last[0].date(), last[0].time(), String.valueOf(last[0].id())) : null).endObject();
+    }
+
+    // {"items":[{"id","symptoms","medicines"}...],"nextCursor":...}
+    public void writeSymptoms(JsonWriter json, int patientId, String cursor, int limit) throws SQLException, IOException {
+        String[] after = cursor == null ? null : decode(cursor, 's', 1);
+        int beforeId = after == null ? 0 : parseId(after[0]);
+        int[] lastId = new int[1];
+        int[] written = new int[1];
+        json.beginObject().name("items").beginArray();
+        int rows = symptoms.findByPatient(patientId, beforeId, limit + 1, s -> {
+            if (written[0] == limit) {
+                return;
+            }
+            json.beginObject()
+                    .field("id", s.id())
+                    .field("symptoms", s.symptoms())
+                    .field("medicines", s.medicines())
+                    .endObject();
+            lastId[0] = s.id();
+            written[0]++;
+        });
+        json.endArray().field("nextCursor", rows > limit ? encode('s', String.valueOf(lastId[0])) : null).endObject();
+    }
+
+    // Clamps a requested page size; null or unparsable means the default
+    public static int limit(String requested) {
+        if (requested == null) {
+            return DEFAULT_LIMIT;
+        }
+        try {
+            return Math.max(1, Math.min(MAX_LIMIT, Integer.parseInt(requested)));
+        } catch (NumberFormatException e) {
+            return DEFAULT_LIMIT;
+        }
+    }
+
+    // Cursor: base64url of a kind letter and the sort key, separated by newlines
+    private static String encode(char kind, String... key) {
+        return ENCODER.encodeToString((kind + "\n" + String.join("\n", key)).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String[] decode(String cursor, char kind, int parts) {
+        String raw;
+        try {
+            raw = new String(DECODER.decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException();
+        }
+        String[] fields = raw.split("\n", -1);
+        if (fields.length != parts + 1 || fields[0].length() != 1 || fields[0].charAt(0) != kind) {
+            throw new InvalidCursorException();
+        }
+        String[] key = new String[parts];
+        System.arraycopy(fields, 1, key, 0, parts);
+        return key;
+    }
+
+    private static int parseId(String id) {
+        try {
+            return Integer.parseInt(id);
+        } catch (NumberFormatException e) {
+            throw new InvalidCursorException();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package easymed;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.Consumer;
+
+// The patients table. cnic and email are unique; phone is not, so a login by phone can
+// match several patients.
+public interface PatientRepository {
+
+    record Patient(int id, String patientName, String fatherName, String cnic, String email,
+                   String password, String phone, int age, String disease) {
+    }
+
+    // Adds a patient (the id in the record is ignored) and returns the new id. A taken cnic or
+    // email fails with a DuplicateKeyException whose key is "cnic" or "email".
+    int insert(Patient patient) throws SQLException;
+
+    // The patient, or null if there is no such id
+    Patient findById(int id) throws SQLException;
+
+    // Patients whose cnic or phone equals the login name, in id order
+    List<Patient> findByCnicOrPhone(String login) throws SQLException;
+
+    // Replaces the password hash only if it is still oldHash; false when it was not
+    boolean updatePassword(int id, String oldHash, String newHash) throws SQLException;
+
+    // Every patient in id order
+    void forEach(Consumer<Patient> action) throws SQLException;
+}
@@ -0,0 +1,112 @@
+package easymed;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// In-memory token buckets, one per key (a client address, a login identifier). Each bucket
+// is a single AtomicLong holding the time at which it will be full again (the GCRA form of
+// a token bucket: a request is admitted while that time is at most burst - 1 intervals
+// ahead of now, and pushes it one interval further), so taking a token is one CAS and
+// never blocks.
+//
+// A bucket that has refilled completely carries no information and is dropped by a sweep
+// that runs at most once a second, piggybacking on requests for new keys. Memory stays
+// bounded by maxKeys: while the table is full, keys without a bucket share one overflow
+// bucket, so a flood of distinct keys is limited as a whole rather than growing the map.
+public class RateLimiter {
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final int maxKeys;
+    private final ConcurrentHashMap<Object, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong overflow = new AtomicLong(System.nanoTime());
+    private final AtomicLong nextSweepNanos = new AtomicLong(System.nanoTime());
+    private final LongAdder limited = new LongAdder();
+
+    // perMinute <= 0 disables the limiter
+    public RateLimiter(int perMinute, int burst, int maxKeys) {
+        this.intervalNanos = perMinute <= 0 ? 0 : 60_000_000_000L / perMinute;
+        this.burstNanos = (Math.max(1, burst) - 1) * intervalNanos;
+        this.maxKeys = maxKeys;
+    }
+
+    // Builds a limiter from -Deasymed.rateLimit.<name>.perMinute and .burst, with
+    // -Deasymed.rateLimit.maxKeys (default 100000) buckets at most
+    public static RateLimiter fromSystemProperties(String name, int perMinute, int burst) {
+        String prefix = "easymed.rateLimit." + name;
+        return new RateLimiter(Integer.getInteger(prefix + ".perMinute", perMinute),
+                Integer.getInteger(prefix + ".burst", burst),
+                Integer.getInteger("easymed.rateLimit.maxKeys", 100_000));
+    }
+
+    // Takes a token for key; 0 when admitted, otherwise the nanoseconds until one is free
+    public long acquire(Object key) {
+        if (intervalNanos == 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            sweep(now);
+            bucket = buckets.size() < maxKeys ? buckets.computeIfAbsent(key, k -> new AtomicLong(now)) : overflow;
+        }
+        while (true) {
+            long full = bucket.get();
+            long from = full - now > 0 ? full : now;
+            long wait = from - now - burstNanos;
+            if (wait > 0) {
+                limited.increment();
+                return wait;
+            }
+            if (bucket.compareAndSet(full, from + intervalNanos)) {
+                return 0;
+            }
+        }
+    }
+
+    // Requests turned away so far
+    public long limitedCount() {
+        return limited.sum();
+    }
+
+    // Filter limiting each client address; rejected exchanges get 429 and never reach the
+    // handler. The InetAddress itself is the key, so nothing is allocated per request.
+    public Filter filter() {
+        return new Filter() {
+            @Override
+            public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+                long wait = acquire(exchange.getRemoteAddress().getAddress());
+                if (wait > 0) {
+                    reject(exchange, wait);
+                    return;
+                }
+                chain.doFilter(exchange);
+            }
+
+            @Override
+            public String description() {
+                return "Rate limits requests per client address";
+            }
+        };
+    }
+
+    // Answers 429 with a Retry-After rounded up to whole seconds
+    static void reject(HttpExchange exchange, long waitNanos) throws IOException {
+        exchange.getResponseHeaders().set("Retry-After", String.valueOf((waitNanos + 999_999_999L) / 1_000_000_000L));
+        MedicalServer.sendJsonResponse(exchange, 429, "Too many requests");
+    }
+
+    // Drops buckets that have refilled completely, at most once a second. A request racing
+    // the removal may still take a token from the dropped bucket, which only errs in the
+    // client's favour by that one request.
+    private void sweep(long now) {
+        long next = nextSweepNanos.get();
+        if (now - next >= 0 && nextSweepNanos.compareAndSet(next, now + 1_000_000_000L)) {
+            buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+        }
+    }
+}
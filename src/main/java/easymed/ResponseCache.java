@@ -0,0 +1,345 @@
+package easymed;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Read-through cache of rendered GET responses, keyed by route plus the query parameters
+// the route declares (decoded, re-encoded and in a fixed order, so ?a=1&b=2 and ?b=2&a=1
+// share an entry and unrelated parameters cannot grow the key space). A miss runs the
+// handler against a buffer, stores a 200 body with a strong content-hash ETag and only then
+// answers, so the first response carries the ETag too. Clients revalidating with a matching
+// If-None-Match get 304 with no body.
+//
+// Each entry remembers the data version it was rendered from; the route's Version source
+// (for the doctor routes, the DoctorDirectory snapshot) is checked on every request, so
+// anything that invalidates the underlying data retires its cached responses as well.
+//
+// Lookups are lock-free. The cache is bounded by total body bytes; past the bound the least
+// recently used entry is evicted by a linear scan, which is cheap for the few hundred
+// entries these routes produce.
+public class ResponseCache {
+
+    // Where a route's data currently stands; a different value means cached bodies are stale
+    @FunctionalInterface
+    public interface Version {
+        long current() throws SQLException;
+    }
+
+    private static final class Entry {
+        final long version;
+        final byte[] body;
+        final String etag;
+        final String contentType;
+        final long size;
+        volatile long lastUsedNanos = System.nanoTime();
+
+        Entry(long version, byte[] body, String contentType, String key) {
+            this.version = version;
+            this.body = body;
+            this.etag = StaticAssets.etagFor(body);
+            this.contentType = contentType;
+            this.size = body.length + 2L * key.length() + 64;
+        }
+    }
+
+    private final long maxBytes;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+    private final Object evictionLock = new Object();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ResponseCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // -Deasymed.responseCache.maxBytes (default 4 MiB)
+    public static ResponseCache fromSystemProperties() {
+        return new ResponseCache(Long.getLong("easymed.responseCache.maxBytes", 4L * 1024 * 1024));
+    }
+
+    // Filter caching one route's GET responses; params are the query parameters that
+    // select a response, all others are ignored
+    public Filter filter(Version version, String... params) {
+        return new Filter() {
+            @Override
+            public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    chain.doFilter(exchange);
+                    return;
+                }
+                long current;
+                try {
+                    current = version.current();
+                } catch (SQLException e) {
+                    // Cannot tell whether an entry is fresh; let the handler answer
+                    e.printStackTrace();
+                    chain.doFilter(exchange);
+                    return;
+                }
+                String key = key(exchange, params);
+                Entry entry = entries.get(key);
+                if (entry != null && entry.version == current) {
+                    hits.increment();
+                    entry.lastUsedNanos = System.nanoTime();
+                    send(exchange, entry);
+                    return;
+                }
+                misses.increment();
+                CapturingExchange capture = new CapturingExchange(exchange);
+                chain.doFilter(capture);
+                byte[] body = capture.body.toByteArray();
+                if (capture.status != 200) {
+                    // Errors are passed through as they are and never cached
+                    exchange.sendResponseHeaders(capture.status, body.length == 0 ? -1 : body.length);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(body);
+                    }
+                    return;
+                }
+                entry = new Entry(current, body, exchange.getResponseHeaders().getFirst("Content-Type"), key);
+                store(key, entry);
+                send(exchange, entry);
+            }
+
+            @Override
+            public String description() {
+                return "Caches rendered responses with ETags";
+            }
+        };
+    }
+
+    public String statsJson() {
+        long lookups = hits.sum() + misses.sum();
+        return "{\"entries\":" + entries.size() +
+                ",\"bytes\":" + bytes.get() +
+                ",\"maxBytes\":" + maxBytes +
+                ",\"hits\":" + hits.sum() +
+                ",\"misses\":" + misses.sum() +
+                ",\"hitRatio\":" + (lookups == 0 ? 0 : Math.round(hits.sum() * 1000.0 / lookups) / 1000.0) +
+                ",\"notModified\":" + notModified.sum() +
+                ",\"evictions\":" + evictions.sum() + "}";
+    }
+
+    private void send(HttpExchange exchange, Entry entry) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        if (entry.contentType != null) {
+            headers.set("Content-Type", entry.contentType);
+        }
+        headers.set("ETag", entry.etag);
+        // Stored, but revalidated on every use: a navigation costs a 304 instead of the body
+        headers.set("Cache-Control", "no-cache");
+        if (StaticAssets.etagMatches(exchange.getRequestHeaders().getFirst("If-None-Match"), entry.etag)) {
+            notModified.increment();
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(200, entry.body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(entry.body);
+        }
+    }
+
+    private void store(String key, Entry entry) {
+        if (entry.size > maxBytes) {
+            return;
+        }
+        Entry old = entries.put(key, entry);
+        bytes.addAndGet(entry.size - (old == null ? 0 : old.size));
+        while (bytes.get() > maxBytes) {
+            evictLeastRecentlyUsed();
+        }
+    }
+
+    private void evictLeastRecentlyUsed() {
+        synchronized (evictionLock) {
+            Map.Entry<String, Entry> oldest = null;
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                if (oldest == null || e.getValue().lastUsedNanos - oldest.getValue().lastUsedNanos < 0) {
+                    oldest = e;
+                }
+            }
+            if (oldest != null && entries.remove(oldest.getKey(), oldest.getValue())) {
+                bytes.addAndGet(-oldest.getValue().size);
+                evictions.increment();
+            }
+        }
+    }
+
+    private static String key(HttpExchange exchange, String[] params) {
+        URI uri = exchange.getRequestURI();
+        String path = uri.getPath();
+        String raw = uri.getRawQuery();
+        if (raw == null || params.length == 0) {
+            return path;
+        }
+        if (isCanonical(raw, params)) {
+            // What browsers normally send: nothing to decode or reorder
+            return path + "?" + raw;
+        }
+        StringBuilder key = new StringBuilder(path);
+        Map<String, String> query = MedicalServer.parseQuery(raw);
+        char separator = '?';
+        for (String name : params) {
+            String value = query.get(name);
+            if (value != null) {
+                key.append(separator).append(name).append('=').append(URLEncoder.encode(value, StandardCharsets.UTF_8));
+                separator = '&';
+            }
+        }
+        return key.toString();
+    }
+
+    // True when the raw query is already in key form: declared parameters only, each at
+    // most once and in declared order, with values needing no percent-encoding
+    private static boolean isCanonical(String raw, String[] params) {
+        int pos = 0;
+        int next = 0;
+        while (pos < raw.length()) {
+            int param = next;
+            while (param < params.length && !(raw.startsWith(params[param], pos) &&
+                    raw.startsWith("=", pos + params[param].length()))) {
+                param++;
+            }
+            if (param == params.length) {
+                return false;
+            }
+            next = param + 1;
+            pos += params[param].length() + 1;
+            for (; pos < raw.length() && raw.charAt(pos) != '&'; pos++) {
+                char c = raw.charAt(pos);
+                if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' ||
+                        c == '.' || c == '-' || c == '_' || c == '*')) {
+                    return false;
+                }
+            }
+            if (pos < raw.length() && ++pos == raw.length()) {
+                // Trailing &
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Hands the handler a buffer for its body and records the status it sends, so the
+    // filter can add the ETag before anything goes out. Everything else is the real exchange.
+    private static final class CapturingExchange extends HttpExchange {
+        private final HttpExchange exchange;
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int status = -1;
+
+        CapturingExchange(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        @Override
+        public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+            if (status != -1) {
+                throw new IOException("headers already sent");
+            }
+            status = rCode;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return status;
+        }
+
+        @Override
+        public OutputStream getResponseBody() {
+            return body;
+        }
+
+        @Override
+        public void close() {
+            // The filter completes the real exchange once the handler returns
+        }
+
+        @Override
+        public void setStreams(InputStream i, OutputStream o) {
+            if (o != null) {
+                throw new UnsupportedOperationException("response stream is captured");
+            }
+            exchange.setStreams(i, null);
+        }
+
+        @Override
+        public Headers getRequestHeaders() {
+            return exchange.getRequestHeaders();
+        }
+
+        @Override
+        public Headers getResponseHeaders() {
+            return exchange.getResponseHeaders();
+        }
+
+        @Override
+        public URI getRequestURI() {
+            return exchange.getRequestURI();
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return exchange.getRequestMethod();
+        }
+
+        @Override
+        public HttpContext getHttpContext() {
+            return exchange.getHttpContext();
+        }
+
+        @Override
+        public InputStream getRequestBody() {
+            return exchange.getRequestBody();
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return exchange.getRemoteAddress();
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return exchange.getLocalAddress();
+        }
+
+        @Override
+        public String getProtocol() {
+            return exchange.getProtocol();
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return exchange.getAttribute(name);
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) {
+            exchange.setAttribute(name, value);
+        }
+
+        @Override
+        public HttpPrincipal getPrincipal() {
+            return exchange.getPrincipal();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package easymed;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// The single HttpHandler behind the server's "/" context. API routes are looked up by exact
+// path in a table built at startup, then by method, so /doctors and /doctors/categories no
+// longer depend on the order prefix contexts were registered in; any other path falls
+// through to the fallback handler (the static files).
+//
+// Every route runs behind the same middleware, compiled into a filter list once per route:
+//   metrics -> error mapping -> CORS and preflight -> overload shedding -> [route filters]
+//   -> method dispatch
+// where route filters are any added for that path with filter() (rate and concurrency limits).
+// Dispatch answers a method the route does not serve with 405 and an Allow header, and a
+// declared body larger than the endpoint accepts with 413, before the handler runs.
+// Preflights are answered by the CORS filter with Access-Control-Max-Age, so a browser asks
+// once per route instead of before every POST. All header values are fixed strings or are
+// computed when the route is registered, never per request.
+public final class Router implements HttpHandler {
+
+    private static final String ALLOW_ORIGIN = "*";
+    private static final String ALLOW_HEADERS = "Content-Type, Authorization";
+    // Browsers clamp this to their own ceiling (two hours in Chromium, one day in Firefox)
+    private static final String MAX_AGE = String.valueOf(Long.getLong("easymed.cors.maxAgeSeconds", 7200L));
+
+    private static final Filter ERRORS = new ErrorFilter();
+
+    private final Metrics metrics;
+    private final Filter overload;
+    private final HttpHandler fallback;
+    private final List<Filter> fallbackFilters;
+    // Filled in before the server starts and only read afterwards
+    private final Map<String, Route> routes = new HashMap<>();
+
+    public Router(Metrics metrics, Filter overload, HttpHandler fallback) {
+        this.metrics = metrics;
+        this.overload = overload;
+        this.fallback = fallback;
+        // Static files set their own CORS header and check their own methods
+        this.fallbackFilters = List.of(metrics.filter("/"), ERRORS, overload);
+    }
+
+    public Router get(String path, HttpHandler handler) {
+        return route("GET", path, handler, ApiRequests.MAX_BODY_BYTES);
+    }
+
+    public Router post(String path, HttpHandler handler) {
+        return route("POST", path, handler, ApiRequests.MAX_BODY_BYTES);
+    }
+
+    // Adds method + path; maxBodyBytes caps the declared Content-Length, -1 for no limit
+    public Router route(String method, String path, HttpHandler handler, long maxBodyBytes) {
+        Route route = routes.computeIfAbsent(path, Route::new);
+        if (route.endpoints.putIfAbsent(method, new Endpoint(handler, maxBodyBytes)) != null) {
+            throw new IllegalStateException(method + " " + path + " is already routed");
+        }
+        route.allow = String.join(", ", route.endpoints.keySet()) + ", OPTIONS";
+        return this;
+    }
+
+    // Appends filters to a routed path's chain, after the shared middleware
+    public Router filter(String path, Filter... filters) {
+        Route route = routes.get(path);
+        if (route == null) {
+            throw new IllegalStateException(path + " is not routed");
+        }
+        Collections.addAll(route.filters, filters);
+        return this;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        Route route = routes.get(exchange.getRequestURI().getPath());
+        // A Chain walks its filter list once, so each exchange needs its own
+        if (route == null) {
+            new Filter.Chain(fallbackFilters, fallback).doFilter(exchange);
+        } else {
+            new Filter.Chain(route.filters, route).doFilter(exchange);
+        }
+    }
+
+    private record Endpoint(HttpHandler handler, long maxBodyBytes) {
+    }
+
+    private final class Route implements HttpHandler {
+        final Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+        final List<Filter> filters;
+        // Allow / Access-Control-Allow-Methods value, e.g. "GET, POST, OPTIONS"
+        String allow;
+
+        Route(String path) {
+            this.filters = new ArrayList<>(List.of(metrics.filter(path), ERRORS, new CorsFilter(this), overload));
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            Endpoint endpoint = endpoints.get(exchange.getRequestMethod());
+            if (endpoint == null) {
+                exchange.getResponseHeaders().set("Allow", allow);
+                MedicalServer.sendJsonResponse(exchange, 405, "Method not allowed");
+                return;
+            }
+            String length = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (length != null && endpoint.maxBodyBytes() >= 0) {
+                long declared;
+                try {
+                    declared = Long.parseLong(length.trim());
+                } catch (NumberFormatException e) {
+                    MedicalServer.sendJsonResponse(exchange, 400, "Invalid Content-Length");
+                    return;
+                }
+                if (declared > endpoint.maxBodyBytes()) {
+                    MedicalServer.sendJsonResponse(exchange, 413, "Request body too large");
+                    return;
+                }
+            }
+            endpoint.handler().handle(exchange);
+        }
+    }
+
+    // Adds the CORS header to every response and answers preflights without going further
+    private static final class CorsFilter extends Filter {
+        private final Route route;
+
+        CorsFilter(Route route) {
+            this.route = route;
+        }
+
+        @Override
+        public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("Access-Control-Allow-Origin", ALLOW_ORIGIN);
+            if (!"OPTIONS".equals(exchange.getRequestMethod())) {
+                chain.doFilter(exchange);
+                return;
+            }
+            headers.set("Access-Control-Allow-Methods", route.allow);
+            headers.set("Access-Control-Allow-Headers", ALLOW_HEADERS);
+            headers.set("Access-Control-Max-Age", MAX_AGE);
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        }
+
+        @Override
+        public String description() {
+            return "Adds CORS headers and answers preflight requests";
+        }
+    }
+
+    // Turns what a handler lets escape into a response: a malformed or oversized JSON body
+    // into its 4xx and anything unexpected into a 500. Once the response has started the
+    // exchange can only be cut short. Other IOExceptions mean the client has gone away and
+    // are left to the server.
+    private static final class ErrorFilter extends Filter {
+        @Override
+        public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+            try {
+                chain.doFilter(exchange);
+            } catch (JsonReader.JsonException e) {
+                fail(exchange, e.status(), e.getMessage());
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                fail(exchange, 500, "Internal server error");
+            }
+        }
+
+        private static void fail(HttpExchange exchange, int status, String message) throws IOException {
+            if (exchange.getResponseCode() != -1) {
+                exchange.close();
+                return;
+            }
+            MedicalServer.sendJsonResponse(exchange, status, message);
+        }
+
+        @Override
+        public String description() {
+            return "Maps handler exceptions to error responses";
+        }
+    }
+}
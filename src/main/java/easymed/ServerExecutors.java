@@ -0,0 +1,250 @@
+package easymed;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Execution models for the HttpServer, selected with -Deasymed.executor:
+//   dispatcher - every exchange runs on the HttpServer dispatcher thread (the old setExecutor(null))
+//   bounded    - fixed platform thread pool with a bounded number of queued exchanges (default)
+//   virtual    - one virtual thread per exchange, capped at a maximum number in flight
+// When bounded or virtual mode is saturated the exchange is not queued; it is answered
+// with 503 and Retry-After by OverloadFilter instead.
+public final class ServerExecutors {
+
+    public static final String DISPATCHER = "dispatcher";
+    public static final String BOUNDED = "bounded";
+    public static final String VIRTUAL = "virtual";
+
+    // Set while a shed exchange is being answered on the dispatcher thread
+    private static final ThreadLocal<Boolean> SHEDDING = new ThreadLocal<>();
+    private static final LongAdder shedCount = new LongAdder();
+
+    private ServerExecutors() {
+    }
+
+    public static String configuredMode() {
+        return System.getProperty("easymed.executor", BOUNDED);
+    }
+
+    // Returns the executor for the given mode, or null for the dispatcher-thread mode
+    public static ExecutorService create(String mode) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        switch (mode) {
+            case DISPATCHER:
+                return null;
+            case BOUNDED: {
+                int threads = Integer.getInteger("easymed.executor.threads", cores * 4);
+                int queue = Integer.getInteger("easymed.executor.queue", 256);
+                ExecutorService pool = Executors.newFixedThreadPool(threads, namedThreads("http-worker"));
+                return new SheddingExecutor(pool, threads + queue);
+            }
+            case VIRTUAL: {
+                int maxInFlight = Integer.getInteger("easymed.executor.maxInFlight", 10_000);
+                return new SheddingExecutor(virtualThreadPerTask(), maxInFlight);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown executor mode: " + mode);
+        }
+    }
+
+    // Virtual threads need JDK 21; on older runtimes fall back to an unbounded cached pool
+    private static ExecutorService virtualThreadPerTask() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("Virtual threads not available on this JDK, using a cached thread pool");
+            return Executors.newCachedThreadPool(namedThreads("http-worker"));
+        }
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    public static long shedCount() {
+        return shedCount.sum();
+    }
+
+    // Admits at most maxInFlight exchanges (running plus queued). Anything past that runs
+    // straight away on the calling dispatcher thread, flagged so OverloadFilter rejects it
+    // without touching the handler.
+    static final class SheddingExecutor extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+
+        SheddingExecutor(ExecutorService delegate, int maxInFlight) {
+            this.delegate = delegate;
+            this.permits = new Semaphore(maxInFlight);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            if (!permits.tryAcquire()) {
+                shedCount.increment();
+                SHEDDING.set(Boolean.TRUE);
+                try {
+                    task.run();
+                } finally {
+                    SHEDDING.remove();
+                }
+                return;
+            }
+            try {
+                delegate.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+
+    // Answers exchanges shed by SheddingExecutor with 503 Service Unavailable
+    static final class OverloadFilter extends Filter {
+        private final String retryAfterSeconds = String.valueOf(Integer.getInteger("easymed.retryAfterSeconds", 1));
+
+        @Override
+        public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+            if (SHEDDING.get() == null) {
+                chain.doFilter(exchange);
+                return;
+            }
+            exchange.getResponseHeaders().add("Retry-After", retryAfterSeconds);
+            exchange.getResponseHeaders().add("Connection", "close");
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+        }
+
+        @Override
+        public String description() {
+            return "Rejects exchanges shed by an overloaded executor";
+        }
+    }
+
+    // Caps the requests in flight across the routes it guards, counting each one from
+    // admission until its response body is closed, so a login or registration handed to
+    // the password pool keeps its place after the HTTP thread is freed. Past the cap the
+    // exchange is answered with 503 and Retry-After at once rather than waiting for a
+    // database connection or a hashing thread. -Deasymed.maxConcurrentRequests (default 64)
+    static final class ConcurrencyLimitFilter extends Filter {
+        private final int maxInFlight;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final String retryAfterSeconds = String.valueOf(Integer.getInteger("easymed.retryAfterSeconds", 1));
+
+        ConcurrencyLimitFilter(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+        }
+
+        static ConcurrencyLimitFilter fromSystemProperties() {
+            return new ConcurrencyLimitFilter(Integer.getInteger("easymed.maxConcurrentRequests", 64));
+        }
+
+        int inFlight() {
+            return inFlight.get();
+        }
+
+        @Override
+        public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+            if (inFlight.incrementAndGet() > maxInFlight) {
+                inFlight.decrementAndGet();
+                shedCount.increment();
+                exchange.getResponseHeaders().add("Retry-After", retryAfterSeconds);
+                MedicalServer.sendJsonResponse(exchange, 503, "Server busy, please retry");
+                return;
+            }
+            Permit permit = new Permit(exchange.getResponseBody());
+            exchange.setStreams(null, permit);
+            try {
+                chain.doFilter(exchange);
+            } catch (IOException | RuntimeException e) {
+                // The server drops the connection without closing the body
+                permit.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public String description() {
+            return "Sheds requests past the concurrency limit";
+        }
+
+        // Response body that gives the slot back when it is closed
+        private final class Permit extends FilterOutputStream {
+            private final AtomicBoolean released = new AtomicBoolean();
+
+            Permit(OutputStream out) {
+                super(out);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    out.close();
+                } finally {
+                    release();
+                }
+            }
+
+            void release() {
+                if (released.compareAndSet(false, true)) {
+                    inFlight.decrementAndGet();
+                }
+            }
+        }
+    }
+}
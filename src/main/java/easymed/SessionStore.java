@@ -0,0 +1,154 @@
+package easymed;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// Login sessions kept in memory. A token is base64url(patient id, expiry, 16 random bytes)
+// followed by "." and an HMAC-SHA256 of that payload, so a forged or tampered token is
+// rejected with one MAC and no map lookup, and an authenticated request needs no database
+// round trip to learn who the patient is. The store still records every live session so
+// it can be revoked, and forgets it once it expires.
+public class SessionStore {
+
+    public static final String COOKIE_NAME = "easymed_session";
+
+    private static final int PAYLOAD_BYTES = 4 + 8 + 16;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    private final long ttlMillis;
+    private final SecureRandom random = new SecureRandom();
+    // Mac is not thread-safe and costly to look up, so each thread keeps its own
+    private final ThreadLocal<Mac> macs;
+    // payload part of the token -> expiry (epoch millis)
+    private final ConcurrentHashMap<String, Long> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweepMillis = new AtomicLong();
+
+    public SessionStore(byte[] secret, long ttlSeconds) {
+        this.key = new SecretKeySpec(secret, "HmacSHA256");
+        this.ttlMillis = ttlSeconds * 1000L;
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 not available", e);
+            }
+        });
+    }
+
+    // Builds a store from -Deasymed.session.secret (random per start when unset, which
+    // signs everyone out on restart) and -Deasymed.session.ttlSeconds (default 3600)
+    public static SessionStore fromSystemProperties() {
+        String configured = System.getProperty("easymed.session.secret");
+        byte[] secret;
+        if (configured != null && !configured.isEmpty()) {
+            secret = configured.getBytes(StandardCharsets.UTF_8);
+        } else {
+            secret = new byte[32];
+            new SecureRandom().nextBytes(secret);
+        }
+        return new SessionStore(secret, Long.getLong("easymed.session.ttlSeconds", 3600L));
+    }
+
+    public long ttlSeconds() {
+        return ttlMillis / 1000;
+    }
+
+    // Starts a session for the patient and returns its token
+    public String issue(int patientId) {
+        long now = System.currentTimeMillis();
+        sweep(now);
+        byte[] nonce = new byte[16];
+        random.nextBytes(nonce);
+        long expires = now + ttlMillis;
+        String payload = ENCODER.encodeToString(ByteBuffer.allocate(PAYLOAD_BYTES)
+                .putInt(patientId).putLong(expires).put(nonce).array());
+        sessions.put(payload, expires);
+        return payload + "." + ENCODER.encodeToString(sign(payload));
+    }
+
+    // Returns the patient id of a live session, or null for a missing, forged, expired or
+    // revoked token
+    public Integer validate(String token) {
+        if (token == null) {
+            return null;
+        }
+        int dot = token.indexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        String payload = token.substring(0, dot);
+        byte[] raw;
+        byte[] signature;
+        try {
+            raw = DECODER.decode(payload);
+            signature = DECODER.decode(token.substring(dot + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (raw.length != PAYLOAD_BYTES || !MessageDigest.isEqual(signature, sign(payload))) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(raw);
+        int patientId = buffer.getInt();
+        long expires = buffer.getLong();
+        if (expires <= System.currentTimeMillis()) {
+            sessions.remove(payload);
+            return null;
+        }
+        return sessions.containsKey(payload) ? patientId : null;
+    }
+
+    // Looks for a token in "Authorization: Bearer ..." first, then in the session cookie
+    public Integer validate(HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization != null && authorization.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            return validate(authorization.substring(7).trim());
+        }
+        String cookies = exchange.getRequestHeaders().getFirst("Cookie");
+        if (cookies != null) {
+            for (String cookie : cookies.split(";")) {
+                String c = cookie.trim();
+                if (c.startsWith(COOKIE_NAME + "=")) {
+                    return validate(c.substring(COOKIE_NAME.length() + 1));
+                }
+            }
+        }
+        return null;
+    }
+
+    public void revoke(String token) {
+        int dot = token == null ? -1 : token.indexOf('.');
+        if (dot > 0) {
+            sessions.remove(token.substring(0, dot));
+        }
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    // Drops expired sessions at most once a minute, piggybacking on issue()
+    private void sweep(long now) {
+        long next = nextSweepMillis.get();
+        if (now >= next && nextSweepMillis.compareAndSet(next, now + 60_000L)) {
+            sessions.values().removeIf(expires -> expires <= now);
+        }
+    }
+
+    private byte[] sign(String payload) {
+        return macs.get().doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+    }
+}
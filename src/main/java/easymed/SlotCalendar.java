@@ -0,0 +1,179 @@
+package easymed;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// In-memory calendar of every booked (doctor, date, time) slot, loaded from the appointments
+// table at startup. Bookings claim their slot here before the row is written, so two
+// patients racing for the same slot are resolved without touching SQLite: exactly one
+// putIfAbsent wins. Each doctor has their own skip list, so bookings for different
+// doctors never contend on anything. The unique index on appointments(doctor_id, date,
+// time) stays the source of truth if another process writes to the same file.
+public class SlotCalendar {
+
+    // Outcome of reserve(); INVALID means the date/time is unparseable or off the slot grid
+    public enum Reservation { RESERVED, TAKEN, INVALID }
+
+    // Canonical slot in the form stored in appointments.date / appointments.time
+    public record Slot(String date, String time) {
+    }
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private final int openMinute;
+    private final int closeMinute;
+    private final int slotMinutes;
+    private final int maxRangeDays;
+
+    // doctor id -> booked slot keys (epoch day * 1440 + minute of day)
+    private final ConcurrentHashMap<Integer, ConcurrentSkipListMap<Long, Boolean>> booked = new ConcurrentHashMap<>();
+
+    public SlotCalendar(LocalTime open, LocalTime close, int slotMinutes, int maxRangeDays) {
+        if (slotMinutes <= 0 || !close.isAfter(open)) {
+            throw new IllegalArgumentException("Invalid slot grid " + open + "-" + close + "/" + slotMinutes);
+        }
+        this.openMinute = open.getHour() * 60 + open.getMinute();
+        this.closeMinute = close.getHour() * 60 + close.getMinute();
+        this.slotMinutes = slotMinutes;
+        this.maxRangeDays = maxRangeDays;
+    }
+
+    // Builds a calendar from -Deasymed.slots.open, -Deasymed.slots.close (HH:mm, default
+    // 09:00-17:00), -Deasymed.slots.minutes (default 30) and -Deasymed.slots.maxRangeDays
+    // (default 31, the widest range one free-slots request may ask for)
+    public static SlotCalendar fromSystemProperties() {
+        return new SlotCalendar(
+                LocalTime.parse(System.getProperty("easymed.slots.open", "09:00")),
+                LocalTime.parse(System.getProperty("easymed.slots.close", "17:00")),
+                Integer.getInteger("easymed.slots.minutes", 30),
+                Integer.getInteger("easymed.slots.maxRangeDays", 31));
+    }
+
+    // Loads every existing booking and returns the number of slots held. Rows whose date or
+    // time cannot be parsed are skipped; they can never collide with a canonical booking.
+    public int load(AppointmentRepository appointments) throws SQLException {
+        int[] count = new int[1];
+        appointments.forEach(0, a -> {
+            long key = key(a.date(), a.time());
+            if (key >= 0 && calendar(a.doctorId()).putIfAbsent(key, Boolean.TRUE) == null) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    // Parses a client-supplied date and time into the canonical yyyy-MM-dd / HH:mm form,
+    // or returns null if either is malformed, the time is not on the slot grid or the slot
+    // has already started (server local time)
+    public Slot normalize(String date, String time) {
+        long key = key(date, time);
+        if (key < 0 || !onGrid((int) (key % MINUTES_PER_DAY)) || key < currentKey()) {
+            return null;
+        }
+        return slot(key);
+    }
+
+    // Atomically claims a slot for a doctor
+    public Reservation reserve(int doctorId, Slot slot) {
+        long key = key(slot.date(), slot.time());
+        if (key < 0) {
+            return Reservation.INVALID;
+        }
+        return calendar(doctorId).putIfAbsent(key, Boolean.TRUE) == null ? Reservation.RESERVED : Reservation.TAKEN;
+    }
+
+    // Gives back a slot claimed by reserve() whose appointment row could not be written
+    public void release(int doctorId, Slot slot) {
+        long key = key(slot.date(), slot.time());
+        ConcurrentSkipListMap<Long, Boolean> slots = booked.get(doctorId);
+        if (key >= 0 && slots != null) {
+            slots.remove(key);
+        }
+    }
+
+    public int maxRangeDays() {
+        return maxRangeDays;
+    }
+
+    public int slotMinutes() {
+        return slotMinutes;
+    }
+
+    // Renders {"doctorId":..,"slotMinutes":..,"days":[{"date":"..","free":["09:00",..]},..]}
+    // for every day in [from, to], walking only this doctor's bookings in that range
+    public String freeSlotsJson(int doctorId, LocalDate from, LocalDate to) {
+        NavigableMap<Long, Boolean> taken = booked.getOrDefault(doctorId, new ConcurrentSkipListMap<>())
+                .subMap(from.toEpochDay() * MINUTES_PER_DAY, true, (to.toEpochDay() + 1) * MINUTES_PER_DAY, false);
+        StringBuilder sb = new StringBuilder(64 + 16 * (int) (to.toEpochDay() - from.toEpochDay() + 1)
+                * ((closeMinute - openMinute) / slotMinutes));
+        sb.append("{\"doctorId\":").append(doctorId).append(",\"slotMinutes\":").append(slotMinutes).append(",\"days\":[");
+        for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+            if (!day.equals(from)) sb.append(',');
+            sb.append("{\"date\":\"").append(day).append("\",\"free\":[");
+            long base = day.toEpochDay() * MINUTES_PER_DAY;
+            boolean first = true;
+            for (int minute = openMinute; minute + slotMinutes <= closeMinute; minute += slotMinutes) {
+                if (taken.containsKey(base + minute)) {
+                    continue;
+                }
+                if (!first) sb.append(',');
+                first = false;
+                sb.append('"');
+                appendTime(sb, minute);
+                sb.append('"');
+            }
+            sb.append("]}");
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    private static long currentKey() {
+        LocalDateTime now = LocalDateTime.now();
+        return now.toLocalDate().toEpochDay() * MINUTES_PER_DAY + now.getHour() * 60 + now.getMinute();
+    }
+
+    private ConcurrentSkipListMap<Long, Boolean> calendar(int doctorId) {
+        return booked.computeIfAbsent(doctorId, id -> new ConcurrentSkipListMap<>());
+    }
+
+    private boolean onGrid(int minute) {
+        return minute >= openMinute && minute + slotMinutes <= closeMinute && (minute - openMinute) % slotMinutes == 0;
+    }
+
+    // Seconds are dropped so "09:30" and "09:30:00" name the same slot; -1 if unparseable
+    private static long key(String date, String time) {
+        if (date == null || time == null) {
+            return -1;
+        }
+        try {
+            LocalDate d = LocalDate.parse(date.trim());
+            LocalTime t = LocalTime.parse(time.trim());
+            if (d.toEpochDay() < 0) {
+                return -1;
+            }
+            return d.toEpochDay() * MINUTES_PER_DAY + t.getHour() * 60 + t.getMinute();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private static Slot slot(long key) {
+        StringBuilder time = new StringBuilder(5);
+        appendTime(time, (int) (key % MINUTES_PER_DAY));
+        return new Slot(LocalDate.ofEpochDay(key / MINUTES_PER_DAY).toString(), time.toString());
+    }
+
+    private static void appendTime(StringBuilder sb, int minute) {
+        int h = minute / 60;
+        int m = minute % 60;
+        sb.append((char) ('0' + h / 10)).append((char) ('0' + h % 10)).append(':')
+                .append((char) ('0' + m / 10)).append((char) ('0' + m % 10));
+    }
+}
@@ -0,0 +1,397 @@
+package easymed;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// The SQLite engine: the repositories run the statements the handlers used to inline, on the
+// WAL reader pool and the single writer of a ConnectionManager. Appointment and symptom
+// inserts are group-committed through the WriteBatcher; registrations, password upgrades and
+// doctors are written directly. SQLITE_CONSTRAINT failures on the unique keys come back as
+// DuplicateKeyException.
+public final class SqliteStorage implements Storage {
+
+    // SQLite primary result code for constraint violations (UNIQUE, NOT NULL, ...)
+    private static final int SQLITE_CONSTRAINT = 19;
+
+    private static final String PATIENT_COLUMNS =
+            "id, patient_name, father_name, cnic, email, password, phone, age, disease";
+    private static final String APPOINTMENT_COLUMNS = "id, doctor_id, patient_id, date, time, message, disease";
+
+    // Both history queries are answered from idx_appointments_patient_date /
+    // idx_symptoms_patient_history alone; the row value comparison lets SQLite seek to the
+    // cursor inside the index
+    private static final String APPOINTMENTS_FIRST =
+            "SELECT " + APPOINTMENT_COLUMNS + " FROM appointments " +
+            "WHERE patient_id = ? ORDER BY date DESC, time DESC, id DESC LIMIT ?";
+    private static final String APPOINTMENTS_AFTER =
+            "SELECT " + APPOINTMENT_COLUMNS + " FROM appointments " +
+            "WHERE patient_id = ? AND (date, time, id) < (?, ?, ?) ORDER BY date DESC, time DESC, id DESC LIMIT ?";
+    private static final String SYMPTOMS_FIRST =
+            "SELECT id, patient_id, symptoms, medicines FROM symptoms WHERE patient_id = ? ORDER BY id DESC LIMIT ?";
+    private static final String SYMPTOMS_BEFORE =
+            "SELECT id, patient_id, symptoms, medicines FROM symptoms WHERE patient_id = ? AND id < ? ORDER BY id DESC LIMIT ?";
+
+    private final ConnectionManager db;
+    private final WriteBatcher writeBatcher;
+    private final Path file;
+    private final DoctorRepository doctors = new Doctors();
+    private final PatientRepository patients = new Patients();
+    private final AppointmentRepository appointments = new Appointments();
+    private final SymptomRepository symptoms = new Symptoms();
+
+    public SqliteStorage(ConnectionManager db, WriteBatcher writeBatcher, Path file) {
+        this.db = db;
+        this.writeBatcher = writeBatcher;
+        this.file = file;
+    }
+
+    // Opens -Deasymed.db (default medical.db) with the ConnectionManager and WriteBatcher
+    // settings and creates any missing tables and indexes
+    public static SqliteStorage fromSystemProperties() throws SQLException {
+        ConnectionManager db = ConnectionManager.fromSystemProperties();
+        MedicalServer.createSchema(db);
+        return new SqliteStorage(db, WriteBatcher.fromSystemProperties(db),
+                Paths.get(System.getProperty("easymed.db", "medical.db")));
+    }
+
+    public ConnectionManager db() {
+        return db;
+    }
+
+    public WriteBatcher writeBatcher() {
+        return writeBatcher;
+    }
+
+    @Override
+    public DoctorRepository doctors() {
+        return doctors;
+    }
+
+    @Override
+    public PatientRepository patients() {
+        return patients;
+    }
+
+    @Override
+    public AppointmentRepository appointments() {
+        return appointments;
+    }
+
+    @Override
+    public SymptomRepository symptoms() {
+        return symptoms;
+    }
+
+    @Override
+    public Path file() {
+        return file;
+    }
+
+    // Pool stats with the group-commit stats appended
+    @Override
+    public String statsJson() {
+        String pool = db.statsJson();
+        return pool.substring(0, pool.length() - 1) + ",\"writeBatches\":" + writeBatcher.statsJson() + "}";
+    }
+
+    // Commits anything still batched, then closes the connections
+    @Override
+    public void close() {
+        writeBatcher.close();
+        db.close();
+    }
+
+    private static int generatedId(PreparedStatement ps) throws SQLException {
+        try (ResultSet rs = ps.getGeneratedKeys()) {
+            return rs.next() ? rs.getInt(1) : -1;
+        }
+    }
+
+    private final class Doctors implements DoctorRepository {
+        @Override
+        public List<DoctorDirectory.Doctor> findAll() throws SQLException {
+            return db.read(connection -> {
+                try (Statement stmt = connection.createStatement();
+                     ResultSet rs = stmt.executeQuery("SELECT id, name, category, experience, phone FROM doctors ORDER BY id")) {
+                    List<DoctorDirectory.Doctor> result = new ArrayList<>();
+                    while (rs.next()) {
+                        result.add(new DoctorDirectory.Doctor(rs.getInt("id"), rs.getString("name"),
+                                rs.getString("category"), rs.getInt("experience"), rs.getString("phone")));
+                    }
+                    return result;
+                }
+            });
+        }
+
+        @Override
+        public int insert(DoctorDirectory.Doctor doctor) throws SQLException {
+            return db.write(connection -> {
+                PreparedStatement ps = db.prepare(connection,
+                        "INSERT INTO doctors (name, category, experience, phone) VALUES (?, ?, ?, ?)",
+                        Statement.RETURN_GENERATED_KEYS);
+                ps.setString(1, doctor.name());
+                ps.setString(2, doctor.category());
+                ps.setInt(3, doctor.experience());
+                ps.setString(4, doctor.phone());
+                ps.executeUpdate();
+                return generatedId(ps);
+            });
+        }
+    }
+
+    private final class Patients implements PatientRepository {
+        @Override
+        public int insert(Patient patient) throws SQLException {
+            try {
+                return db.write(connection -> {
+                    PreparedStatement ps = db.prepare(connection,
+                            "INSERT INTO patients (patient_name, father_name, cnic, email, password, phone, age, disease) VALUES (?, ?, ?, ?, ?, ?, ?, ?)",
+                            Statement.RETURN_GENERATED_KEYS);
+                    ps.setString(1, patient.patientName());
+                    ps.setString(2, patient.fatherName());
+                    ps.setString(3, patient.cnic());
+                    ps.setString(4, patient.email());
+                    ps.setString(5, patient.password());
+                    ps.setString(6, patient.phone());
+                    ps.setInt(7, patient.age());
+                    ps.setString(8, patient.disease());
+                    ps.executeUpdate();
+                    return generatedId(ps);
+                });
+            } catch (SQLException e) {
+                String message = String.valueOf(e.getMessage());
+                if (message.contains("UNIQUE constraint failed")) {
+                    throw new DuplicateKeyException(message.contains("cnic") ? "cnic"
+                            : message.contains("email") ? "email" : null, e);
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public Patient findById(int id) throws SQLException {
+            return db.read(connection -> {
+                PreparedStatement ps = db.prepare(connection, "SELECT " + PATIENT_COLUMNS + " FROM patients WHERE id = ?");
+                ps.setInt(1, id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? patient(rs) : null;
+                }
+            });
+        }
+
+        // cnic is indexed through its UNIQUE constraint, phone by idx_patients_phone
+        @Override
+        public List<Patient> findByCnicOrPhone(String login) throws SQLException {
+            return db.read(connection -> {
+                PreparedStatement ps = db.prepare(connection,
+                        "SELECT " + PATIENT_COLUMNS + " FROM patients WHERE cnic = ? OR phone = ?");
+                ps.setString(1, login);
+                ps.setString(2, login);
+                try (ResultSet rs = ps.executeQuery()) {
+                    List<Patient> result = new ArrayList<>();
+                    while (rs.next()) {
+                        result.add(patient(rs));
+                    }
+                    return result;
+                }
+            });
+        }
+
+        @Override
+        public boolean updatePassword(int id, String oldHash, String newHash) throws SQLException {
+            return db.write(connection -> {
+                PreparedStatement ps = db.prepare(connection,
+                        "UPDATE patients SET password = ? WHERE id = ? AND password = ?");
+                ps.setString(1, newHash);
+                ps.setInt(2, id);
+                ps.setString(3, oldHash);
+                return ps.executeUpdate() > 0;
+            });
+        }
+
+        @Override
+        public void forEach(Consumer<Patient> action) throws SQLException {
+            db.read(connection -> {
+                try (Statement stmt = connection.createStatement();
+                     ResultSet rs = stmt.executeQuery("SELECT " + PATIENT_COLUMNS + " FROM patients ORDER BY id")) {
+                    while (rs.next()) {
+                        action.accept(patient(rs));
+                    }
+                }
+                return null;
+            });
+        }
+
+        private Patient patient(ResultSet rs) throws SQLException {
+            return new Patient(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5),
+                    rs.getString(6), rs.getString(7), rs.getInt(8), rs.getString(9));
+        }
+    }
+
+    private final class Appointments implements AppointmentRepository {
+        @Override
+        public int insert(Appointment appointment) throws SQLException {
+            try {
+                return writeBatcher.submit(connection -> {
+                    PreparedStatement ps = db.prepare(connection,
+                            "INSERT INTO appointments (doctor_id, patient_id, date, time, message, disease) VALUES (?, ?, ?, ?, ?, ?)",
+                            Statement.RETURN_GENERATED_KEYS);
+                    ps.setInt(1, appointment.doctorId());
+                    ps.setInt(2, appointment.patientId());
+                    ps.setString(3, appointment.date());
+                    ps.setString(4, appointment.time());
+                    ps.setString(5, appointment.message());
+                    ps.setString(6, appointment.disease());
+                    ps.executeUpdate();
+                    return generatedId(ps);
+                });
+            } catch (SQLException e) {
+                if (e.getErrorCode() == SQLITE_CONSTRAINT) {
+                    throw new DuplicateKeyException("doctor_id, date, time", e);
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public int findByPatient(int patientId, String afterDate, String afterTime, int afterId, int limit,
+                                 RowVisitor<Appointment> visitor) throws SQLException, IOException {
+            List<Appointment> page = db.read(connection -> {
+                PreparedStatement ps = db.prepare(connection, afterDate == null ? APPOINTMENTS_FIRST : APPOINTMENTS_AFTER);
+                int p = 1;
+                ps.setInt(p++, patientId);
+                if (afterDate != null) {
+                    ps.setString(p++, afterDate);
+                    ps.setString(p++, afterTime);
+                    ps.setInt(p++, afterId);
+                }
+                ps.setInt(p, limit);
+                try (ResultSet rs = ps.executeQuery()) {
+                    List<Appointment> rows = new ArrayList<>(Math.min(limit, 128));
+                    while (rs.next()) {
+                        rows.add(appointment(rs));
+                    }
+                    return rows;
+                }
+            });
+            return visitAll(page, visitor);
+        }
+
+        @Override
+        public void forEach(long afterId, Consumer<Appointment> action) throws SQLException {
+            db.read(connection -> {
+                try (PreparedStatement ps = connection.prepareStatement(
+                        "SELECT " + APPOINTMENT_COLUMNS + " FROM appointments WHERE id > ? ORDER BY id")) {
+                    ps.setLong(1, afterId);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            action.accept(appointment(rs));
+                        }
+                    }
+                }
+                return null;
+            });
+        }
+
+        @Override
+        public boolean exists(long id) throws SQLException {
+            return rowExists("appointments", id);
+        }
+
+        private Appointment appointment(ResultSet rs) throws SQLException {
+            return new Appointment(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getString(4), rs.getString(5),
+                    rs.getString(6), rs.getString(7));
+        }
+    }
+
+    private final class Symptoms implements SymptomRepository {
+        @Override
+        public int insert(SymptomCheck check) throws SQLException {
+            return writeBatcher.submit(connection -> {
+                PreparedStatement ps = db.prepare(connection,
+                        "INSERT INTO symptoms (patient_id, symptoms, medicines) VALUES (?, ?, ?)",
+                        Statement.RETURN_GENERATED_KEYS);
+                ps.setInt(1, check.patientId());
+                ps.setString(2, check.symptoms());
+                ps.setString(3, check.medicines());
+                ps.executeUpdate();
+                return generatedId(ps);
+            });
+        }
+
+        @Override
+        public int findByPatient(int patientId, int beforeId, int limit, RowVisitor<SymptomCheck> visitor)
+                throws SQLException, IOException {
+            List<SymptomCheck> page = db.read(connection -> {
+                PreparedStatement ps = db.prepare(connection, beforeId == 0 ? SYMPTOMS_FIRST : SYMPTOMS_BEFORE);
+                int p = 1;
+                ps.setInt(p++, patientId);
+                if (beforeId != 0) {
+                    ps.setInt(p++, beforeId);
+                }
+                ps.setInt(p, limit);
+                try (ResultSet rs = ps.executeQuery()) {
+                    List<SymptomCheck> rows = new ArrayList<>(Math.min(limit, 128));
+                    while (rs.next()) {
+                        rows.add(symptomCheck(rs));
+                    }
+                    return rows;
+                }
+            });
+            return visitAll(page, visitor);
+        }
+
+        @Override
+        public void forEach(long afterId, Consumer<SymptomCheck> action) throws SQLException {
+            db.read(connection -> {
+                try (PreparedStatement ps = connection.prepareStatement(
+                        "SELECT id, patient_id, symptoms, medicines FROM symptoms WHERE id > ? ORDER BY id")) {
+                    ps.setLong(1, afterId);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            action.accept(symptomCheck(rs));
+                        }
+                    }
+                }
+                return null;
+            });
+        }
+
+        @Override
+        public boolean exists(long id) throws SQLException {
+            return rowExists("symptoms", id);
+        }
+
+        private SymptomCheck symptomCheck(ResultSet rs) throws SQLException {
+            return new SymptomCheck(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getString(4));
+        }
+    }
+
+    // A page is read in full and the read connection given back before the visitor sees any
+    // row: the visitor writes to the client, and a slow or stalled client must not pin one of
+    // the few pooled readers (a page of long messages is far bigger than any socket buffer)
+    private static <T> int visitAll(List<T> page, RowVisitor<T> visitor) throws IOException {
+        for (T row : page) {
+            visitor.visit(row);
+        }
+        return page.size();
+    }
+
+    private boolean rowExists(String table, long id) throws SQLException {
+        return db.read(connection -> {
+            PreparedStatement ps = db.prepare(connection, "SELECT 1 FROM " + table + " WHERE id = ?");
+            ps.setLong(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        });
+    }
+}
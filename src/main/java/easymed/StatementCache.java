@@ -0,0 +1,90 @@
+package easymed;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Bounded LRU cache of prepared statements for one connection. A connection is only ever
+// used by one thread at a time (it is checked out of ConnectionManager), so the cache
+// itself needs no locking. Statements handed out must not be closed by the caller.
+public class StatementCache {
+
+    // Hit/miss counters shared by every connection's cache
+    public static final class Counters {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+
+        public String toJson() {
+            long h = hits.sum();
+            long m = misses.sum();
+            double ratio = h + m == 0 ? 0 : (double) h / (h + m);
+            return "{\"hits\":" + h + ",\"misses\":" + m + ",\"evictions\":" + evictions.sum() +
+                    ",\"hitRatio\":" + String.format(Locale.ROOT, "%.4f", ratio) + "}";
+        }
+    }
+
+    private final Connection connection;
+    private final Counters counters;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+
+    public StatementCache(Connection connection, int maxSize, Counters counters) {
+        this.connection = connection;
+        this.counters = counters;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= maxSize) {
+                    return false;
+                }
+                counters.evictions.increment();
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    public PreparedStatement prepare(String sql) throws SQLException {
+        return prepare(sql, Statement.NO_GENERATED_KEYS);
+    }
+
+    // Returns a cached statement with its parameters cleared, preparing it on a miss
+    public PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "K:" + sql : sql;
+        PreparedStatement ps = statements.get(key);
+        if (ps != null && !ps.isClosed()) {
+            counters.hits.increment();
+            ps.clearParameters();
+            return ps;
+        }
+        counters.misses.increment();
+        ps = connection.prepareStatement(sql, autoGeneratedKeys);
+        statements.put(key, ps);
+        return ps;
+    }
+
+    public int size() {
+        return statements.size();
+    }
+
+    // Closes every cached statement; called when the owning connection is retired
+    public void clear() {
+        for (PreparedStatement ps : statements.values()) {
+            closeQuietly(ps);
+        }
+        statements.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package easymed;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+// Serves the frontend files from the web root. Files are read once and kept in memory
+// together with a gzip variant and a content-hash ETag; a WatchService drops entries as
+// soon as the file changes on disk. Only directories a cached file came from are watched,
+// so target/, audit/ and the like never wake the watcher. Conditional requests get 304, and
+// files above the cache limit are copied to the response in chunks instead of being
+// buffered whole (a plain stream copy: HttpExchange exposes no channel to sendfile into).
+//
+// Only known asset types under the web root are served, so the database, sources and
+// jars sitting next to the HTML are never exposed, and neither ../ nor a symlink can
+// escape the root.
+public class StaticAssets {
+
+    private static final Map<String, String> CONTENT_TYPES = Map.of(
+            "html", "text/html; charset=utf-8",
+            "css", "text/css; charset=utf-8",
+            "js", "application/javascript; charset=utf-8",
+            "png", "image/png",
+            "jpg", "image/jpeg",
+            "jpeg", "image/jpeg",
+            "gif", "image/gif",
+            "svg", "image/svg+xml",
+            "ico", "image/x-icon",
+            "webp", "image/webp");
+
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME;
+
+    // One cached file; gzip is null when compressing would not help
+    static final class Asset {
+        final String contentType;
+        final byte[] identity;
+        final byte[] gzip;
+        final String etag;
+        final String gzipEtag;
+        final long lastModifiedMillis;
+        final String lastModified;
+
+        Asset(String contentType, byte[] identity, byte[] gzip, String etag, long lastModifiedMillis) {
+            this.contentType = contentType;
+            this.identity = identity;
+            this.gzip = gzip;
+            this.etag = etag;
+            // Each encoding is a different representation, so it gets its own strong ETag
+            this.gzipEtag = etag.substring(0, etag.length() - 1) + "-gz\"";
+            this.lastModifiedMillis = lastModifiedMillis;
+            this.lastModified = HTTP_DATE.format(ZonedDateTime.ofInstant(
+                    Instant.ofEpochMilli(lastModifiedMillis), ZoneOffset.UTC));
+        }
+    }
+
+    private final Path root;
+    private final long maxCachedBytes;
+    private final Map<Path, Asset> cache = new ConcurrentHashMap<>();
+    private final WatchService watcher;
+    private final Set<Path> watchedDirs = ConcurrentHashMap.newKeySet();
+
+    public StaticAssets(Path root, long maxCachedBytes) throws IOException {
+        this.root = root.toRealPath();
+        this.maxCachedBytes = maxCachedBytes;
+        this.watcher = startWatcher();
+    }
+
+    public void serve(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            exchange.getResponseHeaders().add("Allow", "GET, HEAD");
+            exchange.sendResponseHeaders(405, -1);
+            exchange.close();
+            return;
+        }
+        Path file = resolve(exchange.getRequestURI().getPath());
+        if (file == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+
+        Asset asset = cache.get(file);
+        if (asset == null) {
+            long size = Files.size(file);
+            if (size > maxCachedBytes) {
+                streamLarge(exchange, file, size);
+                return;
+            }
+            watch(file.getParent());
+            asset = load(file);
+            cache.put(file, asset);
+            if (Files.getLastModifiedTime(file).toMillis() != asset.lastModifiedMillis) {
+                // Changed while loading; the watcher may already have fired, so drop it here
+                cache.remove(file);
+            }
+        }
+
+        boolean gzip = asset.gzip != null && acceptsGzip(exchange);
+        String etag = gzip ? asset.gzipEtag : asset.etag;
+        exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+        exchange.getResponseHeaders().add("Content-Type", asset.contentType);
+        exchange.getResponseHeaders().add("ETag", etag);
+        exchange.getResponseHeaders().add("Last-Modified", asset.lastModified);
+        exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+        exchange.getResponseHeaders().add("Vary", "Accept-Encoding");
+
+        if (notModified(exchange, etag, asset.lastModifiedMillis)) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+
+        byte[] body = asset.identity;
+        if (gzip) {
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            body = asset.gzip;
+        }
+        if ("HEAD".equals(method)) {
+            exchange.getResponseHeaders().add("Content-Length", String.valueOf(body.length));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    // Maps a request path onto a servable file under the root, or null
+    Path resolve(String requestPath) {
+        if (requestPath == null || requestPath.isEmpty() || requestPath.equals("/")) {
+            requestPath = "/index.html";
+        }
+        if (requestPath.indexOf('\0') >= 0 || requestPath.indexOf('\\') >= 0) {
+            return null;
+        }
+        if (contentType(requestPath) == null) {
+            return null;
+        }
+        try {
+            Path candidate = root.resolve(requestPath.substring(1)).normalize();
+            if (!candidate.startsWith(root) || !Files.isRegularFile(candidate, LinkOption.NOFOLLOW_LINKS)) {
+                return null;
+            }
+            for (Path part : root.relativize(candidate)) {
+                if (part.toString().startsWith(".")) {
+                    return null;
+                }
+            }
+            // NOFOLLOW_LINKS only covers the file itself; a linked directory on the way
+            // could still point outside the root
+            Path real = candidate.toRealPath();
+            return real.startsWith(root) ? real : null;
+        } catch (InvalidPathException | IOException e) {
+            return null;
+        }
+    }
+
+    private Asset load(Path file) throws IOException {
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        byte[] identity = Files.readAllBytes(file);
+        String contentType = contentType(file.getFileName().toString());
+
+        byte[] gzip = null;
+        if (contentType.startsWith("text/") || contentType.startsWith("application/") || contentType.contains("svg")) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(identity.length / 3 + 64);
+            try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+                gz.write(identity);
+            }
+            if (out.size() < identity.length) {
+                gzip = out.toByteArray();
+            }
+        }
+        return new Asset(contentType, identity, gzip, etagFor(identity), lastModified);
+    }
+
+    // Files over the cache limit are copied to the response without being held in memory
+    private void streamLarge(HttpExchange exchange, Path file, long size) throws IOException {
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+        exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+        exchange.getResponseHeaders().add("Content-Type", contentType(file.getFileName().toString()));
+        exchange.getResponseHeaders().add("ETag", etag);
+        exchange.getResponseHeaders().add("Last-Modified", HTTP_DATE.format(
+                ZonedDateTime.ofInstant(Instant.ofEpochMilli(lastModified), ZoneOffset.UTC)));
+        exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+        if (notModified(exchange, etag, lastModified)) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().add("Content-Length", String.valueOf(size));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(200, size);
+        try (OutputStream os = exchange.getResponseBody()) {
+            Files.copy(file, os);
+        }
+    }
+
+    private static boolean notModified(HttpExchange exchange, String etag, long lastModifiedMillis) {
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch != null) {
+            // If-None-Match takes precedence over If-Modified-Since when both are sent
+            return etagMatches(ifNoneMatch, etag);
+        }
+        String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            try {
+                long since = ZonedDateTime.parse(ifModifiedSince.trim(), HTTP_DATE).toInstant().toEpochMilli();
+                return lastModifiedMillis / 1000 <= since / 1000;
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    static boolean etagMatches(String header, String etag) {
+        if (header == null) {
+            return false;
+        }
+        if (header.equals(etag)) {
+            // A browser revalidating its one cached copy
+            return true;
+        }
+        for (String candidate : header.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean acceptsGzip(HttpExchange exchange) {
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        return accept != null && accept.contains("gzip") && !accept.contains("gzip;q=0");
+    }
+
+    static String etagFor(byte[] content) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+            return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(hash).substring(0, 22) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 algorithm not available", e);
+        }
+    }
+
+    static String contentType(String path) {
+        int dot = path.lastIndexOf('.');
+        if (dot < 0 || path.lastIndexOf('/') > dot) {
+            return null;
+        }
+        return CONTENT_TYPES.get(path.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    // Evicts cached files when they change. Directories are added by watch() as files from
+    // them are cached; a file that was never cached needs no eviction.
+    private WatchService startWatcher() {
+        WatchService service;
+        try {
+            service = root.getFileSystem().newWatchService();
+        } catch (IOException e) {
+            System.err.println("Static file watching unavailable, cached files will not refresh: " + e.getMessage());
+            return null;
+        }
+        Thread t = new Thread(() -> watchLoop(service), "static-watcher");
+        t.setDaemon(true);
+        t.start();
+        return service;
+    }
+
+    // Registered before the file is cached, so a change after the read is always seen
+    private void watch(Path dir) throws IOException {
+        if (watcher == null || watchedDirs.contains(dir)) {
+            return;
+        }
+        synchronized (watchedDirs) {
+            if (watchedDirs.add(dir)) {
+                try {
+                    dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                } catch (IOException e) {
+                    watchedDirs.remove(dir);
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void watchLoop(WatchService service) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    cache.clear();
+                    continue;
+                }
+                cache.remove(dir.resolve((Path) event.context()));
+            }
+            if (!key.reset()) {
+                // The directory is gone; watch it again if it comes back
+                watchedDirs.remove(dir);
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+        }
+    }
+}
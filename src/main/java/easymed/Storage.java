@@ -0,0 +1,69 @@
+package easymed;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+
+// The four tables behind the API, as repositories, and the engine that holds them. The
+// SQLite engine keeps them in the database file; the memory engine keeps them in concurrent
+// maps, optionally loaded from and saved to a snapshot file. -Deasymed.storage picks one.
+// Repository methods throw SQLException whichever engine runs, so the handlers have one
+// error path; a unique key collision is always a DuplicateKeyException.
+public interface Storage extends AutoCloseable {
+
+    // An insert refused because another row already holds one of its unique keys; key names
+    // the column(s), or is null when the engine could not tell which
+    final class DuplicateKeyException extends SQLException {
+        private static final long serialVersionUID = 1L;
+
+        private final String key;
+
+        public DuplicateKeyException(String key, Throwable cause) {
+            super("Duplicate " + (key == null ? "key" : key), cause);
+            this.key = key;
+        }
+
+        public String key() {
+            return key;
+        }
+    }
+
+    // Receives the rows of a paged lookup one at a time. The visitor may write to a client, so
+    // an engine never calls it while holding a pooled connection (SQLite reads the page first).
+    // An IOException (the client went away mid-page) ends the lookup and is rethrown.
+    @FunctionalInterface
+    interface RowVisitor<T> {
+        void visit(T row) throws IOException;
+    }
+
+    DoctorRepository doctors();
+
+    PatientRepository patients();
+
+    AppointmentRepository appointments();
+
+    SymptomRepository symptoms();
+
+    // The file the data is kept in (the SQLite database or the memory engine's snapshot),
+    // or null when it lives only in this process
+    Path file();
+
+    // Engine statistics for GET /admin/db-stats, as a JSON object
+    String statsJson();
+
+    @Override
+    void close();
+
+    // sqlite (default) or memory, from -Deasymed.storage
+    static Storage fromSystemProperties() throws SQLException, IOException {
+        String engine = System.getProperty("easymed.storage", "sqlite");
+        switch (engine) {
+            case "sqlite":
+                return SqliteStorage.fromSystemProperties();
+            case "memory":
+                return MemoryStorage.fromSystemProperties();
+            default:
+                throw new IllegalArgumentException("Unknown storage engine " + engine + " (sqlite or memory)");
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package easymed;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.function.Consumer;
+
+// The symptoms table: each symptom check with the medicines suggested for it
+public interface SymptomRepository {
+
+    record SymptomCheck(int id, int patientId, String symptoms, String medicines) {
+    }
+
+    // Adds a symptom check (the id in the record is ignored) and returns the new id
+    int insert(SymptomCheck check) throws SQLException;
+
+    // Passes up to limit of the patient's symptom checks to visitor, newest first, with ids
+    // below beforeId, and returns how many it passed; beforeId 0 means from the newest
+    int findByPatient(int patientId, int beforeId, int limit, Storage.RowVisitor<SymptomCheck> visitor)
+            throws SQLException, IOException;
+
+    // Every symptom check with an id above afterId, in id order
+    void forEach(long afterId, Consumer<SymptomCheck> action) throws SQLException;
+
+    boolean exists(long id) throws SQLException;
+}
@@ -0,0 +1,267 @@
+package easymed;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Group commit for the request-path inserts. Callers hand their statement to submit() and
+// block; a single committer thread drains the queue into one transaction per batch, closed
+// after windowMillis or maxRows items, whichever comes first. The window is only waited
+// out when other writes are already queued, so an idle server adds no latency. Each item runs under its own
+// savepoint, so a failing insert is rolled back on its own and reported to its caller
+// while the rest of the batch still commits.
+public class WriteBatcher implements AutoCloseable {
+
+    // Batch-size histogram upper bounds; the last bucket takes everything larger
+    private static final int[] BUCKETS = {1, 2, 4, 8, 16, 32, 64, 128, 256};
+
+    private static final class Pending<T> {
+        final ConnectionManager.SqlWork<T> work;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final long enqueuedNanos = System.nanoTime();
+        // Set inside the transaction; only handed to the caller once the batch has committed
+        T value;
+        Exception failure;
+
+        Pending(ConnectionManager.SqlWork<T> work) {
+            this.work = work;
+        }
+
+        void run(Connection c) throws SQLException {
+            value = work.apply(c);
+        }
+
+        void finish() {
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            } else {
+                result.complete(value);
+            }
+        }
+    }
+
+    private final ConnectionManager db;
+    private final long windowNanos;
+    private final int maxRows;
+    private final LinkedBlockingQueue<Pending<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread committer;
+    private volatile boolean closed;
+
+    private final LongAdder[] batchSizes = new LongAdder[BUCKETS.length + 1];
+    private final LongAdder items = new LongAdder();
+    private final LongAdder failedItems = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder failedCommits = new LongAdder();
+    private final LongAdder commitNanos = new LongAdder();
+    private final AtomicLong maxCommitNanos = new AtomicLong();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    public WriteBatcher(ConnectionManager db, long windowMillis, int maxRows) {
+        this.db = db;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxRows = Math.max(1, maxRows);
+        for (int i = 0; i < batchSizes.length; i++) {
+            batchSizes[i] = new LongAdder();
+        }
+        this.committer = new Thread(this::run, "easymed-write-batcher");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    // Builds a batcher from -Deasymed.db.batchWindowMs and -Deasymed.db.batchMaxRows (default
+    // 64). The default window of 0 commits whatever queued up during the previous commit
+    // without waiting; in WAL mode with synchronous=NORMAL a commit does not fsync, so a
+    // longer window only pays off with a slower journal setup.
+    public static WriteBatcher fromSystemProperties(ConnectionManager db) {
+        return new WriteBatcher(db,
+                Long.getLong("easymed.db.batchWindowMs", 0L),
+                Integer.getInteger("easymed.db.batchMaxRows", 64));
+    }
+
+    // Queues work for the next batch and waits until that batch has committed. Returns
+    // the work's own result (typically a generated id) or rethrows its own failure.
+    public <T> T submit(ConnectionManager.SqlWork<T> work) throws SQLException {
+        if (closed) {
+            throw new SQLException("Write batcher is closed");
+        }
+        Pending<T> pending = new Pending<>(work);
+        queue.add(pending);
+        if (closed && queue.remove(pending)) {
+            // close() raced the add and the committer may already be gone; if remove()
+            // lost, the committer took the item and will complete it
+            throw new SQLException("Write batcher is closed");
+        }
+        try {
+            return unwrap(pending);
+        } finally {
+            // The commit runs on the committer thread; charge the wait to this request
+            Metrics.addDbNanos(System.nanoTime() - pending.enqueuedNanos);
+        }
+    }
+
+    private static <T> T unwrap(Pending<T> pending) throws SQLException {
+        try {
+            return pending.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the write batch", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SQLException(cause);
+        }
+    }
+
+    private void run() {
+        List<Pending<?>> batch = new ArrayList<>(maxRows);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Pending<?> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // Only linger when someone else is already waiting (like commit_siblings in
+                // PostgreSQL); a lone write is committed straight away
+                long deadline = queue.isEmpty() ? 0 : System.nanoTime() + windowNanos;
+                while (batch.size() < maxRows) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending<?> next = deadline != 0 && remaining > 0
+                            ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // Not expected: close() lets the poll time out instead; keep draining
+            }
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+            }
+        }
+        // Anything that slipped in after the last poll; submit() re-checks closed, so
+        // nothing can be added once this has run
+        SQLException closedException = new SQLException("Write batcher is closed");
+        for (Pending<?> p; (p = queue.poll()) != null; ) {
+            p.result.completeExceptionally(closedException);
+        }
+    }
+
+    private void commit(List<Pending<?>> batch) {
+        long start = System.nanoTime();
+        if (batch.size() == 1) {
+            // Nothing to group with: a plain autocommit write skips the savepoint round trips
+            Pending<?> p = batch.get(0);
+            try {
+                db.write(c -> {
+                    p.run(c);
+                    return null;
+                });
+            } catch (SQLException | RuntimeException e) {
+                failedItems.increment();
+                p.failure = e;
+            }
+            p.finish();
+            long end = System.nanoTime();
+            record(batch, end - start, end);
+            return;
+        }
+        try {
+            db.transaction(c -> {
+                for (Pending<?> p : batch) {
+                    Savepoint savepoint = c.setSavepoint();
+                    try {
+                        p.run(c);
+                        c.releaseSavepoint(savepoint);
+                    } catch (SQLException | RuntimeException e) {
+                        c.rollback(savepoint);
+                        c.releaseSavepoint(savepoint);
+                        failedItems.increment();
+                        p.failure = e;
+                    }
+                }
+                return null;
+            });
+            for (Pending<?> p : batch) {
+                p.finish();
+            }
+        } catch (SQLException | RuntimeException e) {
+            // Nothing in the batch reached the database
+            failedCommits.increment();
+            for (Pending<?> p : batch) {
+                p.result.completeExceptionally(e);
+            }
+        }
+        long end = System.nanoTime();
+        record(batch, end - start, end);
+    }
+
+    private void record(List<Pending<?>> batch, long commitTime, long end) {
+        int size = batch.size();
+        int bucket = 0;
+        while (bucket < BUCKETS.length && size > BUCKETS[bucket]) {
+            bucket++;
+        }
+        batchSizes[bucket].increment();
+        items.add(size);
+        commits.increment();
+        commitNanos.add(commitTime);
+        maxCommitNanos.accumulateAndGet(commitTime, Math::max);
+        for (Pending<?> p : batch) {
+            long latency = end - p.enqueuedNanos;
+            latencyNanos.add(latency);
+            maxLatencyNanos.accumulateAndGet(latency, Math::max);
+        }
+    }
+
+    public String statsJson() {
+        long n = Math.max(1, commits.sum());
+        long rows = Math.max(1, items.sum());
+        StringBuilder histogram = new StringBuilder("{");
+        for (int i = 0; i < batchSizes.length; i++) {
+            if (i > 0) histogram.append(',');
+            histogram.append('"').append(i < BUCKETS.length ? String.valueOf(BUCKETS[i]) : "+Inf").append("\":")
+                    .append(batchSizes[i].sum());
+        }
+        histogram.append('}');
+        return "{\"windowMillis\":" + TimeUnit.NANOSECONDS.toMillis(windowNanos) +
+                ",\"maxRows\":" + maxRows +
+                ",\"queued\":" + queue.size() +
+                ",\"commits\":" + commits.sum() +
+                ",\"failedCommits\":" + failedCommits.sum() +
+                ",\"items\":" + items.sum() +
+                ",\"failedItems\":" + failedItems.sum() +
+                ",\"batchSizes\":" + histogram +
+                ",\"avgCommitMicros\":" + commitNanos.sum() / n / 1000 +
+                ",\"maxCommitMicros\":" + maxCommitNanos.get() / 1000 +
+                ",\"avgLatencyMicros\":" + latencyNanos.sum() / rows / 1000 +
+                ",\"maxLatencyMicros\":" + maxLatencyNanos.get() / 1000 + "}";
+    }
+
+    // Commits anything still queued, then stops the committer thread
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            committer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package easymed;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// The memory engine against the contracts the SQLite engine gives the handlers: unique keys
+// refused with the key's name, keyset pages that neither skip nor repeat rows, and a snapshot
+// that brings back every row, index and id counter.
+class MemoryStorageTest {
+
+    private static final Pattern ID = Pattern.compile("\\{\"id\":(\\d+)");
+    private static final Pattern NEXT_CURSOR = Pattern.compile("\"nextCursor\":(null|\"([^\"]*)\")");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void duplicateCnicOrEmailIsRefusedWithItsKey() throws SQLException {
+        MemoryStorage storage = new MemoryStorage(null);
+        PatientRepository patients = storage.patients();
+        int first = patients.insert(patient("35202-1", "a@example.com", "0300"));
+
+        Storage.DuplicateKeyException cnic = assertThrows(Storage.DuplicateKeyException.class,
+                () -> patients.insert(patient("35202-1", "b@example.com", "0301")));
+        assertEquals("cnic", cnic.key());
+        Storage.DuplicateKeyException email = assertThrows(Storage.DuplicateKeyException.class,
+                () -> patients.insert(patient("35202-2", "a@example.com", "0301")));
+        assertEquals("email", email.key());
+
+        // The email collision must not leave its cnic claimed
+        int second = patients.insert(patient("35202-2", "b@example.com", "0300"));
+        assertTrue(second > first);
+        assertEquals(List.of(first, second),
+                patients.findByCnicOrPhone("0300").stream().map(PatientRepository.Patient::id).toList());
+    }
+
+    @Test
+    void bookedSlotIsRefusedForTheSameDoctorOnly() throws SQLException {
+        MemoryStorage storage = new MemoryStorage(null);
+        AppointmentRepository appointments = storage.appointments();
+        appointments.insert(appointment(1, 1, "2030-01-01", "09:00"));
+
+        Storage.DuplicateKeyException slot = assertThrows(Storage.DuplicateKeyException.class,
+                () -> appointments.insert(appointment(1, 2, "2030-01-01", "09:00")));
+        assertEquals("doctor_id, date, time", slot.key());
+        appointments.insert(appointment(2, 2, "2030-01-01", "09:00"));
+        appointments.insert(appointment(1, 2, "2030-01-01", "09:30"));
+    }
+
+    @Test
+    void keysetPagesWalkTheHistoryNewestFirst() throws SQLException, IOException {
+        MemoryStorage storage = new MemoryStorage(null);
+        AppointmentRepository appointments = storage.appointments();
+        List<AppointmentRepository.Appointment> expected = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            // Inserted out of date order, with several bookings sharing a date
+            String date = "2030-01-" + String.format("%02d", 1 + (i * 7) % 10);
+            String time = String.format("%02d:%02d", 9 + i / 10, i % 2 * 30);
+            int id = appointments.insert(appointment(1 + i % 3, 7, date, time));
+            expected.add(new AppointmentRepository.Appointment(id, 1 + i % 3, 7, date, time, "", "Flu"));
+            appointments.insert(appointment(1 + i % 3, 8, date, String.format("%02d:%02d", 13 + i / 10, i % 2 * 30)));
+        }
+        expected.sort(Comparator.comparing(AppointmentRepository.Appointment::date)
+                .thenComparing(AppointmentRepository.Appointment::time)
+                .thenComparingInt(AppointmentRepository.Appointment::id).reversed());
+
+        List<AppointmentRepository.Appointment> seen = new ArrayList<>();
+        AppointmentRepository.Appointment last = null;
+        while (true) {
+            List<AppointmentRepository.Appointment> page = new ArrayList<>();
+            int rows = last == null
+                    ? appointments.findByPatient(7, null, null, 0, 10, page::add)
+                    : appointments.findByPatient(7, last.date(), last.time(), last.id(), 10, page::add);
+            assertEquals(page.size(), rows);
+            if (page.isEmpty()) {
+                break;
+            }
+            seen.addAll(page);
+            last = page.get(page.size() - 1);
+        }
+        assertEquals(expected, seen);
+
+        SymptomRepository symptoms = storage.symptoms();
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            ids.add(0, symptoms.insert(new SymptomRepository.SymptomCheck(0, 7, "cough " + i, "Syrup")));
+            symptoms.insert(new SymptomRepository.SymptomCheck(0, 8, "fever " + i, "Paracetamol"));
+        }
+        List<Integer> seenIds = new ArrayList<>();
+        int beforeId = 0;
+        List<SymptomRepository.SymptomCheck> page = new ArrayList<>();
+        do {
+            page.clear();
+            symptoms.findByPatient(7, beforeId, 5, page::add);
+            page.forEach(s -> seenIds.add(s.id()));
+            beforeId = page.isEmpty() ? 0 : page.get(page.size() - 1).id();
+        } while (!page.isEmpty());
+        assertEquals(ids, seenIds);
+    }
+
+    @Test
+    void historyCursorsCoverEveryRowOnce() throws SQLException, IOException {
+        MemoryStorage storage = new MemoryStorage(null);
+        storage.doctors().insert(new DoctorDirectory.Doctor(0, "Dr Test", "Cardiology", 10, "0300"));
+        for (int i = 0; i < 23; i++) {
+            storage.appointments().insert(appointment(1, 7, "2030-02-" + String.format("%02d", 1 + i / 4),
+                    String.format("%02d:00", 9 + i % 4)));
+        }
+        PatientHistory history = new PatientHistory(storage.appointments(), storage.symptoms(),
+                new DoctorDirectory(storage.doctors(), 300));
+
+        List<Integer> ids = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (JsonWriter json = new JsonWriter(out)) {
+                history.writeAppointments(json, 7, cursor, 10);
+            }
+            String page = out.toString(StandardCharsets.UTF_8);
+            assertTrue(page.contains("\"doctor\":\"Dr Test\""), page);
+            Matcher id = ID.matcher(page);
+            while (id.find()) {
+                ids.add(Integer.parseInt(id.group(1)));
+            }
+            Matcher next = NEXT_CURSOR.matcher(page);
+            assertTrue(next.find(), page);
+            cursor = next.group(2);
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(3, pages);
+        assertEquals(23, ids.size());
+        assertEquals(23, ids.stream().distinct().count());
+        assertThrows(PatientHistory.InvalidCursorException.class,
+                () -> history.writeAppointments(new JsonWriter(new ByteArrayOutputStream()), 7, "not-a-cursor", 10));
+    }
+
+    @Test
+    void snapshotRoundTripKeepsRowsIndexesAndIds() throws SQLException, IOException {
+        Path snapshot = dir.resolve("snapshot.bin");
+        MemoryStorage original = new MemoryStorage(snapshot);
+        int doctor = original.doctors().insert(new DoctorDirectory.Doctor(0, "Dr Test", "Neurology", 12, "0311"));
+        int patient = original.patients().insert(patient("35202-1", "a@example.com", "0300"));
+        assertThrows(Storage.DuplicateKeyException.class,
+                () -> original.patients().insert(patient("35202-1", "z@example.com", "0300")));
+        original.patients().insert(patient("35202-3", "c@example.com", "0300"));
+        int appointment = original.appointments().insert(new AppointmentRepository.Appointment(0, doctor, patient,
+                "2030-03-01", "10:30", "Ünïcode message", "Migraine"));
+        // message is the one nullable text column
+        int noMessage = original.appointments().insert(new AppointmentRepository.Appointment(0, doctor, patient,
+                "2030-03-01", "11:00", null, "Migraine"));
+        original.symptoms().insert(new SymptomRepository.SymptomCheck(0, patient, "headache", "Ibuprofen"));
+        List<PatientRepository.Patient> patientsBefore = new ArrayList<>();
+        original.patients().forEach(patientsBefore::add);
+        original.close();
+        assertTrue(Files.size(snapshot) > 0);
+
+        String previous = System.getProperty("easymed.storage.snapshot");
+        System.setProperty("easymed.storage.snapshot", snapshot.toString());
+        MemoryStorage restored;
+        try {
+            restored = MemoryStorage.fromSystemProperties();
+        } finally {
+            if (previous == null) {
+                System.clearProperty("easymed.storage.snapshot");
+            } else {
+                System.setProperty("easymed.storage.snapshot", previous);
+            }
+        }
+
+        assertEquals(original.doctors().findAll(), restored.doctors().findAll());
+        List<PatientRepository.Patient> patientsAfter = new ArrayList<>();
+        restored.patients().forEach(patientsAfter::add);
+        assertEquals(patientsBefore, patientsAfter);
+        assertNull(restored.patients().findById(patient + 100));
+        List<AppointmentRepository.Appointment> appointments = new ArrayList<>();
+        restored.appointments().forEach(0, appointments::add);
+        assertEquals(List.of(
+                new AppointmentRepository.Appointment(appointment, doctor, patient,
+                        "2030-03-01", "10:30", "Ünïcode message", "Migraine"),
+                new AppointmentRepository.Appointment(noMessage, doctor, patient,
+                        "2030-03-01", "11:00", null, "Migraine")), appointments);
+        List<SymptomRepository.SymptomCheck> symptoms = new ArrayList<>();
+        restored.symptoms().findByPatient(patient, 0, 10, symptoms::add);
+        assertEquals("headache", symptoms.get(0).symptoms());
+
+        // The unique indexes are rebuilt from the rows
+        assertEquals("cnic", assertThrows(Storage.DuplicateKeyException.class,
+                () -> restored.patients().insert(patient("35202-1", "new@example.com", "0399"))).key());
+        assertEquals("doctor_id, date, time", assertThrows(Storage.DuplicateKeyException.class,
+                () -> restored.appointments().insert(new AppointmentRepository.Appointment(0, doctor, patient + 1,
+                        "2030-03-01", "10:30", "", "Flu"))).key());
+        // Ids carry on after the highest one stored
+        int maxPatient = patientsAfter.get(patientsAfter.size() - 1).id();
+        assertTrue(restored.patients().insert(patient("35202-9", "n@example.com", "0399")) > maxPatient);
+        assertTrue(restored.appointments().insert(appointment(doctor, patient, "2030-03-02", "09:00")) > noMessage);
+    }
+
+    private static PatientRepository.Patient patient(String cnic, String email, String phone) {
+        return new PatientRepository.Patient(0, "Test Patient", "Test Father", cnic, email, "hash", phone, 30, "Flu");
+    }
+
+    private static AppointmentRepository.Appointment appointment(int doctorId, int patientId, String date, String time) {
+        return new AppointmentRepository.Appointment(0, doctorId, patientId, date, time, "", "Flu");
+    }
+}